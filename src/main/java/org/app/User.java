@@ -3,6 +3,11 @@ package org.app;
 public class User {
     private String username;
     private String ip;
+    private String peerId;
+    private int protocolVersion;
+    private int activeTransfers;
+    private long freeSpace = -1;
+    private int maxStreams;
 
     public User() {
     }
@@ -31,4 +36,48 @@ public class User {
     public void setIp(String ip) {
         this.ip = ip;
     }
+
+    /** Stable identifier advertised by the peer; legacy peers are identified by IP. */
+    public String getPeerId() {
+        return peerId != null ? peerId : "ip:" + ip;
+    }
+
+    public void setPeerId(String peerId) {
+        this.peerId = peerId;
+    }
+
+    /** Discovery protocol version, 0 for peers that only broadcast their name. */
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    public void setProtocolVersion(int protocolVersion) {
+        this.protocolVersion = protocolVersion;
+    }
+
+    public int getActiveTransfers() {
+        return activeTransfers;
+    }
+
+    public void setActiveTransfers(int activeTransfers) {
+        this.activeTransfers = activeTransfers;
+    }
+
+    /** Usable space in the peer's save directory in bytes, or -1 if not advertised. */
+    public long getFreeSpace() {
+        return freeSpace;
+    }
+
+    public void setFreeSpace(long freeSpace) {
+        this.freeSpace = freeSpace;
+    }
+
+    /** Parallel chunk streams the peer accepts, or 0 if not advertised. */
+    public int getMaxStreams() {
+        return maxStreams;
+    }
+
+    public void setMaxStreams(int maxStreams) {
+        this.maxStreams = maxStreams;
+    }
 }
@@ -0,0 +1,36 @@
+package org.app.backend;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential back-off for discovery announcements: starts at the minimum
+ * interval, doubles after every announcement up to the maximum, and drops back
+ * to the minimum on {@link #reset()}. Each interval is jittered by up to
+ * {@code ±JITTER} so that hosts started together drift apart instead of
+ * broadcasting in lockstep.
+ */
+class AnnounceSchedule {
+    private static final double JITTER = 0.2;
+
+    private final long minMillis;
+    private final long maxMillis;
+    private long currentMillis;
+
+    AnnounceSchedule(long minMillis, long maxMillis) {
+        this.minMillis = minMillis;
+        this.maxMillis = maxMillis;
+        this.currentMillis = minMillis;
+    }
+
+    /** Returns the jittered delay until the next announcement and backs off for the one after. */
+    long next() {
+        double factor = 1 + ThreadLocalRandom.current().nextDouble(-JITTER, JITTER);
+        long delay = Math.max(1, (long) (currentMillis * factor));
+        currentMillis = Math.min(maxMillis, currentMillis * 2);
+        return delay;
+    }
+
+    void reset() {
+        currentMillis = minMillis;
+    }
+}
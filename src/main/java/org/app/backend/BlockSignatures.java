@@ -0,0 +1,277 @@
+package org.app.backend;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Block signatures of the receiver's existing copy of a file, for delta transfers.
+ *
+ * The receiver splits its copy into fixed-size blocks and signs each with an
+ * rsync-style rolling checksum and an MD5 digest. The sender slides a window
+ * over each chunk of the new version, looks the rolling checksum up in a hash
+ * table and confirms candidates by MD5. Matched ranges are sent as copy frames
+ * that the receiver fills from its old copy; everything else is sent as data.
+ *
+ * Only whole blocks are signed, so a short tail of the old copy is never
+ * matched. Wire format: {@code int blockSize, int blockCount}, then per block
+ * {@code int weak, byte[16] strong}.
+ */
+public class BlockSignatures {
+    static final int MIN_BLOCK_SIZE = 4 * 1024;
+    static final int MAX_BLOCK_SIZE = ChunkCodec.BLOCK_SIZE;
+    private static final int STRONG_SIZE = 16;
+    // Blocks signed per parallel task
+    private static final int BLOCKS_PER_TASK = 64;
+
+    /** A range of a chunk: copied from {@code basisOffset} of the old copy, or literal if that is negative. */
+    public record Range(long offset, long length, long basisOffset) {
+        public boolean isCopy() {
+            return basisOffset >= 0;
+        }
+    }
+
+    private final int blockSize;
+    private final int[] weak;
+    private final byte[] strong;
+    private final int[] buckets;
+    private final int[] next;
+    private final int bucketShift;
+
+    private BlockSignatures(int blockSize, int[] weak, byte[] strong) {
+        this.blockSize = blockSize;
+        this.weak = weak;
+        this.strong = strong;
+        int bucketBits = Math.max(4, 33 - Integer.numberOfLeadingZeros(Math.max(1, weak.length)));
+        this.buckets = new int[1 << bucketBits];
+        this.bucketShift = 32 - bucketBits;
+        this.next = new int[weak.length];
+        Arrays.fill(buckets, -1);
+        for (int i = weak.length - 1; i >= 0; i--) {
+            int bucket = bucket(weak[i]);
+            next[i] = buckets[bucket];
+            buckets[bucket] = i;
+        }
+    }
+
+    /** Roughly the square root of the file size, as rsync does, in powers of two. */
+    static int blockSizeFor(long fileSize) {
+        long root = Long.highestOneBit(Math.max(1, (long) Math.sqrt((double) fileSize)));
+        return (int) Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, root));
+    }
+
+    /** Signs the first {@code size} bytes of {@code basis}, spreading the blocks over the common pool. */
+    public static BlockSignatures compute(FileChannel basis, long size) throws IOException {
+        int blockSize = blockSizeFor(size);
+        int blocks = (int) (size / blockSize);
+        int[] weak = new int[blocks];
+        byte[] strong = new byte[blocks * STRONG_SIZE];
+        int tasks = (blocks + BLOCKS_PER_TASK - 1) / BLOCKS_PER_TASK;
+        try {
+            IntStream.range(0, tasks).parallel().forEach(task -> {
+                MessageDigest md5 = md5();
+                ByteBuffer block = ByteBuffer.allocate(blockSize);
+                int end = Math.min(blocks, (task + 1) * BLOCKS_PER_TASK);
+                for (int i = task * BLOCKS_PER_TASK; i < end; i++) {
+                    block.clear();
+                    try {
+                        ChunkCodec.readFully(basis, block, (long) i * blockSize);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    weak[i] = checksum(block.array(), blockSize);
+                    md5.update(block.array(), 0, blockSize);
+                    try {
+                        md5.digest(strong, i * STRONG_SIZE, STRONG_SIZE);
+                    } catch (DigestException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new BlockSignatures(blockSize, weak, strong);
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(blockSize);
+        out.writeInt(weak.length);
+        for (int i = 0; i < weak.length; i++) {
+            out.writeInt(weak[i]);
+            out.write(strong, i * STRONG_SIZE, STRONG_SIZE);
+        }
+    }
+
+    public static BlockSignatures read(DataInputStream in) throws IOException {
+        int blockSize = in.readInt();
+        int blocks = in.readInt();
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE || blocks < 0
+                || blocks > Integer.MAX_VALUE / STRONG_SIZE) {
+            throw new IOException("Invalid block signatures: blockSize=" + blockSize + ", blocks=" + blocks);
+        }
+        int[] weak = new int[blocks];
+        byte[] strong = new byte[blocks * STRONG_SIZE];
+        for (int i = 0; i < blocks; i++) {
+            weak[i] = in.readInt();
+            in.readFully(strong, i * STRONG_SIZE, STRONG_SIZE);
+        }
+        return new BlockSignatures(blockSize, weak, strong);
+    }
+
+    public int getBlockSize() { return blockSize; }
+    public int getBlockCount() { return weak.length; }
+
+    /**
+     * Splits {@code size} bytes of {@code source} from {@code start} into copy
+     * and literal ranges. Matches never cross the chunk's bounds, so chunks can
+     * be matched independently on their own stream threads.
+     */
+    public List<Range> match(ChunkSource source, long start, int size) throws IOException {
+        List<Range> ranges = new ArrayList<>();
+        if (size < blockSize || weak.length == 0) {
+            ranges.add(new Range(start, size, -1));
+            return ranges;
+        }
+        ByteBuffer data = source.view(start, size);
+        MessageDigest md5 = md5();
+        byte[] window = new byte[blockSize];
+        byte[] digest = new byte[STRONG_SIZE];
+        int literalStart = 0;
+        int position = 0;
+        int a = 0;
+        int b = 0;
+        boolean fresh = true;
+        while (position + blockSize <= size) {
+            if (fresh) {
+                data.get(position, window);
+                int sum = checksum(window, blockSize);
+                a = sum & 0xFFFF;
+                b = sum >>> 16;
+                fresh = false;
+            }
+            int block = find((a & 0xFFFF) | (b << 16), data, position, window, md5, digest, expectedBlock(ranges));
+            if (block >= 0) {
+                if (position > literalStart) {
+                    ranges.add(new Range(start + literalStart, position - literalStart, -1));
+                }
+                addCopy(ranges, start + position, (long) block * blockSize);
+                position += blockSize;
+                literalStart = position;
+                fresh = true;
+                continue;
+            }
+            if (position + blockSize == size) {
+                break;
+            }
+            int out = data.get(position) & 0xFF;
+            int in = data.get(position + blockSize) & 0xFF;
+            a += in - out;
+            b += a - blockSize * out;
+            position++;
+        }
+        if (literalStart < size) {
+            ranges.add(new Range(start + literalStart, size - literalStart, -1));
+        }
+        return ranges;
+    }
+
+    // The block that would extend the previous copy range, so runs of unchanged blocks merge
+    private int expectedBlock(List<Range> ranges) {
+        if (ranges.isEmpty()) {
+            return -1;
+        }
+        Range last = ranges.get(ranges.size() - 1);
+        if (!last.isCopy()) {
+            return -1;
+        }
+        long nextBasis = last.basisOffset() + last.length();
+        return nextBasis / blockSize < weak.length ? (int) (nextBasis / blockSize) : -1;
+    }
+
+    private int find(int checksum, ByteBuffer data, int position, byte[] window, MessageDigest md5,
+                     byte[] digest, int preferred) {
+        int candidate = buckets[bucket(checksum)];
+        boolean digested = false;
+        if (preferred >= 0 && weak[preferred] == checksum) {
+            digest(data, position, window, md5, digest);
+            digested = true;
+            if (strongEquals(preferred, digest)) {
+                return preferred;
+            }
+        }
+        for (; candidate >= 0; candidate = next[candidate]) {
+            if (weak[candidate] != checksum) {
+                continue;
+            }
+            if (!digested) {
+                digest(data, position, window, md5, digest);
+                digested = true;
+            }
+            if (strongEquals(candidate, digest)) {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+
+    private void digest(ByteBuffer data, int position, byte[] window, MessageDigest md5, byte[] digest) {
+        data.get(position, window);
+        md5.update(window);
+        try {
+            md5.digest(digest, 0, STRONG_SIZE);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private boolean strongEquals(int block, byte[] digest) {
+        int from = block * STRONG_SIZE;
+        return Arrays.equals(strong, from, from + STRONG_SIZE, digest, 0, STRONG_SIZE);
+    }
+
+    private void addCopy(List<Range> ranges, long offset, long basisOffset) {
+        if (!ranges.isEmpty()) {
+            Range last = ranges.get(ranges.size() - 1);
+            if (last.isCopy() && last.offset() + last.length() == offset
+                    && last.basisOffset() + last.length() == basisOffset) {
+                ranges.set(ranges.size() - 1, new Range(last.offset(), last.length() + blockSize, last.basisOffset()));
+                return;
+            }
+        }
+        ranges.add(new Range(offset, blockSize, basisOffset));
+    }
+
+    private int bucket(int checksum) {
+        return (checksum * 0x9E3779B9) >>> bucketShift;
+    }
+
+    // rsync's weak checksum: a = sum of bytes, b = sum of bytes weighted by distance from the end
+    static int checksum(byte[] data, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            a += data[i] & 0xFF;
+            b += (length - i) * (data[i] & 0xFF);
+        }
+        return (a & 0xFFFF) | (b << 16);
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package org.app.backend;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodings for the body of a chunk connection.
+ *
+ * The chunk header ends with an encoding byte. {@link #ENCODING_RAW} bodies are
+ * the chunk's bytes as-is and go through {@code transferTo}. {@link #ENCODING_FRAMED}
+ * bodies are a sequence of frames, each covering up to {@link #BLOCK_SIZE} bytes
+ * of the chunk in order:
+ *
+ * <pre>
+ * byte type, int rawLength, int payloadLength, payload
+ * </pre>
+ *
+ * {@link #FRAME_RAW} carries the bytes uncompressed, {@link #FRAME_DEFLATE}
+ * carries them as raw Deflate data and {@link #FRAME_ZERO} has no payload and
+ * stands for {@code rawLength} zero bytes, which the receiver leaves as a hole.
+ * {@link #FRAME_COPY} carries a {@code long} offset into the receiver's old
+ * copy of the file to take the bytes from (see {@link BlockSignatures}).
+ * {@link #FRAME_STORED} carries an {@code int} index into the file's
+ * {@link ChunkRecipe} for a chunk the receiver already holds in some file.
+ */
+public final class ChunkCodec {
+    public static final byte ENCODING_RAW = 0;
+    public static final byte ENCODING_FRAMED = 1;
+
+    public static final byte FRAME_RAW = 0;
+    public static final byte FRAME_DEFLATE = 1;
+    public static final byte FRAME_ZERO = 2;
+    public static final byte FRAME_COPY = 3;
+    public static final byte FRAME_STORED = 4;
+
+    public static final int BLOCK_SIZE = 1024 * 1024;
+    static final int FRAME_HEADER_SIZE = 9;
+    // Deflate can expand incompressible input slightly; such blocks are sent raw anyway
+    private static final int MAX_PAYLOAD = BLOCK_SIZE + 1024;
+
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    private static final int SAMPLES = 4;
+    // A block is read in full to check for zeros only if this much of its start is zero
+    private static final int PROBE_SIZE = 4096;
+    // Compress only if samples shrink to below this fraction of their size
+    private static final double WORTHWHILE_RATIO = 0.9;
+    // Give up compressing the rest of a chunk after this many blocks in a row did not shrink
+    private static final int MAX_INCOMPRESSIBLE_RUN = 4;
+    private static final byte[] ZEROS = new byte[BLOCK_SIZE];
+
+    /** Receives decoded chunk data; positions are absolute file offsets. */
+    public interface BlockSink {
+        void write(ByteBuffer data, long position) throws IOException;
+
+        /**
+         * A run of zero bytes. Sinks writing into a freshly truncated file should
+         * skip the write and leave a hole; by default the zeros are written out.
+         */
+        default void zero(long position, int length) throws IOException {
+            write(ByteBuffer.wrap(ZEROS, 0, length), position);
+        }
+
+        /** Bytes the sender matched in the receiver's old copy of the file. */
+        default void copy(long basisOffset, long position, int length) throws IOException {
+            throw new IOException("Copy frame without an old copy to copy from");
+        }
+
+        /** Chunk {@code entry} of the file's recipe, which the receiver already holds. */
+        default void stored(int entry, long position, int length) throws IOException {
+            throw new IOException("Stored chunk frame without a chunk recipe");
+        }
+    }
+
+    private ChunkCodec() {
+    }
+
+    /**
+     * Picks the encoding for a chunk. With {@code elideZeros} set, the chunk is
+     * framed if any of its blocks is all zeros, found the way
+     * {@link #dataBytes} finds them, so every hole it counted is elided. With
+     * {@code compress} set, it is framed if a few samples spread across it
+     * Deflate well. Otherwise it keeps the zero-copy raw path.
+     */
+    public static byte chooseEncoding(ChunkSource source, long start, int size, boolean compress,
+                                      boolean elideZeros) throws IOException {
+        if (elideZeros && zeroBytes(source, start, size, true) > 0) {
+            return ENCODING_FRAMED;
+        }
+        if (!compress) {
+            return ENCODING_RAW;
+        }
+        int sampleSize = Math.min(SAMPLE_SIZE, size);
+        int samples = Math.max(1, Math.min(SAMPLES, size / sampleSize));
+        long stride = samples > 1 ? (size - sampleSize) / (samples - 1) : 0;
+        ByteBuffer sample = ByteBuffer.allocate(sampleSize);
+        byte[] output = new byte[sampleSize + 1024];
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        long raw = 0;
+        long compressed = 0;
+        try {
+            for (int i = 0; i < samples; i++) {
+                sample.clear();
+                readFully(source, sample, start + i * stride);
+                deflater.reset();
+                deflater.setInput(sample.array(), 0, sample.position());
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressed += deflater.deflate(output);
+                }
+                raw += sample.position();
+            }
+        } finally {
+            deflater.end();
+        }
+        return raw > 0 && compressed < raw * WORTHWHILE_RATIO ? ENCODING_FRAMED : ENCODING_RAW;
+    }
+
+    /**
+     * Bytes of {@code source} outside its all-zero blocks, roughly what the
+     * receiver writes when zeros are elided and the rest are left as holes. A
+     * block is read in full only if its first page is zero, so a source
+     * without holes costs one small read per block.
+     */
+    public static long dataBytes(ChunkSource source) throws IOException {
+        long size = source.size();
+        return size - zeroBytes(source, 0, size, false);
+    }
+
+    // Bytes in the all-zero blocks of the range, which starts on a block boundary; with firstOnly, stops at the
+    // first such block
+    private static long zeroBytes(ChunkSource source, long start, long size, boolean firstOnly) throws IOException {
+        long zeros = 0;
+        ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+        ByteBuffer block = null;
+        for (long offset = 0; offset < size; offset += BLOCK_SIZE) {
+            int length = (int) Math.min(BLOCK_SIZE, size - offset);
+            probe.clear().limit(Math.min(PROBE_SIZE, length));
+            readFully(source, probe, start + offset);
+            if (!isZero(probe.array(), probe.position())) {
+                continue;
+            }
+            if (block == null) {
+                block = ByteBuffer.allocate(BLOCK_SIZE);
+            }
+            block.clear().limit(length);
+            readFully(source, block, start + offset);
+            if (isZero(block.array(), block.position())) {
+                zeros += length;
+                if (firstOnly) {
+                    break;
+                }
+            }
+        }
+        return zeros;
+    }
+
+    /**
+     * Writes {@code size} bytes of {@code source} from {@code start} as frames.
+     * With {@code elideZeros}, all-zero blocks become zero frames; with
+     * {@code compress}, other blocks are Deflated at level 1 unless they do not
+     * shrink. {@code progress} receives the number of chunk bytes covered by each frame.
+     * Blocks are read ahead on another thread while the previous one is encoded and sent.
+     */
+    public static void writeFramed(ChunkSource source, long start, int size, WritableByteChannel out,
+                                   boolean compress, boolean elideZeros, LongConsumer progress) throws IOException {
+        try (FrameWriter writer = new FrameWriter(out, size, compress, elideZeros, progress);
+             ReadAheadSource blocks = writer.readAhead(source, List.of(new ReadAheadSource.Range(start, size)))) {
+            writer.writeData(blocks, size);
+        }
+    }
+
+    /**
+     * Writes a delta-encoded chunk: copy ranges become copy frames referring to
+     * the receiver's old copy, literal ranges are framed as in
+     * {@link #writeFramed}.
+     */
+    public static void writeDelta(ChunkSource source, List<BlockSignatures.Range> ranges, WritableByteChannel out,
+                                  boolean compress, boolean elideZeros, LongConsumer progress) throws IOException {
+        long size = 0;
+        List<ReadAheadSource.Range> literals = new ArrayList<>();
+        for (BlockSignatures.Range range : ranges) {
+            size += range.length();
+            if (!range.isCopy()) {
+                literals.add(new ReadAheadSource.Range(range.offset(), range.length()));
+            }
+        }
+        try (FrameWriter writer = new FrameWriter(out, size, compress, elideZeros, progress);
+             ReadAheadSource blocks = writer.readAhead(source, literals)) {
+            for (BlockSignatures.Range range : ranges) {
+                if (range.isCopy()) {
+                    writer.writeCopy(range.basisOffset(), range.length());
+                } else {
+                    writer.writeData(blocks, range.length());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a chunk deduplicated against the receiver's chunk index: chunks it
+     * already holds become stored chunk frames, the bytes in between are framed
+     * as in {@link #writeFramed}.
+     */
+    public static void writeDeduplicated(ChunkSource source, List<ChunkRecipe.Span> spans, WritableByteChannel out,
+                                         boolean compress, boolean elideZeros, LongConsumer progress)
+            throws IOException {
+        long size = 0;
+        List<ReadAheadSource.Range> literals = new ArrayList<>();
+        for (ChunkRecipe.Span span : spans) {
+            size += span.length();
+            if (!span.isStored()) {
+                literals.add(new ReadAheadSource.Range(span.offset(), span.length()));
+            }
+        }
+        try (FrameWriter writer = new FrameWriter(out, size, compress, elideZeros, progress);
+             ReadAheadSource blocks = writer.readAhead(source, literals)) {
+            for (ChunkRecipe.Span span : spans) {
+                if (span.isStored()) {
+                    writer.writeStored(span.entry(), span.length());
+                } else {
+                    writer.writeData(blocks, span.length());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a framed chunk body of {@code size} bytes starting at file offset
+     * {@code start} and hands the decoded blocks to {@code sink} in order.
+     */
+    public static void readFramed(DataInputStream in, long start, int size, BlockSink sink) throws IOException {
+        byte[] payload = new byte[Math.min(MAX_PAYLOAD, size + 1024)];
+        byte[] raw = new byte[Math.min(BLOCK_SIZE, size)];
+        Inflater inflater = new Inflater(true);
+        try {
+            long offset = 0;
+            while (offset < size) {
+                byte type = in.readByte();
+                int rawLength = in.readInt();
+                int payloadLength = in.readInt();
+                if (rawLength <= 0 || rawLength > raw.length || offset + rawLength > size
+                        || payloadLength < 0 || payloadLength > payload.length) {
+                    throw new IOException(String.format("Invalid frame at offset %d: type=%d, raw=%d, payload=%d",
+                            offset, type, rawLength, payloadLength));
+                }
+                in.readFully(payload, 0, payloadLength);
+                switch (type) {
+                    case FRAME_RAW -> {
+                        if (payloadLength != rawLength) {
+                            throw new IOException("Raw frame length mismatch at offset " + offset);
+                        }
+                        sink.write(ByteBuffer.wrap(payload, 0, rawLength), start + offset);
+                    }
+                    case FRAME_DEFLATE -> {
+                        inflate(inflater, payload, payloadLength, raw, rawLength, offset);
+                        sink.write(ByteBuffer.wrap(raw, 0, rawLength), start + offset);
+                    }
+                    case FRAME_ZERO -> {
+                        if (payloadLength != 0) {
+                            throw new IOException("Zero frame with payload at offset " + offset);
+                        }
+                        sink.zero(start + offset, rawLength);
+                    }
+                    case FRAME_COPY -> {
+                        if (payloadLength != Long.BYTES) {
+                            throw new IOException("Invalid copy frame at offset " + offset);
+                        }
+                        sink.copy(ByteBuffer.wrap(payload, 0, Long.BYTES).getLong(), start + offset, rawLength);
+                    }
+                    case FRAME_STORED -> {
+                        if (payloadLength != Integer.BYTES) {
+                            throw new IOException("Invalid stored chunk frame at offset " + offset);
+                        }
+                        sink.stored(ByteBuffer.wrap(payload, 0, Integer.BYTES).getInt(), start + offset, rawLength);
+                    }
+                    default -> throw new IOException("Unknown frame type " + type + " at offset " + offset);
+                }
+                offset += rawLength;
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static final class FrameWriter implements AutoCloseable {
+        private final WritableByteChannel out;
+        private final boolean compress;
+        private final boolean elideZeros;
+        private final LongConsumer progress;
+        private final int blockSize;
+        private final ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + MAX_PAYLOAD);
+        // Raw frames go out as header plus the read buffer itself, without copying it into the frame
+        private final ByteBuffer[] rawFrame = new ByteBuffer[2];
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        private int incompressibleRun;
+
+        FrameWriter(WritableByteChannel out, long size, boolean compress, boolean elideZeros, LongConsumer progress) {
+            this.out = out;
+            this.compress = compress;
+            this.elideZeros = elideZeros;
+            this.progress = progress;
+            this.blockSize = (int) Math.max(1, Math.min(BLOCK_SIZE, size));
+        }
+
+        ReadAheadSource readAhead(ChunkSource source, List<ReadAheadSource.Range> ranges) {
+            return new ReadAheadSource(source, ranges, blockSize);
+        }
+
+        // Frames the next size bytes of blocks, which must end on a block boundary of the source
+        void writeData(ReadAheadSource blocks, long size) throws IOException {
+            long offset = 0;
+            while (offset < size) {
+                ByteBuffer block = blocks.next();
+                int length = block.remaining();
+                try {
+                    frame.clear();
+                    int payload = -1;
+                    if (elideZeros && isZero(block)) {
+                        frame.put(FRAME_ZERO).putInt(length).putInt(0);
+                        send(length);
+                        continue;
+                    }
+                    if (compress && incompressibleRun < MAX_INCOMPRESSIBLE_RUN) {
+                        payload = deflate(deflater, block, frame.array(), FRAME_HEADER_SIZE);
+                        incompressibleRun = payload < 0 ? incompressibleRun + 1 : 0;
+                    }
+                    if (payload >= 0) {
+                        frame.put(FRAME_DEFLATE).putInt(length).putInt(payload);
+                        frame.position(FRAME_HEADER_SIZE + payload);
+                        send(length);
+                    } else {
+                        frame.put(FRAME_RAW).putInt(length).putInt(length);
+                        sendRaw(block);
+                    }
+                } finally {
+                    offset += length;
+                    blocks.release(block);
+                }
+            }
+        }
+
+        void writeCopy(long basisOffset, long size) throws IOException {
+            long offset = 0;
+            while (offset < size) {
+                int length = (int) Math.min(blockSize, size - offset);
+                frame.clear();
+                frame.put(FRAME_COPY).putInt(length).putInt(Long.BYTES).putLong(basisOffset + offset);
+                send(length);
+                offset += length;
+            }
+        }
+
+        void writeStored(int entry, int length) throws IOException {
+            frame.clear();
+            frame.put(FRAME_STORED).putInt(length).putInt(Integer.BYTES).putInt(entry);
+            send(length);
+        }
+
+        private void send(int rawLength) throws IOException {
+            frame.flip();
+            while (frame.hasRemaining()) {
+                out.write(frame);
+            }
+            progress.accept(rawLength);
+        }
+
+        private void sendRaw(ByteBuffer block) throws IOException {
+            int rawLength = block.remaining();
+            if (!(out instanceof GatheringByteChannel gathering)) {
+                frame.put(block);
+                send(rawLength);
+                return;
+            }
+            rawFrame[0] = frame.flip();
+            rawFrame[1] = block;
+            while (block.hasRemaining()) {
+                gathering.write(rawFrame);
+            }
+            progress.accept(rawLength);
+        }
+
+        @Override
+        public void close() {
+            deflater.end();
+        }
+    }
+
+    // Returns the compressed length, or -1 if the block did not shrink enough to be worth it
+    private static int deflate(Deflater deflater, ByteBuffer input, byte[] output, int outputOffset) {
+        int length = input.remaining();
+        deflater.reset();
+        // A duplicate, so the block is still whole if it has to be sent raw
+        deflater.setInput(input.duplicate());
+        deflater.finish();
+        int limit = Math.min(output.length - outputOffset, length - length / 16);
+        int written = 0;
+        while (!deflater.finished() && written < limit) {
+            written += deflater.deflate(output, outputOffset + written, limit - written);
+        }
+        return deflater.finished() ? written : -1;
+    }
+
+    private static void inflate(Inflater inflater, byte[] payload, int payloadLength, byte[] raw, int rawLength,
+                                long offset) throws IOException {
+        inflater.reset();
+        inflater.setInput(payload, 0, payloadLength);
+        try {
+            int inflated = 0;
+            while (inflated < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, inflated, rawLength - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != rawLength) {
+                throw new IOException("Corrupt compressed frame at offset " + offset);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed frame at offset " + offset + ": " + e.getMessage(), e);
+        }
+    }
+
+    static boolean isZero(byte[] data, int length) {
+        return isZero(data, 0, length);
+    }
+
+    static boolean isZero(byte[] data, int offset, int length) {
+        return Arrays.mismatch(data, offset, offset + length, ZEROS, 0, length) < 0;
+    }
+
+    // The remaining bytes of a heap or direct buffer
+    static boolean isZero(ByteBuffer data) {
+        return data.mismatch(ByteBuffer.wrap(ZEROS, 0, data.remaining())) < 0;
+    }
+
+    static void readFully(FileChannel source, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = source.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at " + (position + buffer.position()));
+            }
+        }
+    }
+
+    static void readFully(ChunkSource source, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = source.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of " + source.getName() + " at " + (position + buffer.position()));
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package org.app.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Where the receiver already holds each content-defined chunk it has received,
+ * by SHA-256, kept across sessions in {@code ~/.fileshare/chunk-index}.
+ *
+ * Chunks are not stored separately: each entry points into a received file as
+ * a {@link FileChunk}, so the index costs no disk space beyond itself. Entries
+ * are hints; the receiver checks the file still has the recorded size before
+ * offering a chunk and the chunk's hash when copying it. Keeps the
+ * {@value #MAX_ENTRIES} most recently used chunks, about 60 GB of content at
+ * the average chunk size. Loaded on first use. One line per chunk: hex hash,
+ * offset, length, file size and path, tab separated.
+ */
+public class ChunkIndex {
+    static final int MAX_ENTRIES = 250_000;
+
+    private final Path file;
+    private final Map<String, FileChunk> entries = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FileChunk> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private boolean loaded;
+    private boolean dirty;
+
+    public ChunkIndex() {
+        this(PeerIdentity.getConfigDirectory().resolve("chunk-index"));
+    }
+
+    public ChunkIndex(Path file) {
+        this.file = file;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!Files.exists(file)) {
+            return;
+        }
+        // Entries of one file share its path string
+        Map<String, String> paths = new HashMap<>();
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t", 5);
+                if (fields.length == 5) {
+                    String path = paths.computeIfAbsent(fields[4], p -> p);
+                    // The chunk's place in its file's recipe is not kept
+                    entries.put(fields[0], new FileChunk(path, Long.parseLong(fields[1]),
+                            Integer.parseInt(fields[2]), Long.parseLong(fields[3]), 0, 0));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Ignoring unreadable chunk index: " + e.getMessage());
+            entries.clear();
+        }
+    }
+
+    /** Writes the index back if chunks were added or dropped since it was loaded. */
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, FileChunk> entry : entries.entrySet()) {
+            FileChunk chunk = entry.getValue();
+            content.append(entry.getKey()).append('\t').append(chunk.getStartPosition()).append('\t')
+                    .append(chunk.getChunkSize()).append('\t').append(chunk.getTotalFileSize()).append('\t')
+                    .append(chunk.getFileName()).append('\n');
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(temp, content, StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            System.err.println("Could not save chunk index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Where a chunk with this hash and length can be read, or null. Entries
+     * whose file is gone, has changed size or is {@code replaced} are dropped.
+     */
+    public synchronized FileChunk find(byte[] hash, int length, String replaced) {
+        ensureLoaded();
+        String key = HexFormat.of().formatHex(hash);
+        FileChunk chunk = entries.get(key);
+        if (chunk == null || chunk.getChunkSize() != length) {
+            return null;
+        }
+        if (chunk.getFileName().equals(replaced)
+                || new File(chunk.getFileName()).length() != chunk.getTotalFileSize()) {
+            entries.remove(key);
+            dirty = true;
+            return null;
+        }
+        return chunk;
+    }
+
+    /** Records every chunk of {@code recipe} as readable from {@code received}, which has {@code fileSize} bytes. */
+    public synchronized void addAll(Path received, long fileSize, ChunkRecipe recipe) {
+        ensureLoaded();
+        String path = received.toAbsolutePath().toString();
+        for (int i = 0; i < recipe.getCount(); i++) {
+            entries.put(HexFormat.of().formatHex(recipe.getHash(i)), new FileChunk(path, recipe.getOffset(i),
+                    recipe.getLength(i), fileSize, i, recipe.getCount()));
+        }
+        dirty = true;
+    }
+
+    public synchronized int size() {
+        ensureLoaded();
+        return entries.size();
+    }
+
+    private synchronized void forget(byte[] hash) {
+        if (entries.remove(HexFormat.of().formatHex(hash)) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Looks up every chunk of an incoming file's recipe. Chunks recorded in
+     * {@code target}, where the file is about to be written, are stale: the
+     * path was free or is being replaced, and its content changes as chunks land.
+     */
+    public Lookup lookup(ChunkRecipe recipe, Path target) {
+        return new Lookup(recipe, target.toAbsolutePath().toString());
+    }
+
+    /** The chunks of one incoming file that are already held, read back while its chunks arrive. */
+    public class Lookup implements AutoCloseable {
+        private final ChunkRecipe recipe;
+        private final FileChunk[] found;
+        private final byte[] statuses;
+        private final Map<String, FileChannel> channels = new ConcurrentHashMap<>();
+
+        private Lookup(ChunkRecipe recipe, String target) {
+            this.recipe = recipe;
+            this.found = new FileChunk[recipe.getCount()];
+            this.statuses = new byte[recipe.getCount()];
+            for (int i = 0; i < found.length; i++) {
+                found[i] = find(recipe.getHash(i), recipe.getLength(i), target);
+                statuses[i] = found[i] != null ? ChunkRecipe.STORED : ChunkRecipe.NEEDED;
+            }
+        }
+
+        /** One {@link ChunkRecipe#STORED} or {@link ChunkRecipe#NEEDED} byte per chunk, for the sender. */
+        public byte[] getStatuses() {
+            return statuses;
+        }
+
+        public int getFoundCount() {
+            int count = 0;
+            for (FileChunk chunk : found) {
+                count += chunk != null ? 1 : 0;
+            }
+            return count;
+        }
+
+        /**
+         * Reads chunk {@code entry} into {@code buffer}, flipped for writing.
+         * Returns false, and forgets the chunk, if it can no longer be read or
+         * no longer matches its hash.
+         */
+        public boolean read(int entry, ByteBuffer buffer) throws IOException {
+            if (entry < 0 || entry >= found.length || found[entry] == null) {
+                throw new IOException("Stored chunk frame for chunk " + entry + ", which was not offered");
+            }
+            FileChunk chunk = found[entry];
+            byte[] hash = recipe.getHash(entry);
+            try {
+                FileChannel channel = channels.computeIfAbsent(chunk.getFileName(), path -> {
+                    try {
+                        return FileChannel.open(Path.of(path), StandardOpenOption.READ);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                buffer.clear().limit(chunk.getChunkSize());
+                ChunkCodec.readFully(channel, buffer, chunk.getStartPosition());
+            } catch (IOException | UncheckedIOException e) {
+                forget(hash);
+                return false;
+            }
+            buffer.flip();
+            MessageDigest sha256;
+            try {
+                sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 not available", e);
+            }
+            sha256.update(buffer.duplicate());
+            if (!MessageDigest.isEqual(hash, sha256.digest())) {
+                forget(hash);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            for (FileChannel channel : channels.values()) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
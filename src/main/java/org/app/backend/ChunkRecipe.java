@@ -0,0 +1,245 @@
+package org.app.backend;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * A file's content-defined chunks, for deduplicating against everything the
+ * receiver already holds.
+ *
+ * Boundaries come from a gear rolling hash over the last 64 bytes, so an
+ * insertion only moves the boundaries next to it and files sharing content
+ * share most of their chunks, wherever that content sits. Chunks are
+ * {@value #MIN_SIZE} to {@value #MAX_SIZE} bytes, about 256 KB on average,
+ * and never cross a transfer chunk, so each transfer chunk is cut on its own
+ * thread and can be encoded independently. Each chunk is identified by its
+ * SHA-256. Wire format: {@code int count}, then {@code int length, byte[32]
+ * hash} per chunk in file order; the receiver answers one byte per chunk,
+ * {@link #STORED} if its {@link ChunkIndex} has it.
+ */
+public class ChunkRecipe {
+    static final int MIN_SIZE = 64 * 1024;
+    static final int MAX_SIZE = ChunkCodec.BLOCK_SIZE;
+    // 18 top bits of the gear hash: a boundary every 256 KB past the minimum on average
+    private static final long BOUNDARY_MASK = ((1L << 18) - 1) << 46;
+    static final int HASH_SIZE = 32;
+    public static final byte NEEDED = 0;
+    public static final byte STORED = 1;
+    // Both peers must cut at the same places, so the table comes from a fixed seed
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6765_6172_4344_43L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** A run of a transfer chunk: stored chunk {@code entry} of the recipe, or literal bytes if that is negative. */
+    public record Span(long offset, int length, int entry) {
+        public boolean isStored() {
+            return entry >= 0;
+        }
+    }
+
+    private final long[] offsets;
+    private final int[] lengths;
+    private final byte[] hashes;
+    private byte[] statuses;
+
+    private ChunkRecipe(long[] offsets, int[] lengths, byte[] hashes) {
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.hashes = hashes;
+    }
+
+    /** Cuts and hashes the first {@code size} bytes of {@code source}, one transfer chunk per parallel task. */
+    public static ChunkRecipe compute(ChunkSource source, long size, int transferChunkSize) throws IOException {
+        int transferChunks = (int) ((size + transferChunkSize - 1) / transferChunkSize);
+        List<List<int[]>> cuts = new ArrayList<>();
+        List<byte[]> chunkHashes = new ArrayList<>();
+        for (int i = 0; i < transferChunks; i++) {
+            cuts.add(null);
+            chunkHashes.add(null);
+        }
+        try {
+            IntStream.range(0, transferChunks).parallel().forEach(i -> {
+                long start = (long) i * transferChunkSize;
+                int length = (int) Math.min(transferChunkSize, size - start);
+                try {
+                    ByteBuffer data = source.view(start, length);
+                    List<int[]> pieces = cut(data, length);
+                    byte[] digests = new byte[pieces.size() * HASH_SIZE];
+                    MessageDigest sha256 = sha256();
+                    for (int p = 0; p < pieces.size(); p++) {
+                        int[] piece = pieces.get(p);
+                        sha256.update(data.slice(piece[0], piece[1]));
+                        sha256.digest(digests, p * HASH_SIZE, HASH_SIZE);
+                    }
+                    cuts.set(i, pieces);
+                    chunkHashes.set(i, digests);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (DigestException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        int count = cuts.stream().mapToInt(List::size).sum();
+        long[] offsets = new long[count];
+        int[] lengths = new int[count];
+        byte[] hashes = new byte[count * HASH_SIZE];
+        int entry = 0;
+        for (int i = 0; i < transferChunks; i++) {
+            long start = (long) i * transferChunkSize;
+            byte[] digests = chunkHashes.get(i);
+            System.arraycopy(digests, 0, hashes, entry * HASH_SIZE, digests.length);
+            for (int[] piece : cuts.get(i)) {
+                offsets[entry] = start + piece[0];
+                lengths[entry] = piece[1];
+                entry++;
+            }
+        }
+        return new ChunkRecipe(offsets, lengths, hashes);
+    }
+
+    // {offset, length} pieces of one transfer chunk
+    private static List<int[]> cut(ByteBuffer data, int size) {
+        List<int[]> pieces = new ArrayList<>();
+        int position = 0;
+        while (position < size) {
+            int remaining = size - position;
+            int length = Math.min(remaining, MAX_SIZE);
+            if (remaining > MIN_SIZE) {
+                long hash = 0;
+                for (int i = MIN_SIZE; i < length; i++) {
+                    hash = (hash << 1) + GEAR[data.get(position + i) & 0xFF];
+                    if ((hash & BOUNDARY_MASK) == 0) {
+                        length = i + 1;
+                        break;
+                    }
+                }
+            }
+            pieces.add(new int[] {position, length});
+            position += length;
+        }
+        return pieces;
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(lengths.length);
+        for (int i = 0; i < lengths.length; i++) {
+            out.writeInt(lengths[i]);
+            out.write(hashes, i * HASH_SIZE, HASH_SIZE);
+        }
+    }
+
+    /** Reads the recipe of a file of {@code fileSize} bytes. */
+    public static ChunkRecipe read(DataInputStream in, long fileSize) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > fileSize / MIN_SIZE + 1 + fileSize / MAX_SIZE + 1) {
+            throw new IOException("Invalid chunk recipe size: " + count);
+        }
+        long[] offsets = new long[count];
+        int[] lengths = new int[count];
+        byte[] hashes = new byte[count * HASH_SIZE];
+        long offset = 0;
+        for (int i = 0; i < count; i++) {
+            int length = in.readInt();
+            if (length <= 0 || length > MAX_SIZE) {
+                throw new IOException("Invalid chunk length in recipe: " + length);
+            }
+            offsets[i] = offset;
+            lengths[i] = length;
+            in.readFully(hashes, i * HASH_SIZE, HASH_SIZE);
+            offset += length;
+        }
+        if (offset != fileSize) {
+            throw new IOException("Chunk recipe covers " + offset + " bytes, expected " + fileSize);
+        }
+        return new ChunkRecipe(offsets, lengths, hashes);
+    }
+
+    public int getCount() { return lengths.length; }
+    public long getOffset(int entry) { return offsets[entry]; }
+    public int getLength(int entry) { return lengths[entry]; }
+
+    public byte[] getHash(int entry) {
+        return Arrays.copyOfRange(hashes, entry * HASH_SIZE, (entry + 1) * HASH_SIZE);
+    }
+
+    /** The receiver's answer, one {@link #STORED} or {@link #NEEDED} byte per chunk. */
+    public void setStatuses(byte[] statuses) {
+        this.statuses = statuses;
+    }
+
+    public int getStoredCount() {
+        int stored = 0;
+        for (byte status : statuses) {
+            stored += status == STORED ? 1 : 0;
+        }
+        return stored;
+    }
+
+    public long getStoredBytes() {
+        long bytes = 0;
+        for (int i = 0; i < statuses.length; i++) {
+            bytes += statuses[i] == STORED ? lengths[i] : 0;
+        }
+        return bytes;
+    }
+
+    /**
+     * Splits the transfer chunk of {@code size} bytes from {@code start} into
+     * stored chunks and runs of literal bytes, or returns null if the receiver
+     * has none of its chunks.
+     */
+    public List<Span> spans(long start, int size) {
+        int first = Arrays.binarySearch(offsets, start);
+        if (first < 0) {
+            throw new IllegalArgumentException("No chunk starts at " + start);
+        }
+        List<Span> spans = new ArrayList<>();
+        boolean anyStored = false;
+        long literalStart = -1;
+        long end = start + size;
+        for (int i = first; i < offsets.length && offsets[i] < end; i++) {
+            if (statuses[i] == STORED) {
+                if (literalStart >= 0) {
+                    spans.add(new Span(literalStart, (int) (offsets[i] - literalStart), -1));
+                    literalStart = -1;
+                }
+                spans.add(new Span(offsets[i], lengths[i], i));
+                anyStored = true;
+            } else if (literalStart < 0) {
+                literalStart = offsets[i];
+            }
+        }
+        if (literalStart >= 0) {
+            spans.add(new Span(literalStart, (int) (end - literalStart), -1));
+        }
+        return anyStored ? spans : null;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
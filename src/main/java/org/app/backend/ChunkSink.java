@@ -0,0 +1,44 @@
+package org.app.backend;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Where the receiver puts a file's bytes instead of a file in its save
+ * directory, see {@link Receiver#setSinkFactory(Factory)}; {@link ChunkSinks}
+ * has the built-in ones.
+ *
+ * Chunks arrive on several connections at once, so writes come from several
+ * threads, for different ranges and in no particular order. A chunk that
+ * fails verification, or whose connection breaks, is written again from its
+ * start when it is resent; only {@link #finish()} means every byte is final.
+ */
+public interface ChunkSink extends Closeable {
+    /** Creates the sink for one incoming file of {@code fileSize} bytes, or -1 for a stream of unknown length. */
+    interface Factory {
+        ChunkSink open(String fileName, long fileSize) throws IOException;
+    }
+
+    /** Takes the remaining bytes of {@code data}, which belong at {@code position}. */
+    void write(ByteBuffer data, long position) throws IOException;
+
+    /** {@code length} zero bytes at {@code position}, sent as a hole; by default written out as zeros. */
+    default void zero(long position, int length) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocate(Math.min(length, ChunkCodec.BLOCK_SIZE));
+        for (int done = 0; done < length; ) {
+            int step = Math.min(length - done, zeros.capacity());
+            write(zeros.clear().limit(step), position + done);
+            done += step;
+        }
+    }
+
+    /** Every chunk has arrived and been verified; called before the file is reported complete. */
+    default void finish() throws IOException {
+    }
+
+    /** Called once the file is complete or has failed, after {@link #finish()} if it completed. */
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,164 @@
+package org.app.backend;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * The built-in {@link ChunkSink}s: a file written positionally, a
+ * memory-mapped file, a buffer in memory handed to a consumer once complete,
+ * and a sink that drops everything, which lets a benchmark measure the
+ * network path without a disk behind it.
+ */
+public final class ChunkSinks {
+    // Largest region one mapping can cover is 2 GB; files are mapped in pieces of this size
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private ChunkSinks() {
+    }
+
+    /** Writes into {@code path}, replacing anything there; holes are left unwritten so the file stays sparse. */
+    public static ChunkSink file(Path path, long size) throws IOException {
+        return new FileSink(open(path, size));
+    }
+
+    /** Maps the whole of {@code path} up front and copies every write into the mapping. */
+    public static ChunkSink mapped(Path path, long size) throws IOException {
+        if (size < 0) {
+            throw new IOException("A stream of unknown length cannot be mapped");
+        }
+        return new MappedSink(open(path, size), size);
+    }
+
+    /**
+     * Collects the file in a heap buffer of {@code size} bytes and hands it,
+     * read-only, to {@code onFinish} once every chunk is in. Files must be
+     * under 2 GB.
+     */
+    public static ChunkSink memory(long size, Consumer<ByteBuffer> onFinish) throws IOException {
+        if (size < 0) {
+            throw new IOException("A stream of unknown length cannot be collected in memory");
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File of " + size + " bytes is too large to keep in memory");
+        }
+        return new MemorySink(ByteBuffer.allocate((int) size), onFinish);
+    }
+
+    /** Drops every byte. */
+    public static ChunkSink discard() {
+        return new ChunkSink() {
+            @Override
+            public void write(ByteBuffer data, long position) {
+                data.position(data.limit());
+            }
+
+            @Override
+            public void zero(long position, int length) {
+            }
+        };
+    }
+
+    // An empty file of the given size, so unwritten ranges read as zeros
+    private static FileChannel open(Path path, long size) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (size > 0) {
+            channel.write(ByteBuffer.allocate(1), size - 1);
+        }
+        return channel;
+    }
+
+    private static final class FileSink implements ChunkSink {
+        private final FileChannel channel;
+
+        FileSink(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(ByteBuffer data, long position) throws IOException {
+            while (data.hasRemaining()) {
+                position += channel.write(data, position);
+            }
+        }
+
+        @Override
+        public void zero(long position, int length) {
+            // Already a hole
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static final class MappedSink implements ChunkSink {
+        private final FileChannel channel;
+        private final MappedByteBuffer[] segments;
+
+        MappedSink(FileChannel channel, long size) throws IOException {
+            this.channel = channel;
+            this.segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+        }
+
+        @Override
+        public void write(ByteBuffer data, long position) {
+            while (data.hasRemaining()) {
+                MappedByteBuffer segment = segments[(int) (position / SEGMENT_SIZE)];
+                int offset = (int) (position % SEGMENT_SIZE);
+                int length = Math.min(data.remaining(), segment.limit() - offset);
+                segment.put(offset, data, data.position(), length);
+                data.position(data.position() + length);
+                position += length;
+            }
+        }
+
+        @Override
+        public void zero(long position, int length) {
+            // Already zeros
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Dirty pages are written back by the OS; the mappings stay valid until they are collected
+            channel.close();
+        }
+    }
+
+    private static final class MemorySink implements ChunkSink {
+        private final ByteBuffer buffer;
+        private final Consumer<ByteBuffer> onFinish;
+
+        MemorySink(ByteBuffer buffer, Consumer<ByteBuffer> onFinish) {
+            this.buffer = buffer;
+            this.onFinish = onFinish;
+        }
+
+        @Override
+        public void write(ByteBuffer data, long position) {
+            int length = data.remaining();
+            buffer.put((int) position, data, data.position(), length);
+            data.position(data.limit());
+        }
+
+        @Override
+        public void zero(long position, int length) {
+            // Already zeros
+        }
+
+        @Override
+        public void finish() {
+            onFinish.accept(buffer.asReadOnlyBuffer());
+        }
+    }
+}
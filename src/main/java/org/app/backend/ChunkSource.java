@@ -0,0 +1,65 @@
+package org.app.backend;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Where the sender reads a file's bytes from. The transfer engine hashes,
+ * samples, encodes and sends through this interface only, so anything that
+ * can serve positional reads of a known length can be sent as a file; see
+ * {@link ChunkSources} for the built-in ones.
+ *
+ * Chunks are sent on several threads at once, so every method must allow
+ * concurrent calls at different positions.
+ */
+public interface ChunkSource extends Closeable {
+    /** The name the receiver stores the bytes under. */
+    String getName();
+
+    long size();
+
+    /**
+     * Reads up to {@code buffer.remaining()} bytes from {@code position} into
+     * {@code buffer}, a heap or direct buffer. Returns the number of bytes
+     * read, or -1 at the end of the source.
+     */
+    int read(ByteBuffer buffer, long position) throws IOException;
+
+    /**
+     * Writes up to {@code count} bytes from {@code position} to {@code target}
+     * and returns how many were written, which may be fewer, as with
+     * {@code FileChannel.transferTo}. By default the bytes are read into a
+     * direct buffer kept per thread and written from it.
+     */
+    default long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        ByteBuffer buffer = ChunkSources.transferBuffer();
+        buffer.clear().limit((int) Math.min(count, buffer.capacity()));
+        int read = read(buffer, position);
+        if (read <= 0) {
+            return 0;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        return read;
+    }
+
+    /**
+     * The {@code length} bytes from {@code position} as one buffer, for the
+     * passes that scan a whole transfer chunk (delta matching and
+     * content-defined chunking). By default they are read into a new heap
+     * buffer; file sources map the region instead.
+     */
+    default ByteBuffer view(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        ChunkCodec.readFully(this, buffer, position);
+        return buffer.flip();
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,257 @@
+package org.app.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The built-in {@link ChunkSource}s: a file read through its channel (the
+ * default, with zero-copy {@code transferTo}), a memory-mapped file, a buffer
+ * already in memory and a generator of pseudo-random bytes, which lets a
+ * benchmark measure the network path without a disk behind it.
+ */
+public final class ChunkSources {
+    // Largest region one mapping can cover is 2 GB; files are mapped in pieces of this size
+    private static final long SEGMENT_SIZE = 1L << 30;
+    // Sources without a channel of their own go to the socket through one direct buffer per sending thread
+    private static final ThreadLocal<ByteBuffer> TRANSFER_BUFFERS =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(ChunkCodec.BLOCK_SIZE));
+
+    private ChunkSources() {
+    }
+
+    /** Reads {@code file} through a {@link FileChannel}; raw chunks go out with {@code transferTo}. */
+    public static ChunkSource file(File file) throws IOException {
+        return file(file, file.getName());
+    }
+
+    /** {@link #file(File)}, sent as a file called {@code name}. */
+    public static ChunkSource file(File file, String name) throws IOException {
+        return new FileSource(name, FileChannel.open(file.toPath(), StandardOpenOption.READ));
+    }
+
+    /**
+     * Maps the whole of {@code file} up front and serves every read from the
+     * mapping, so reads are memory copies and raw chunks are written to the
+     * socket straight from the page cache.
+     */
+    public static ChunkSource mapped(File file) throws IOException {
+        return new MappedSource(file.getName(), FileChannel.open(file.toPath(), StandardOpenOption.READ));
+    }
+
+    /** The remaining bytes of {@code data}, sent as a file called {@code name}; the buffer is not copied. */
+    public static ChunkSource memory(String name, ByteBuffer data) {
+        return new MemorySource(name, data.asReadOnlyBuffer().slice());
+    }
+
+    /**
+     * {@code size} pseudo-random, incompressible bytes derived from
+     * {@code seed}. Any range can be generated on its own, so it is as cheap
+     * to read from the middle as from the start and the same seed always
+     * gives the same content.
+     */
+    public static ChunkSource synthetic(String name, long size, long seed) {
+        return new SyntheticSource(name, size, seed);
+    }
+
+    static ByteBuffer transferBuffer() {
+        return TRANSFER_BUFFERS.get();
+    }
+
+    private static final class FileSource implements ChunkSource {
+        private final String name;
+        private final FileChannel channel;
+        private final long size;
+
+        FileSource(String name, FileChannel channel) throws IOException {
+            this.name = name;
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        @Override
+        public String getName() { return name; }
+
+        @Override
+        public long size() { return size; }
+
+        @Override
+        public int read(ByteBuffer buffer, long position) throws IOException {
+            return channel.read(buffer, position);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public ByteBuffer view(long position, int length) throws IOException {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static final class MappedSource implements ChunkSource {
+        private final String name;
+        private final FileChannel channel;
+        private final long size;
+        private final MappedByteBuffer[] segments;
+
+        MappedSource(String name, FileChannel channel) throws IOException {
+            this.name = name;
+            this.channel = channel;
+            this.size = channel.size();
+            this.segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+        }
+
+        @Override
+        public String getName() { return name; }
+
+        @Override
+        public long size() { return size; }
+
+        @Override
+        public int read(ByteBuffer buffer, long position) {
+            if (position >= size) {
+                return -1;
+            }
+            int length = (int) Math.min(buffer.remaining(), size - position);
+            for (int done = 0; done < length; ) {
+                ByteBuffer piece = piece(position + done, length - done);
+                done += piece.remaining();
+                buffer.put(piece);
+            }
+            return length;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            if (position >= size) {
+                return 0;
+            }
+            return target.write(piece(position, Math.min(count, size - position)));
+        }
+
+        @Override
+        public ByteBuffer view(long position, int length) throws IOException {
+            ByteBuffer piece = piece(position, length);
+            return piece.remaining() == length ? piece : ChunkSource.super.view(position, length);
+        }
+
+        // Up to length bytes from position, as far as the segment holding position goes
+        private ByteBuffer piece(long position, long length) {
+            MappedByteBuffer segment = segments[(int) (position / SEGMENT_SIZE)];
+            int offset = (int) (position % SEGMENT_SIZE);
+            return segment.slice(offset, (int) Math.min(length, segment.limit() - offset));
+        }
+
+        @Override
+        public void close() throws IOException {
+            // The mappings stay valid until they are collected
+            channel.close();
+        }
+    }
+
+    private static final class MemorySource implements ChunkSource {
+        private final String name;
+        private final ByteBuffer data;
+
+        MemorySource(String name, ByteBuffer data) {
+            this.name = name;
+            this.data = data;
+        }
+
+        @Override
+        public String getName() { return name; }
+
+        @Override
+        public long size() { return data.limit(); }
+
+        @Override
+        public int read(ByteBuffer buffer, long position) {
+            if (position >= data.limit()) {
+                return -1;
+            }
+            int length = (int) Math.min(buffer.remaining(), data.limit() - position);
+            buffer.put(data.slice((int) position, length));
+            return length;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            if (position >= data.limit()) {
+                return 0;
+            }
+            return target.write(data.slice((int) position, (int) Math.min(count, data.limit() - position)));
+        }
+
+        @Override
+        public ByteBuffer view(long position, int length) {
+            return data.slice((int) position, length);
+        }
+    }
+
+    private static final class SyntheticSource implements ChunkSource {
+        private final String name;
+        private final long size;
+        private final long seed;
+
+        SyntheticSource(String name, long size, long seed) {
+            this.name = name;
+            this.size = size;
+            this.seed = seed;
+        }
+
+        @Override
+        public String getName() { return name; }
+
+        @Override
+        public long size() { return size; }
+
+        @Override
+        public int read(ByteBuffer buffer, long position) {
+            if (position >= size) {
+                return -1;
+            }
+            int length = (int) Math.min(buffer.remaining(), size - position);
+            // Little endian, so byte i of the word at w * 8 is the byte at position w * 8 + i
+            ByteBuffer out = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            long end = position + length;
+            long at = position;
+            while (at < end && (at & 7) != 0) {
+                out.put((byte) (word(at >>> 3) >>> ((at & 7) * 8)));
+                at++;
+            }
+            for (; at + 8 <= end; at += 8) {
+                out.putLong(word(at >>> 3));
+            }
+            for (; at < end; at++) {
+                out.put((byte) (word(at >>> 3) >>> ((at & 7) * 8)));
+            }
+            buffer.position(out.position());
+            return length;
+        }
+
+        // SplitMix64 of the word index
+        private long word(long index) {
+            long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.app.backend;
+
+import org.app.backend.metrics.SessionMetrics;
+
+import java.util.List;
+
+/** Fans every callback out to a fixed list of listeners, in order. */
+class CompositeTransferListener implements TransferListener {
+    private final TransferListener[] listeners;
+
+    CompositeTransferListener(List<TransferListener> listeners) {
+        this.listeners = listeners.toArray(new TransferListener[0]);
+    }
+
+    /** {@code listener}, with every byte of chunk progress also counted in {@code session}. */
+    static TransferListener countingInto(TransferListener listener, SessionMetrics session) {
+        return new CompositeTransferListener(List.of(listener, new TransferListener() {
+            @Override
+            public void onChunkProgress(int chunkIndex, long bytes) {
+                session.record(bytes);
+            }
+        }));
+    }
+
+    @Override
+    public void onListening(int port) {
+        for (TransferListener listener : listeners) listener.onListening(port);
+    }
+
+    @Override
+    public void onConnectionRequest(String peer, String request) {
+        for (TransferListener listener : listeners) listener.onConnectionRequest(peer, request);
+    }
+
+    @Override
+    public void onSessionStarted(TransferRole role, String peer, int totalFiles, long totalBytes) {
+        for (TransferListener listener : listeners) listener.onSessionStarted(role, peer, totalFiles, totalBytes);
+    }
+
+    @Override
+    public void onSessionCompleted(TransferRole role, String peer) {
+        for (TransferListener listener : listeners) listener.onSessionCompleted(role, peer);
+    }
+
+    @Override
+    public void onSessionFailed(TransferRole role, String peer, Throwable cause) {
+        for (TransferListener listener : listeners) listener.onSessionFailed(role, peer, cause);
+    }
+
+    @Override
+    public void onFileStarted(String fileName, long fileSize, int totalChunks, int fileIndex, int totalFiles) {
+        for (TransferListener listener : listeners) listener.onFileStarted(fileName, fileSize, totalChunks, fileIndex, totalFiles);
+    }
+
+    @Override
+    public void onFileCompleted(String fileName, long fileSize) {
+        for (TransferListener listener : listeners) listener.onFileCompleted(fileName, fileSize);
+    }
+
+    @Override
+    public void onFileFailed(String fileName, Throwable cause) {
+        for (TransferListener listener : listeners) listener.onFileFailed(fileName, cause);
+    }
+
+    @Override
+    public void onFileSkipped(String fileName, long fileSize) {
+        for (TransferListener listener : listeners) listener.onFileSkipped(fileName, fileSize);
+    }
+
+    @Override
+    public void onChunkStarted(int chunkIndex, long offset, int size) {
+        for (TransferListener listener : listeners) listener.onChunkStarted(chunkIndex, offset, size);
+    }
+
+    @Override
+    public void onChunkProgress(int chunkIndex, long bytes) {
+        for (TransferListener listener : listeners) listener.onChunkProgress(chunkIndex, bytes);
+    }
+
+    @Override
+    public void onChunkCompleted(int chunkIndex, int completedChunks, int totalChunks) {
+        for (TransferListener listener : listeners) listener.onChunkCompleted(chunkIndex, completedChunks, totalChunks);
+    }
+
+    @Override
+    public void onChunkRetry(int chunkIndex, int attempt, Throwable cause) {
+        for (TransferListener listener : listeners) listener.onChunkRetry(chunkIndex, attempt, cause);
+    }
+
+    @Override
+    public void onChunkFailed(int chunkIndex, Throwable cause) {
+        for (TransferListener listener : listeners) listener.onChunkFailed(chunkIndex, cause);
+    }
+
+    @Override
+    public void onMessage(String message) {
+        for (TransferListener listener : listeners) listener.onMessage(message);
+    }
+}
@@ -0,0 +1,149 @@
+package org.app.backend;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * SHA-256 content hashes of local files, cached by absolute path, size and
+ * modification time in {@code ~/.fileshare/content-hashes} so unchanged files
+ * are not read again on the next session.
+ *
+ * Used on both sides of the pre-transfer manifest: the sender hashes what it
+ * is about to send, the receiver hashes the same-sized files it already has.
+ * Keeps the {@value #MAX_ENTRIES} most recently used entries. One line per
+ * file: size, modification time (epoch millis), hex hash and path, tab separated.
+ */
+public class ContentHashCache {
+    public static final int HASH_SIZE = 32;
+    static final int MAX_ENTRIES = 100_000;
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    private final Path file;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private boolean dirty;
+
+    public ContentHashCache() {
+        this(PeerIdentity.getConfigDirectory().resolve("content-hashes"));
+    }
+
+    public ContentHashCache(Path file) {
+        this.file = file;
+    }
+
+    public synchronized void load() {
+        entries.clear();
+        dirty = false;
+        if (!Files.exists(file)) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t", 4);
+                if (fields.length == 4) {
+                    entries.put(fields[3], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                            HexFormat.of().parseHex(fields[2])));
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Ignoring unreadable content hash cache: " + e.getMessage());
+            entries.clear();
+        }
+    }
+
+    /** Writes the cache back if any hash was added since it was loaded. */
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry value = entry.getValue();
+            content.append(value.size).append('\t').append(value.modifiedMillis).append('\t')
+                    .append(HexFormat.of().formatHex(value.hash)).append('\t').append(entry.getKey()).append('\n');
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(temp, content, StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            System.err.println("Could not save content hash cache: " + e.getMessage());
+        }
+    }
+
+    /** The file's hash, read from the cache if its size and modification time are unchanged. */
+    public byte[] hash(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        String key = absolute.toString();
+        long size = Files.size(absolute);
+        long modifiedMillis = Files.getLastModifiedTime(absolute).toMillis();
+        synchronized (this) {
+            Entry cached = entries.get(key);
+            if (cached != null && cached.size == size && cached.modifiedMillis == modifiedMillis) {
+                return cached.hash;
+            }
+        }
+        byte[] hash = compute(absolute);
+        synchronized (this) {
+            entries.put(key, new Entry(size, modifiedMillis, hash));
+            dirty = true;
+        }
+        return hash;
+    }
+
+    /** Hashes the files in parallel on the common pool; results are in the order of {@code paths}. */
+    public byte[][] hashAll(List<Path> paths) throws IOException {
+        byte[][] hashes = new byte[paths.size()][];
+        try {
+            IntStream.range(0, paths.size()).parallel().forEach(i -> {
+                try {
+                    hashes[i] = hash(paths.get(i));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return hashes;
+    }
+
+    private static byte[] compute(Path path) throws IOException {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            while (channel.read(buffer.clear()) >= 0) {
+                sha256.update(buffer.flip());
+            }
+        }
+        return sha256.digest();
+    }
+
+    private record Entry(long size, long modifiedMillis, byte[] hash) {
+    }
+}
@@ -0,0 +1,123 @@
+package org.app.backend;
+
+import org.app.User;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Wire format of the UDP discovery beacon.
+ *
+ * <pre>
+ * int   magic            'FSDB'
+ * byte  version          1
+ * byte  type             1 = announce, 2 = query (answered with a unicast announce),
+ *                        3 = goodbye (the peer stopped receiving)
+ * long  peerId (msb), long peerId (lsb)
+ * short activeTransfers
+ * long  freeSpace        bytes usable in the save directory, -1 if unknown
+ * byte  maxStreams       parallel chunk streams accepted
+ * int   ttlMillis        how long listeners should keep the peer without a new beacon
+ * short nameLength, name bytes (UTF-8)
+ * </pre>
+ *
+ * Newer versions may append fields; decoders read the fields they know and
+ * ignore the rest. Datagrams without the magic come from older clients that
+ * broadcast only their username, and are decoded as such.
+ */
+public class DiscoveryBeacon {
+    public static final int MAGIC = 0x46534442; // "FSDB"
+    public static final int VERSION = 1;
+    public static final byte TYPE_ANNOUNCE = 1;
+    public static final byte TYPE_QUERY = 2;
+    public static final byte TYPE_GOODBYE = 3;
+    private static final int MAX_NAME_BYTES = 256;
+
+    private final int version;
+    private final byte type;
+    private final UUID peerId;
+    private final int activeTransfers;
+    private final long freeSpace;
+    private final int maxStreams;
+    private final int ttlMillis;
+    private final String name;
+
+    public DiscoveryBeacon(byte type, UUID peerId, int activeTransfers, long freeSpace,
+                           int maxStreams, int ttlMillis, String name) {
+        this(VERSION, type, peerId, activeTransfers, freeSpace, maxStreams, ttlMillis, name);
+    }
+
+    private DiscoveryBeacon(int version, byte type, UUID peerId, int activeTransfers, long freeSpace,
+                            int maxStreams, int ttlMillis, String name) {
+        this.version = version;
+        this.type = type;
+        this.peerId = peerId;
+        this.activeTransfers = activeTransfers;
+        this.freeSpace = freeSpace;
+        this.maxStreams = maxStreams;
+        this.ttlMillis = ttlMillis;
+        this.name = name;
+    }
+
+    public void encode(ByteBuffer buffer) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int nameLength = Math.min(nameBytes.length, MAX_NAME_BYTES);
+        buffer.putInt(MAGIC);
+        buffer.put((byte) VERSION);
+        buffer.put(type);
+        buffer.putLong(peerId.getMostSignificantBits());
+        buffer.putLong(peerId.getLeastSignificantBits());
+        buffer.putShort((short) Math.min(activeTransfers, Short.MAX_VALUE));
+        buffer.putLong(freeSpace);
+        buffer.put((byte) Math.min(maxStreams, 127));
+        buffer.putInt(ttlMillis);
+        buffer.putShort((short) nameLength);
+        buffer.put(nameBytes, 0, nameLength);
+    }
+
+    /** Decodes a received datagram, or returns null if it is malformed. */
+    public static DiscoveryBeacon decode(ByteBuffer buffer) {
+        if (buffer.remaining() < 4 || buffer.getInt(buffer.position()) != MAGIC) {
+            String legacyName = StandardCharsets.UTF_8.decode(buffer).toString().trim();
+            return new DiscoveryBeacon(0, TYPE_ANNOUNCE, null, 0, -1, 0,
+                    (int) (PeerRegistry.DEFAULT_TTL_NANOS / 1_000_000), legacyName);
+        }
+        try {
+            buffer.getInt();
+            int version = buffer.get() & 0xFF;
+            byte type = buffer.get();
+            UUID peerId = new UUID(buffer.getLong(), buffer.getLong());
+            int activeTransfers = buffer.getShort();
+            long freeSpace = buffer.getLong();
+            int maxStreams = buffer.get();
+            int ttlMillis = buffer.getInt();
+            int nameLength = Math.min(buffer.getShort() & 0xFFFF, MAX_NAME_BYTES);
+            byte[] nameBytes = new byte[nameLength];
+            buffer.get(nameBytes);
+            return new DiscoveryBeacon(version, type, peerId, activeTransfers, freeSpace, maxStreams,
+                    ttlMillis, new String(nameBytes, StandardCharsets.UTF_8));
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    /** The advertised peer as seen from {@code ip}. */
+    public User toUser(String ip) {
+        User user = new User(name, ip);
+        if (peerId != null) {
+            user.setPeerId(peerId.toString());
+        }
+        user.setProtocolVersion(version);
+        user.setActiveTransfers(activeTransfers);
+        user.setFreeSpace(freeSpace);
+        user.setMaxStreams(maxStreams);
+        return user;
+    }
+
+    public int getVersion() { return version; }
+    public byte getType() { return type; }
+    public int getTtlMillis() { return ttlMillis; }
+    public String getName() { return name; }
+}
@@ -1,21 +1,24 @@
     package org.app.backend;
 
     import org.app.User;
+    import org.app.backend.jfr.SessionEvent;
+    import org.app.backend.metrics.SessionMetrics;
+    import org.app.backend.metrics.TransferMetrics;
 
     import java.io.File;
     import java.net.Socket;
     import java.util.List;
     import java.util.ArrayList;
-    import java.util.HashSet;
-    import java.util.Set;
     import java.util.concurrent.*;
-    import java.util.function.Consumer;
+    import java.util.function.Predicate;
     import java.util.Arrays;
     import java.io.IOException;
     import java.io.PrintWriter;
     import java.io.BufferedReader;
     import java.io.InputStreamReader;
     import java.net.InetSocketAddress;
+    import java.nio.channels.ReadableByteChannel;
+    import java.nio.file.Path;
 
     public class FileTransferManager {
         private final Sender sender;
@@ -23,81 +26,413 @@
         private final ExecutorService transferExecutor;
         private final ScheduledExecutorService scheduledExecutor;
         private String currentSaveDirectory;
-        private Consumer<Integer> progressCallback;
-        private Consumer<String> statusCallback;
+        private final List<TransferListener> listeners = new CopyOnWriteArrayList<>();
+        private volatile TransferListener receiveListener = TransferListener.NONE;
         private volatile CompletableFuture<?> discoveryFuture;
+        private final PeerRegistry peerRegistry = new PeerRegistry();
+        private final KnownPeerCache knownPeers = new KnownPeerCache();
+        private final ContentHashCache contentHashes = new ContentHashCache();
+        private volatile boolean skipIdentical = true;
+        private volatile ScheduledFuture<?> knownPeerCheck;
+        // How long cached peers get to answer their probes before counting as missed
+        private static final long KNOWN_PEER_VERIFY_SECONDS = 5;
+        // Well inside the receiver's 30 second accept timeout
+        private static final long SYNC_KEEPALIVE_SECONDS = 10;
 
         public FileTransferManager() {
             this.sender = new Sender();
             this.receiver = new Receiver();
+            contentHashes.load();
+            receiver.setContentHashes(contentHashes);
             // Create thread pool for file transfers
             this.transferExecutor = Executors.newFixedThreadPool(3); // Allow 3 concurrent transfers
             this.scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
         }
 
+        /**
+         * Replaces the confirmation dialog shown for incoming connection requests,
+         * e.g. to auto-accept sessions in headless runs.
+         */
+        public void setConnectionApprover(Predicate<String> connectionApprover) {
+            receiver.setConnectionApprover(connectionApprover);
+        }
+
+        /** Forces every received file to disk before it is reported complete. */
+        public void setSyncOnComplete(boolean syncOnComplete) {
+            receiver.setSyncOnComplete(syncOnComplete);
+        }
+
+        /** Zero-fills each file on the receiver before its chunks arrive, so it is allocated up front. */
+        public void setPreallocation(boolean preallocation) {
+            receiver.setPreallocation(preallocation);
+        }
+
+        /** How the receiver writes raw chunks; see {@link WriteEngine}. */
+        public void setWriteEngine(WriteEngine writeEngine) {
+            receiver.setWriteEngine(writeEngine);
+        }
+
+        /** Whether received chunks are committed in offset order; see {@link WriteOrder}. */
+        public void setWriteOrder(WriteOrder writeOrder) {
+            receiver.setWriteOrder(writeOrder);
+        }
+
+        /** Write order for one destination directory and everything below it; null removes it. */
+        public void setWriteOrder(Path directory, WriteOrder writeOrder) {
+            receiver.setWriteOrder(directory, writeOrder);
+        }
+
+        /**
+         * Hands received files to sinks from {@code sinkFactory} instead of the save
+         * directory; null goes back to files. See {@link Receiver#setSinkFactory}.
+         */
+        public void setSinkFactory(ChunkSink.Factory sinkFactory) {
+            receiver.setSinkFactory(sinkFactory);
+        }
+
+        /** Compresses compressible chunks on the wire; see {@link Sender#setCompression(boolean)}. */
+        public void setCompression(boolean compression) {
+            sender.setCompression(compression);
+        }
+
+        /** Sends all-zero blocks as holes; see {@link Sender#setZeroElision(boolean)}. */
+        public void setZeroElision(boolean zeroElision) {
+            sender.setZeroElision(zeroElision);
+        }
+
+        /**
+         * Exchanges a manifest of content hashes before sending, and skips files
+         * the receiver already holds identically. On by default.
+         */
+        public void setSkipIdentical(boolean skipIdentical) {
+            this.skipIdentical = skipIdentical;
+        }
+
+        /** Sends only what changed against files the receiver already has; see {@link Sender#setDelta(boolean)}. */
+        public void setDelta(boolean delta) {
+            sender.setDelta(delta);
+        }
+
+        /** Skips content-defined chunks the receiver already holds; see {@link Sender#setDeduplication(boolean)}. */
+        public void setDeduplication(boolean deduplication) {
+            sender.setDeduplication(deduplication);
+        }
+
+        /** Verifies every chunk against a hash tree of its file; see {@link Sender#setVerification(boolean)}. */
+        public void setVerification(boolean verification) {
+            sender.setVerification(verification);
+        }
+
+        /**
+         * Points the sender at non-default receiver ports, e.g. a local proxy in front of the receiver.
+         * Chunk connections use the ports following {@code transferPort}.
+         */
+        public void setRemotePorts(int connectionPort, int transferPort) {
+            sender.setRemotePorts(connectionPort, transferPort);
+        }
+
         public boolean sendConnectionRequest(User receiver, String senderName, File[] files) throws IOException {
            return sender.sendConnectionRequest(receiver,senderName,getFileInfo(files));
         }
 
-        public void startSendingFiles(User receiver, String senderName, File[] files,
-                                      Consumer<Integer> progressCallback,
-                                      Consumer<String> statusCallback,
-                                      Runnable onComplete) {
+        public boolean sendConnectionRequest(User receiver, String senderName, List<ChunkSource> sources) {
+            return sender.sendConnectionRequest(receiver, senderName, getFileInfo(
+                    sources.stream().map(ChunkSource::getName).toArray(String[]::new),
+                    sources.stream().mapToLong(ChunkSource::size).toArray()));
+        }
+
+        /** Asks to send one stream of unknown length, see {@link #startSendingStream}. */
+        public boolean sendStreamRequest(User receiver, String senderName, String name) {
+            return sender.sendConnectionRequest(receiver, senderName,
+                    getFileInfo(new String[]{name}, new long[]{-1}));
+        }
+
+        /** Asks to keep {@code folder} in sync with the receiver, see {@link #startSync}. */
+        public boolean sendSyncRequest(User receiver, String senderName, File folder) {
+            return sender.sendConnectionRequest(receiver, senderName, "folder " + folder.getName() + " (sync)");
+        }
+
+        /** Registers a listener that receives events from every send and receive session. */
+        public void addTransferListener(TransferListener listener) {
+            listeners.add(listener);
+        }
+
+        public void removeTransferListener(TransferListener listener) {
+            listeners.remove(listener);
+        }
+
+        // Combines the per-call listener with the registered ones
+        private TransferListener withRegistered(TransferListener listener) {
+            List<TransferListener> all = new ArrayList<>(listeners);
+            all.add(0, listener);
+            return new CompositeTransferListener(all);
+        }
+
+        public void startSendingFiles(User receiver, String senderName, File[] files, TransferListener listener) {
+            SessionMetrics session = new SessionMetrics("sender", receiver.getIp());
+            TransferListener events = CompositeTransferListener.countingInto(withRegistered(listener), session);
             CompletableFuture.runAsync(() -> {
+                TransferMetrics.get().sessionStarted(session);
+                SessionEvent sessionEvent = new SessionEvent();
+                sessionEvent.begin();
+                sessionEvent.role = "sender";
+                sessionEvent.peer = receiver.getIp();
+                sessionEvent.files = files.length;
                 try {
-                    // Ensure discovery is stopped
-                    sender.setListening(false);
-                    if (discoveryFuture != null) {
-                        try {
-                            discoveryFuture.get(5, TimeUnit.SECONDS);
-                        } catch (Exception e) {
-                            System.err.println("Warning: Discovery stop timed out");
-                        }
-                    }
+                    stopDiscoveryForTransfer();
 
                     System.out.println("Starting file transfer to: " + receiver.getUsername());
-                    statusCallback.accept("Starting file transfer...");
+                    sender.setPeerMaxStreams(receiver.getMaxStreams());
+                    long totalBytes = 0;
+                    for (File file : files) {
+                        totalBytes += file.length();
+                    }
+                    events.onSessionStarted(TransferRole.SENDER, receiver.getIp(), files.length, totalBytes);
 
-                    for (int i = 0; i < files.length; i++) {
-                        final int fileIndex = i;  // Create effectively final variable
-                        File file = files[i];
+                    for (File file : files) {
                         if (!file.exists() || !file.canRead()) {
                             throw new IOException("Cannot read file: " + file.getName());
                         }
+                    }
+                    // Before the manifest, whose hashing can take minutes the first time a large file is sent
+                    sender.checkSpace(receiver.getIp(), files);
+                    File[] toSend = skipIdentical ? withoutFilesAlreadyThere(receiver.getIp(), files, events) : files;
+
+                    for (int i = 0; i < toSend.length; i++) {
+                        File file = toSend[i];
+                        sessionEvent.bytes += file.length();
 
                         try {
-                            statusCallback.accept("Sending file: " + file.getName());
-                            boolean isLastFile = (fileIndex == files.length - 1);
-                            sender.sendFile(receiver.getIp(), file, progress -> {
-                                int overallProgress = (int) (((fileIndex * 100.0) + progress) / files.length);
-                                progressCallback.accept(overallProgress);
-                            }, statusCallback, isLastFile);
-
-                            statusCallback.accept(String.format("Completed %d of %d files", fileIndex + 1, files.length));
+                            sender.sendFile(receiver.getIp(), file, i, toSend.length, events);
                         } catch (Exception e) {
                             throw new IOException("Error sending file " + file.getName() + ": " + e.getMessage(), e);
                         }
                     }
+                    events.onMessage("Sending termination signal");
+                    sender.sendTermination(receiver.getIp());
+
+                    sessionEvent.success = true;
+                    events.onSessionCompleted(TransferRole.SENDER, receiver.getIp());
+                } catch (Exception e) {
+                    events.onSessionFailed(TransferRole.SENDER, receiver.getIp(), e);
+                    e.printStackTrace();
+                } finally {
+                    TransferMetrics.get().sessionEnded(session);
+                    sessionEvent.commit();
+                }
+            }, transferExecutor);
+        }
+
+        /**
+         * Sends each source as a file, in one session like {@link #startSendingFiles},
+         * and closes the sources when the session ends. Sources have no cached
+         * content hashes to offer, so no manifest is exchanged and each is sent in full.
+         */
+        public void startSendingSources(User receiver, List<ChunkSource> sources, TransferListener listener) {
+            SessionMetrics session = new SessionMetrics("sender", receiver.getIp());
+            TransferListener events = CompositeTransferListener.countingInto(withRegistered(listener), session);
+            CompletableFuture.runAsync(() -> {
+                TransferMetrics.get().sessionStarted(session);
+                SessionEvent sessionEvent = new SessionEvent();
+                sessionEvent.begin();
+                sessionEvent.role = "sender";
+                sessionEvent.peer = receiver.getIp();
+                sessionEvent.files = sources.size();
+                try {
+                    stopDiscoveryForTransfer();
+
+                    System.out.println("Starting transfer of " + sources.size() + " sources to: "
+                            + receiver.getUsername());
+                    sender.setPeerMaxStreams(receiver.getMaxStreams());
+                    String[] names = sources.stream().map(ChunkSource::getName).toArray(String[]::new);
+                    long[] sizes = sources.stream().mapToLong(ChunkSource::size).toArray();
+                    events.onSessionStarted(TransferRole.SENDER, receiver.getIp(), sources.size(),
+                            Arrays.stream(sizes).sum());
+                    sender.checkSpace(receiver.getIp(), sources);
+
+                    for (int i = 0; i < sources.size(); i++) {
+                        sessionEvent.bytes += sizes[i];
+                        try {
+                            sender.sendSource(receiver.getIp(), sources.get(i), i, sources.size(), events);
+                        } catch (Exception e) {
+                            throw new IOException("Error sending " + names[i] + ": " + e.getMessage(), e);
+                        }
+                    }
+                    events.onMessage("Sending termination signal");
+                    sender.sendTermination(receiver.getIp());
 
-                    onComplete.run();
+                    sessionEvent.success = true;
+                    events.onSessionCompleted(TransferRole.SENDER, receiver.getIp());
                 } catch (Exception e) {
-                    statusCallback.accept("Error: " + e.getMessage());
+                    events.onSessionFailed(TransferRole.SENDER, receiver.getIp(), e);
                     e.printStackTrace();
+                } finally {
+                    for (ChunkSource source : sources) {
+                        try {
+                            source.close();
+                        } catch (IOException e) {
+                            System.err.println("Could not close " + source.getName() + ": " + e.getMessage());
+                        }
+                    }
+                    TransferMetrics.get().sessionEnded(session);
+                    sessionEvent.commit();
                 }
             }, transferExecutor);
         }
 
+        /**
+         * Sends everything read from {@code stream} until it ends as a file named
+         * {@code name}, in a session of its own; see {@link Sender#sendStream}.
+         * The stream is closed when the session ends.
+         */
+        public void startSendingStream(User receiver, String name, ReadableByteChannel stream,
+                                       TransferListener listener) {
+            SessionMetrics session = new SessionMetrics("sender", receiver.getIp());
+            TransferListener events = CompositeTransferListener.countingInto(withRegistered(listener), session);
+            CompletableFuture.runAsync(() -> {
+                TransferMetrics.get().sessionStarted(session);
+                SessionEvent sessionEvent = new SessionEvent();
+                sessionEvent.begin();
+                sessionEvent.role = "sender";
+                sessionEvent.peer = receiver.getIp();
+                sessionEvent.files = 1;
+                try (stream) {
+                    stopDiscoveryForTransfer();
+
+                    System.out.println("Starting stream " + name + " to: " + receiver.getUsername());
+                    sender.setPeerMaxStreams(receiver.getMaxStreams());
+                    events.onSessionStarted(TransferRole.SENDER, receiver.getIp(), 1, -1);
+                    sender.sendStream(receiver.getIp(), name, stream, 0, 1, events);
+                    events.onMessage("Sending termination signal");
+                    sender.sendTermination(receiver.getIp());
+
+                    sessionEvent.success = true;
+                    events.onSessionCompleted(TransferRole.SENDER, receiver.getIp());
+                } catch (Exception e) {
+                    events.onSessionFailed(TransferRole.SENDER, receiver.getIp(), e);
+                    e.printStackTrace();
+                } finally {
+                    TransferMetrics.get().sessionEnded(session);
+                    sessionEvent.commit();
+                }
+            }, transferExecutor);
+        }
+
+        /**
+         * Keeps {@code folder} in sync with the receiver in one session that lasts
+         * until the returned sync is closed: sends what changed since the last
+         * sync to this receiver, then every new or modified file; see
+         * {@link FolderSync}. The session runs on a thread of its own rather than
+         * taking one of the transfer threads for as long as it lasts.
+         */
+        public FolderSync startSync(User receiver, File folder, TransferListener listener) throws IOException {
+            SessionMetrics session = new SessionMetrics("sender", receiver.getIp());
+            TransferListener events = CompositeTransferListener.countingInto(withRegistered(listener), session);
+            String peerKey = receiver.getPeerId() != null ? receiver.getPeerId() : receiver.getIp();
+            FolderSync sync = new FolderSync(sender, receiver.getIp(), folder.toPath(),
+                    new SyncIndex(folder.toPath(), peerKey), contentHashes, events);
+            Thread thread = new Thread(() -> {
+                TransferMetrics.get().sessionStarted(session);
+                SessionEvent sessionEvent = new SessionEvent();
+                sessionEvent.begin();
+                sessionEvent.role = "sender";
+                sessionEvent.peer = receiver.getIp();
+                ScheduledFuture<?> keepalive = null;
+                try {
+                    stopDiscoveryForTransfer();
+
+                    System.out.println("Starting sync of " + folder + " to: " + receiver.getUsername());
+                    sender.setPeerMaxStreams(receiver.getMaxStreams());
+                    events.onSessionStarted(TransferRole.SENDER, receiver.getIp(), -1, -1);
+                    keepalive = scheduledExecutor.scheduleWithFixedDelay(() -> {
+                        try {
+                            sender.sendKeepalive(receiver.getIp());
+                        } catch (IOException e) {
+                            System.err.println("Sync keepalive failed: " + e.getMessage());
+                        }
+                    }, SYNC_KEEPALIVE_SECONDS, SYNC_KEEPALIVE_SECONDS, TimeUnit.SECONDS);
+                    sync.run();
+
+                    sessionEvent.success = true;
+                    events.onSessionCompleted(TransferRole.SENDER, receiver.getIp());
+                } catch (Exception e) {
+                    events.onSessionFailed(TransferRole.SENDER, receiver.getIp(), e);
+                    e.printStackTrace();
+                } finally {
+                    if (keepalive != null) {
+                        keepalive.cancel(false);
+                    }
+                    try {
+                        sync.close();
+                    } catch (IOException e) {
+                        System.err.println("Could not stop watching " + folder + ": " + e.getMessage());
+                    }
+                    sessionEvent.files = sync.getFilesSent();
+                    TransferMetrics.get().sessionEnded(session);
+                    sessionEvent.commit();
+                }
+            }, "folder-sync");
+            thread.setDaemon(true);
+            thread.start();
+            return sync;
+        }
+
+        // Sending and discovery share the sender, so a transfer waits for the peer listener to stop
+        private void stopDiscoveryForTransfer() {
+            sender.setListening(false);
+            if (discoveryFuture != null) {
+                try {
+                    discoveryFuture.get(5, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    System.err.println("Warning: Discovery stop timed out");
+                }
+            }
+        }
+
+        // Hashes the files on all cores (or takes cached hashes) and drops those the receiver already has
+        private File[] withoutFilesAlreadyThere(String receiverIp, File[] files, TransferListener events)
+                throws IOException {
+            long hashStartNanos = System.nanoTime();
+            byte[] statuses = sender.exchangeManifest(receiverIp, files, contentHashes);
+            contentHashes.save();
+            events.onMessage(String.format("Compared %d files with the receiver in %d ms", files.length,
+                    (System.nanoTime() - hashStartNanos) / 1_000_000));
+            List<File> needed = new ArrayList<>();
+            for (int i = 0; i < files.length; i++) {
+                if (statuses[i] == Sender.MANIFEST_NEEDED) {
+                    needed.add(files[i]);
+                } else {
+                    events.onFileSkipped(files[i].getName(), files[i].length());
+                }
+            }
+            if (needed.size() < files.length) {
+                events.onMessage("Receiver already has " + (files.length - needed.size()) + " of " + files.length
+                        + " files, skipping them");
+            }
+            return needed.toArray(new File[0]);
+        }
+
         private String getFileInfo(File[] files) {
+            return getFileInfo(Arrays.stream(files).map(File::getName).toArray(String[]::new),
+                    Arrays.stream(files).mapToLong(File::length).toArray());
+        }
+
+        private String getFileInfo(String[] names, long[] sizes) {
             StringBuilder info = new StringBuilder("<html><body>");
             info.append("<h3>Files to be received:</h3><br>");
             long totalSize = 0;
-
-            for (File file : files) {
-                info.append("• ").append(file.getName()).append("<br>");
-                totalSize += file.length();
+            boolean streamed = false;
+
+            for (int i = 0; i < names.length; i++) {
+                info.append("• ").append(names[i]).append("<br>");
+                if (sizes[i] < 0) {
+                    streamed = true;
+                } else {
+                    totalSize += sizes[i];
+                }
             }
 
-            info.append("<br>Total size: ").append(formatFileSize(totalSize));
+            info.append("<br>Total size: ").append(streamed ? "unknown (streamed)" : formatFileSize(totalSize));
             info.append("</body></html>");
             return info.toString();
         }
@@ -115,11 +450,9 @@
             return String.format("%.2f %s", fileSize, units[unitIndex]);
         }
 
-        public void startReceiving(String username, String saveDirectory,
-                Consumer<Integer> progressCallback, Consumer<String> statusCallback) {
+        public void startReceiving(String username, String saveDirectory, TransferListener listener) {
             this.currentSaveDirectory = saveDirectory;
-            this.progressCallback = progressCallback;
-            this.statusCallback = statusCallback;
+            this.receiveListener = withRegistered(listener);
 
             receiver.setReceiving(true);
             receiver.setAcceptingConnections(true);
@@ -127,31 +460,13 @@
 
             // Start broadcaster in a separate thread
             CompletableFuture<Void> broadcasterFuture = CompletableFuture.runAsync(() ->
-                            receiver.peerBroadcaster(username),
+                            receiver.peerBroadcaster(username, saveDirectory),
                     transferExecutor
             );
 
             // Start connection listener in another thread
             CompletableFuture<Void> listenerFuture = CompletableFuture.runAsync(() ->
-                            receiver.listenForConnectionRequests(
-                                    this.currentSaveDirectory,
-                                    (progress) -> {
-                                        progressCallback.accept(progress);
-                                    },
-                                    (status) -> {
-                                        if (status.startsWith("Connection from")) {
-                                            String senderName = status.split(":")[1].trim();
-                                            statusCallback.accept("Connection request from " + senderName);
-                                        } else if (status.startsWith("Files:")) {
-                                            // Extract total files count
-                                            int totalFiles = Integer.parseInt(status.split(":")[1].trim());
-                                            statusCallback.accept("Total files:" + totalFiles);
-                                            statusCallback.accept(status);
-                                        } else {
-                                            statusCallback.accept(status);
-                                        }
-                                    }
-                            ),
+                            receiver.listenForConnectionRequests(this.currentSaveDirectory, receiveListener),
                     transferExecutor
             );
 
@@ -159,7 +474,7 @@
             CompletableFuture.allOf(broadcasterFuture, listenerFuture)
                     .thenRun(() -> {
                         System.out.println("File transfer session completed");
-                        statusCallback.accept("Transfer session ended");
+                        receiveListener.onMessage("Transfer session ended");
                     });
         }
 
@@ -173,10 +488,10 @@
                 receiver.stopReceiving();
                 sender.setListening(false);
                 cleanupInactiveConnections();
-                statusCallback.accept("Transfer cancelled");
+                receiveListener.onMessage("Transfer cancelled");
             } catch (Exception e) {
                 System.err.println("Error stopping receiver: " + e.getMessage());
-                statusCallback.accept("Error while cancelling: " + e.getMessage());
+                receiveListener.onMessage("Error while cancelling: " + e.getMessage());
             }
         }
 
@@ -214,34 +529,59 @@
             }
         }
 
-        public void startDiscovery(List<User> discoveredReceivers, Consumer<List<User>> publishCallback) {
-            // Cancel any existing discovery
+        /**
+         * Starts listening for receiver beacons. {@code listener} is told about each
+         * receiver as it appears, changes or expires, from the discovery thread.
+         */
+        public void startDiscovery(PeerRegistry.Listener listener) {
+            // Stop any existing discovery so only one listener owns the port
             if (discoveryFuture != null) {
-                discoveryFuture.cancel(true);
+                sender.setListening(false);
+                try {
+                    discoveryFuture.get(1, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    discoveryFuture.cancel(true);
+                }
             }
 
+            if (knownPeerCheck != null) {
+                knownPeerCheck.cancel(false);
+                knownPeers.save();
+            }
+            peerRegistry.clear();
+            knownPeers.load();
+            peerRegistry.setListener(new PeerRegistry.Listener() {
+                @Override
+                public void onPeerAdded(User peer) {
+                    knownPeers.seen(peer);
+                    listener.onPeerAdded(peer);
+                }
+
+                @Override
+                public void onPeerUpdated(User peer) {
+                    knownPeers.seen(peer);
+                    listener.onPeerUpdated(peer);
+                }
+
+                @Override
+                public void onPeerRemoved(User peer) {
+                    listener.onPeerRemoved(peer);
+                }
+            });
+
             sender.setListening(true);
-            discoveryFuture = CompletableFuture.runAsync(() -> {
-                try {
-                    Set<String> processedIPs = new HashSet<>();
-                    List<User> newUsers = new ArrayList<>();
-
-                    sender.peerListener(discoveredReceivers, (user) -> {
-                        synchronized (processedIPs) {
-                            if (processedIPs.add(user.getIp())) {
-                                synchronized (discoveredReceivers) {
-                                    discoveredReceivers.add(user);
-                                    newUsers.add(user);
-                                    publishCallback.accept(new ArrayList<>(discoveredReceivers));
-                                }
-                            }
-                        }
-                    });
-                } catch (Exception e) {
-                    System.err.println("Discovery error: " + e.getMessage());
-                    e.printStackTrace();
+            List<String> knownAddresses = knownPeers.getAddresses();
+            discoveryFuture = CompletableFuture.runAsync(() -> sender.peerListener(peerRegistry, knownAddresses),
+                    transferExecutor);
+            // Cached peers that have not answered by now count as missed
+            knownPeerCheck = scheduledExecutor.schedule(() -> {
+                for (String peerId : knownPeers.getPeerIds()) {
+                    if (!peerRegistry.contains(peerId)) {
+                        knownPeers.missed(peerId);
+                    }
                 }
-            }, transferExecutor);
+                knownPeers.save();
+            }, KNOWN_PEER_VERIFY_SECONDS, TimeUnit.SECONDS);
         }
 
         public void stopDiscovery() {
@@ -249,5 +589,11 @@
                 discoveryFuture.cancel(true);
             }
             sender.setListening(false);
+            ScheduledFuture<?> check = knownPeerCheck;
+            if (check != null) {
+                // Peers that had no time to answer are not counted as missed
+                check.cancel(false);
+            }
+            knownPeers.save();
         }
     }
@@ -0,0 +1,294 @@
+package org.app.backend;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a peer's copy of a folder up to date within one long-lived session:
+ * sends what changed since the last sync, then watches the folder and sends
+ * each new or modified file once changes to it have settled.
+ *
+ * What was sent is remembered in a {@link SyncIndex}, so on start-up only the
+ * files whose size or modification time differ from it are read and hashed;
+ * a file whose hash still matches was only touched and is not sent. The rest
+ * go through the usual manifest, which skips what the receiver already
+ * holds, and are sent under their path relative to the folder, replacing the
+ * receiver's older copy. Deleted files stay on the receiver, and files and
+ * directories whose names start with a dot are left out, as are links.
+ *
+ * {@link #run()} blocks until {@link #close()} and ends the session; the
+ * caller keeps the session open in the meantime with
+ * {@link Sender#sendKeepalive(String)}.
+ */
+public class FolderSync implements Closeable {
+    // Changes are sent once the folder has been quiet this long...
+    static final long DEBOUNCE_MS = 2000;
+    // ...or this long after the first unsent change, so a file written continuously does not hold back the rest
+    static final long MAX_DELAY_MS = 30_000;
+
+    private final Sender sender;
+    private final String receiverIP;
+    private final Path folder;
+    private final SyncIndex index;
+    private final ContentHashCache contentHashes;
+    private final TransferListener listener;
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private final Set<Path> pending = new LinkedHashSet<>();
+    private int filesSent;
+
+    public FolderSync(Sender sender, String receiverIP, Path folder, SyncIndex index, ContentHashCache contentHashes,
+                      TransferListener listener) throws IOException {
+        this.sender = sender;
+        this.receiverIP = receiverIP;
+        this.folder = folder.toAbsolutePath().normalize();
+        this.index = index;
+        this.contentHashes = contentHashes;
+        this.listener = listener;
+        this.watcher = this.folder.getFileSystem().newWatchService();
+    }
+
+    /**
+     * Sends what changed since the last sync, then what changes until
+     * {@link #close()}, and ends the session. Changes still waiting out the
+     * debounce when the sync is closed are sent by the next one.
+     */
+    public void run() throws IOException, InterruptedException {
+        long scanStartNanos = System.nanoTime();
+        index.load();
+        int files = scan(folder, true);
+        listener.onMessage(String.format("Scanned %s in %d ms: %d of %d files changed since the last sync", folder,
+                (System.nanoTime() - scanStartNanos) / 1_000_000, pending.size(), files));
+        push();
+
+        long firstChangeNanos = 0;
+        long lastChangeNanos = 0;
+        try {
+            while (true) {
+                WatchKey key;
+                if (pending.isEmpty()) {
+                    key = watcher.take();
+                } else {
+                    long dueNanos = Math.min(lastChangeNanos + TimeUnit.MILLISECONDS.toNanos(DEBOUNCE_MS),
+                            firstChangeNanos + TimeUnit.MILLISECONDS.toNanos(MAX_DELAY_MS));
+                    long waitNanos = dueNanos - System.nanoTime();
+                    if (waitNanos <= 0) {
+                        push();
+                        continue;
+                    }
+                    key = watcher.poll(waitNanos, TimeUnit.NANOSECONDS);
+                }
+                if (key != null) {
+                    boolean wasEmpty = pending.isEmpty();
+                    handle(key);
+                    lastChangeNanos = System.nanoTime();
+                    if (wasEmpty) {
+                        firstChangeNanos = lastChangeNanos;
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Closed
+        }
+        listener.onMessage("Sync stopped after sending " + filesSent + " files");
+        sender.sendTermination(receiverIP);
+    }
+
+    /** Stops watching; {@link #run()} then ends the session. */
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+    }
+
+    public int getFilesSent() {
+        return filesSent;
+    }
+
+    // Watches every directory under start and queues the files that differ from the index; only size and
+    // modification time are compared here, so a tree of unchanged files costs one stat per file. Returns the
+    // number of files found
+    private int scan(Path start, boolean whole) throws IOException {
+        Set<String> present = new HashSet<>();
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(folder) && isHidden(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                watchedDirectories.put(dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && !isHidden(file)) {
+                    String path = relativePath(file);
+                    present.add(path);
+                    if (!index.isUnchanged(path, attrs.size(), attrs.lastModifiedTime().toMillis())) {
+                        pending.add(file);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // Deleted while walking, or unreadable; a later event brings it back if it matters
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        if (whole) {
+            index.retainAll(present);
+        }
+        return present.size();
+    }
+
+    private void handle(WatchKey key) throws IOException {
+        Path dir = watchedDirectories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                listener.onMessage("Missed some changes, scanning " + folder + " again");
+                scan(folder, true);
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            if (isHidden(child)) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                    && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                // Files can land in a new directory before it is watched
+                scan(child, false);
+            } else {
+                pending.add(child);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+    }
+
+    // Sends the pending files that changed since they were last sent
+    private void push() throws IOException {
+        List<Path> changed = new ArrayList<>();
+        List<BasicFileAttributes> attributes = new ArrayList<>();
+        for (Path file : pending) {
+            String path = relativePath(file);
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (NoSuchFileException e) {
+                // The receiver keeps its copy; forgetting it here sends the file again if it comes back
+                index.remove(path);
+                continue;
+            }
+            if (!attrs.isRegularFile() || index.isUnchanged(path, attrs.size(), attrs.lastModifiedTime().toMillis())) {
+                continue;
+            }
+            if (!Receiver.isValidRelativePath(path)) {
+                listener.onMessage("Not syncing " + path + ": the receiver does not accept that name");
+                continue;
+            }
+            changed.add(file);
+            attributes.add(attrs);
+        }
+        pending.clear();
+        if (changed.isEmpty()) {
+            index.save();
+            return;
+        }
+
+        // Files that were touched but still hash the same only need their index entry updated
+        byte[][] hashes = contentHashes.hashAll(changed);
+        List<File> toSend = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<BasicFileAttributes> sentAttributes = new ArrayList<>();
+        List<byte[]> sentHashes = new ArrayList<>();
+        for (int i = 0; i < changed.size(); i++) {
+            String path = relativePath(changed.get(i));
+            BasicFileAttributes attrs = attributes.get(i);
+            if (index.hasHash(path, hashes[i])) {
+                index.put(path, attrs.size(), attrs.lastModifiedTime().toMillis(), hashes[i]);
+            } else {
+                toSend.add(changed.get(i).toFile());
+                names.add(path);
+                sentAttributes.add(attrs);
+                sentHashes.add(hashes[i]);
+            }
+        }
+        if (toSend.isEmpty()) {
+            index.save();
+            contentHashes.save();
+            return;
+        }
+
+        String[] nameArray = names.toArray(new String[0]);
+        File[] fileArray = toSend.toArray(new File[0]);
+        sender.checkSpace(receiverIP, nameArray, fileArray);
+        byte[] statuses = sender.exchangeManifest(receiverIP, nameArray, fileArray, contentHashes);
+        contentHashes.save();
+        int needed = 0;
+        for (byte status : statuses) {
+            if (status == Sender.MANIFEST_NEEDED) {
+                needed++;
+            }
+        }
+        listener.onMessage("Syncing " + needed + " changed files (" + (toSend.size() - needed)
+                + " already on the receiver)");
+
+        int sent = 0;
+        for (int i = 0; i < fileArray.length; i++) {
+            BasicFileAttributes attrs = sentAttributes.get(i);
+            if (statuses[i] == Sender.MANIFEST_NEEDED) {
+                try (ChunkSource source = ChunkSources.file(fileArray[i], nameArray[i])) {
+                    sender.sendSource(receiverIP, source, true, sent++, needed, listener);
+                } catch (NoSuchFileException e) {
+                    index.remove(nameArray[i]);
+                    continue;
+                } catch (RuntimeException e) {
+                    index.save();
+                    throw new IOException("Error sending file " + nameArray[i] + ": " + e.getMessage(), e);
+                }
+                filesSent++;
+            } else {
+                listener.onFileSkipped(nameArray[i], attrs.size());
+            }
+            // Recorded as of the scan; a change made since has its own event and is sent again
+            index.put(nameArray[i], attrs.size(), attrs.lastModifiedTime().toMillis(), sentHashes.get(i));
+        }
+        index.save();
+    }
+
+    private String relativePath(Path file) {
+        return folder.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private static boolean isHidden(Path path) {
+        return path.getFileName().toString().startsWith(".");
+    }
+}
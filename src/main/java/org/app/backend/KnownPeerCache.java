@@ -0,0 +1,115 @@
+package org.app.backend;
+
+import org.app.User;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receivers seen in earlier discovery sessions, kept in
+ * {@code ~/.fileshare/known-peers} so they can be probed by unicast as soon as
+ * discovery starts instead of waiting for their next broadcast.
+ *
+ * An entry that fails to answer {@value #MAX_MISSES} discovery sessions in a
+ * row is dropped; the file holds at most {@value #MAX_ENTRIES} peers, most
+ * recently seen first. One line per peer: peer ID, IP, last seen (epoch
+ * millis), misses and name, tab separated.
+ */
+public class KnownPeerCache {
+    static final int MAX_MISSES = 3;
+    static final int MAX_ENTRIES = 256;
+
+    private final Path file;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    public KnownPeerCache() {
+        this(PeerIdentity.getConfigDirectory().resolve("known-peers"));
+    }
+
+    public KnownPeerCache(Path file) {
+        this.file = file;
+    }
+
+    public synchronized void load() {
+        entries.clear();
+        if (!Files.exists(file)) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t", 5);
+                if (fields.length == 5) {
+                    entries.put(fields[0], new Entry(fields[0], fields[1], Long.parseLong(fields[2]),
+                            Integer.parseInt(fields[3]), fields[4]));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Ignoring unreadable known-peer cache: " + e.getMessage());
+            entries.clear();
+        }
+    }
+
+    public synchronized void save() {
+        List<Entry> sorted = new ArrayList<>(entries.values());
+        sorted.sort(Comparator.comparingLong(Entry::lastSeenMillis).reversed());
+        StringBuilder content = new StringBuilder();
+        for (Entry entry : sorted.subList(0, Math.min(sorted.size(), MAX_ENTRIES))) {
+            content.append(entry.peerId).append('\t').append(entry.ip).append('\t')
+                    .append(entry.lastSeenMillis).append('\t').append(entry.misses).append('\t')
+                    .append(entry.name.replace('\t', ' ').replace('\n', ' ')).append('\n');
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(temp, content, StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not save known-peer cache: " + e.getMessage());
+        }
+    }
+
+    /** Records a live sighting, resetting the peer's miss count. Legacy peers are not cached. */
+    public synchronized void seen(User peer) {
+        if (peer.getProtocolVersion() == 0) {
+            return;
+        }
+        entries.put(peer.getPeerId(), new Entry(peer.getPeerId(), peer.getIp(), System.currentTimeMillis(),
+                0, peer.getUsername()));
+    }
+
+    /** Counts a discovery session in which the peer did not answer, dropping it after too many. */
+    public synchronized void missed(String peerId) {
+        Entry entry = entries.get(peerId);
+        if (entry == null) {
+            return;
+        }
+        if (entry.misses + 1 >= MAX_MISSES) {
+            entries.remove(peerId);
+        } else {
+            entries.put(peerId, new Entry(entry.peerId, entry.ip, entry.lastSeenMillis, entry.misses + 1, entry.name));
+        }
+    }
+
+    public synchronized List<String> getPeerIds() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    public synchronized List<String> getAddresses() {
+        List<String> addresses = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            addresses.add(entry.ip);
+        }
+        return addresses;
+    }
+
+    private record Entry(String peerId, String ip, long lastSeenMillis, int misses, String name) {
+    }
+}
@@ -0,0 +1,281 @@
+package org.app.backend;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * SHA-256 hash tree over fixed {@value #LEAF_SIZE}-byte blocks of a file, so
+ * chunks arriving out of order on separate connections can each be verified
+ * as soon as they land instead of re-reading the whole file at the end.
+ *
+ * The sender hashes the leaves with fork/join and sends the root and the leaf
+ * layer in the file header; the receiver rebuilds the root from the leaves,
+ * rejects the header if it differs, and checks every chunk's leaves while the
+ * chunk is written. Leaves and inner nodes are domain separated as in RFC
+ * 6962 ({@code 0x00 || block}, {@code 0x01 || left || right}); a range of n
+ * leaves splits at the largest power of two below n. Wire format:
+ * {@code byte[32] root, int leafCount}, then {@code byte[32]} per leaf.
+ */
+public class MerkleTree {
+    public static final int LEAF_SIZE = ChunkCodec.BLOCK_SIZE;
+    static final int HASH_SIZE = 32;
+    // Leaves hashed per fork/join task
+    private static final int LEAVES_PER_TASK = 8;
+    private static final byte LEAF_PREFIX = 0;
+    private static final byte NODE_PREFIX = 1;
+    // Hash of a full all-zero leaf; holes in sparse files are matched against it without hashing
+    private static final byte[] ZERO_LEAF;
+
+    static {
+        MessageDigest sha256 = sha256();
+        sha256.update(LEAF_PREFIX);
+        sha256.update(new byte[LEAF_SIZE]);
+        ZERO_LEAF = sha256.digest();
+    }
+
+    private final long fileSize;
+    private final byte[] leaves;
+    private final byte[] root;
+
+    private MerkleTree(long fileSize, byte[] leaves, byte[] root) {
+        this.fileSize = fileSize;
+        this.leaves = leaves;
+        this.root = root;
+    }
+
+    static int leafCount(long fileSize) {
+        return (int) ((fileSize + LEAF_SIZE - 1) / LEAF_SIZE);
+    }
+
+    /** Hashes the first {@code size} bytes of {@code source}, forking leaf ranges onto the common pool. */
+    public static MerkleTree compute(ChunkSource source, long size) throws IOException {
+        byte[] leaves = new byte[leafCount(size) * HASH_SIZE];
+        try {
+            ForkJoinPool.commonPool().invoke(new LeafTask(source, size, leaves, 0, leafCount(size)));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new MerkleTree(size, leaves, rootOf(leaves));
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.write(root);
+        out.writeInt(leaves.length / HASH_SIZE);
+        out.write(leaves);
+    }
+
+    /** Reads a tree for a file of {@code fileSize} bytes and checks its leaves against its root. */
+    public static MerkleTree read(DataInputStream in, long fileSize) throws IOException {
+        byte[] root = new byte[HASH_SIZE];
+        in.readFully(root);
+        int count = in.readInt();
+        if (count != leafCount(fileSize)) {
+            throw new IOException("Hash tree has " + count + " leaves, expected " + leafCount(fileSize));
+        }
+        byte[] leaves = new byte[count * HASH_SIZE];
+        in.readFully(leaves);
+        if (!MessageDigest.isEqual(root, rootOf(leaves))) {
+            throw new IOException("Hash tree leaves do not match its root");
+        }
+        return new MerkleTree(fileSize, leaves, root);
+    }
+
+    public int getLeafCount() { return leaves.length / HASH_SIZE; }
+
+    public String getRootHex() {
+        return HexFormat.of().formatHex(root);
+    }
+
+    /**
+     * A verifier for the chunk of {@code size} bytes from {@code start}, which
+     * must be leaf aligned. Bytes must be fed in order, as a chunk's stream
+     * delivers them.
+     */
+    public ChunkVerifier verifier(long start, int size) {
+        if (start % LEAF_SIZE != 0 || start + size > fileSize) {
+            throw new IllegalArgumentException("Chunk " + start + "+" + size + " is not leaf aligned");
+        }
+        return new ChunkVerifier(start, size);
+    }
+
+    /** Hashes one chunk's bytes as they are written and compares each completed leaf with the tree. */
+    public class ChunkVerifier {
+        private final MessageDigest sha256 = sha256();
+        private final byte[] digest = new byte[HASH_SIZE];
+        private final long end;
+        private long position;
+        private long leafStart;
+        private long leafEnd;
+        private int mismatchedLeaf = -1;
+
+        private ChunkVerifier(long start, int size) {
+            this.end = start + size;
+            this.position = start;
+            startLeaf();
+        }
+
+        /** Hashes the remaining bytes of {@code data}, which belong at {@code position}, without consuming them. */
+        public void update(ByteBuffer data, long position) throws IOException {
+            if (position != this.position) {
+                throw new IOException("Out of order data at " + position + ", expected " + this.position);
+            }
+            ByteBuffer remaining = data.duplicate();
+            while (remaining.hasRemaining()) {
+                int length = (int) Math.min(remaining.remaining(), leafEnd - this.position);
+                if (length <= 0) {
+                    throw new IOException("Data past the end of the chunk at " + this.position);
+                }
+                if (this.position == leafStart) {
+                    sha256.update(LEAF_PREFIX);
+                }
+                sha256.update(remaining.slice(remaining.position(), length));
+                remaining.position(remaining.position() + length);
+                advance(length);
+            }
+        }
+
+        /** Hashes {@code length} zero bytes at {@code position}, for elided hole frames. */
+        public void updateZeros(long position, int length) throws IOException {
+            if (position == this.position && this.position == leafStart && leafEnd - leafStart == LEAF_SIZE
+                    && length == LEAF_SIZE) {
+                finishLeaf(ZERO_LEAF, 0);
+                return;
+            }
+            byte[] zeros = new byte[Math.min(length, 64 * 1024)];
+            long at = position;
+            for (int left = length; left > 0; ) {
+                int step = Math.min(left, zeros.length);
+                update(ByteBuffer.wrap(zeros, 0, step), at);
+                at += step;
+                left -= step;
+            }
+        }
+
+        /** Throws unless the whole chunk was fed and every leaf matched. */
+        public void verify() throws IOException {
+            if (mismatchedLeaf >= 0) {
+                throw new IOException("Block " + mismatchedLeaf + " does not match its hash");
+            }
+            if (position != end) {
+                throw new IOException("Chunk verified only up to " + position + " of " + end);
+            }
+        }
+
+        private void advance(int length) {
+            position += length;
+            if (position == leafEnd) {
+                try {
+                    sha256.digest(digest, 0, HASH_SIZE);
+                } catch (DigestException e) {
+                    throw new IllegalStateException(e);
+                }
+                finishLeaf(digest, 0);
+            }
+        }
+
+        private void finishLeaf(byte[] hash, int offset) {
+            int leaf = (int) (leafStart / LEAF_SIZE);
+            if (mismatchedLeaf < 0 && !Arrays.equals(leaves, leaf * HASH_SIZE, (leaf + 1) * HASH_SIZE,
+                    hash, offset, offset + HASH_SIZE)) {
+                mismatchedLeaf = leaf;
+            }
+            position = leafEnd;
+            if (position < end) {
+                startLeaf();
+            }
+        }
+
+        private void startLeaf() {
+            leafStart = position;
+            leafEnd = Math.min(fileSize, (position / LEAF_SIZE + 1) * LEAF_SIZE);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class LeafTask extends RecursiveTask<Void> {
+        private final ChunkSource source;
+        private final long size;
+        private final byte[] leaves;
+        private final int from;
+        private final int to;
+
+        LeafTask(ChunkSource source, long size, byte[] leaves, int from, int to) {
+            this.source = source;
+            this.size = size;
+            this.leaves = leaves;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Void compute() {
+            if (to - from > LEAVES_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new LeafTask(source, size, leaves, from, middle),
+                        new LeafTask(source, size, leaves, middle, to));
+                return null;
+            }
+            MessageDigest sha256 = sha256();
+            ByteBuffer block = ByteBuffer.allocate(LEAF_SIZE);
+            for (int leaf = from; leaf < to; leaf++) {
+                long offset = (long) leaf * LEAF_SIZE;
+                block.clear().limit((int) Math.min(LEAF_SIZE, size - offset));
+                try {
+                    ChunkCodec.readFully(source, block, offset);
+                    if (block.position() == LEAF_SIZE && ChunkCodec.isZero(block.array(), LEAF_SIZE)) {
+                        System.arraycopy(ZERO_LEAF, 0, leaves, leaf * HASH_SIZE, HASH_SIZE);
+                        continue;
+                    }
+                    sha256.update(LEAF_PREFIX);
+                    sha256.update(block.flip());
+                    sha256.digest(leaves, leaf * HASH_SIZE, HASH_SIZE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (DigestException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return null;
+        }
+    }
+
+    static byte[] rootOf(byte[] leaves) {
+        MessageDigest sha256 = sha256();
+        int count = leaves.length / HASH_SIZE;
+        if (count == 0) {
+            return sha256.digest();
+        }
+        return subtreeRoot(leaves, 0, count, sha256);
+    }
+
+    private static byte[] subtreeRoot(byte[] leaves, int from, int to, MessageDigest sha256) {
+        if (to - from == 1) {
+            return Arrays.copyOfRange(leaves, from * HASH_SIZE, to * HASH_SIZE);
+        }
+        int split = from + Integer.highestOneBit(to - from - 1);
+        byte[] left = subtreeRoot(leaves, from, split, sha256);
+        byte[] right = subtreeRoot(leaves, split, to, sha256);
+        sha256.update(NODE_PREFIX);
+        sha256.update(left);
+        sha256.update(right);
+        return sha256.digest();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.app.backend;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+
+/**
+ * Stable peer ID advertised in discovery beacons, so peers are recognised
+ * across IP changes. Generated once and kept in {@code ~/.fileshare/peer-id}.
+ */
+public final class PeerIdentity {
+    /** Names a directory to use instead of {@code ~/.fileshare}, e.g. for a benchmark run. */
+    public static final String CONFIG_DIR_PROPERTY = "fileshare.config.dir";
+    private static volatile UUID localId;
+
+    private PeerIdentity() {
+    }
+
+    /** Where the peer ID and the caches are kept; read on every call, so the property can be set at start-up. */
+    public static Path getConfigDirectory() {
+        String override = System.getProperty(CONFIG_DIR_PROPERTY);
+        return override != null ? Paths.get(override) : Paths.get(System.getProperty("user.home"), ".fileshare");
+    }
+
+    public static UUID local() {
+        UUID id = localId;
+        if (id == null) {
+            synchronized (PeerIdentity.class) {
+                if (localId == null) {
+                    localId = loadOrCreate();
+                }
+                id = localId;
+            }
+        }
+        return id;
+    }
+
+    private static UUID loadOrCreate() {
+        Path configDir = getConfigDirectory();
+        Path idFile = configDir.resolve("peer-id");
+        try {
+            if (Files.exists(idFile)) {
+                return UUID.fromString(Files.readString(idFile, StandardCharsets.UTF_8).trim());
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Ignoring unreadable peer ID: " + e.getMessage());
+        }
+        UUID id = UUID.randomUUID();
+        try {
+            Files.createDirectories(configDir);
+            Files.writeString(idFile, id.toString(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            // Still usable for this run, just not stable across restarts
+            System.err.println("Could not persist peer ID: " + e.getMessage());
+        }
+        return id;
+    }
+}
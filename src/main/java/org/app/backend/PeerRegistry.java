@@ -0,0 +1,124 @@
+package org.app.backend;
+
+import org.app.User;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live set of receivers seen on the network, keyed by the peer ID from their
+ * beacons so a peer whose IP changed is updated rather than duplicated. Every
+ * beacon refreshes its peer's entry; peers that miss beacons for longer than
+ * the TTL they advertise are dropped by {@link #expire()}, which the discovery
+ * loop calls regularly.
+ */
+public class PeerRegistry {
+    /** Three missed one-second beacons plus some slack for scheduling jitter. */
+    public static final long DEFAULT_TTL_NANOS = TimeUnit.MILLISECONDS.toNanos(3500);
+
+    /** Best candidates first: least busy, then most free space, then by name. */
+    public static final Comparator<User> PREFERRED_FIRST = Comparator
+            .comparingInt(User::getActiveTransfers)
+            .thenComparing(Comparator.comparingLong(User::getFreeSpace).reversed())
+            .thenComparing(User::getUsername, Comparator.nullsLast(Comparator.naturalOrder()));
+
+    public interface Listener {
+        void onPeerAdded(User peer);
+
+        /**
+         * The peer's name, address, load or stream limit changed. Plain refreshes
+         * and free-space drift are not reported.
+         */
+        default void onPeerUpdated(User peer) { }
+
+        void onPeerRemoved(User peer);
+    }
+
+    private final Map<String, Entry> peers = new ConcurrentHashMap<>();
+    private final long ttlNanos;
+    private volatile Listener listener;
+
+    public PeerRegistry() {
+        this(DEFAULT_TTL_NANOS);
+    }
+
+    public PeerRegistry(long ttlNanos) {
+        this.ttlNanos = ttlNanos;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Records a beacon from {@code peer}, notifying the listener if it is new or changed. */
+    public void seen(User peer) {
+        seen(peer, ttlNanos);
+    }
+
+    public void seen(User peer, long peerTtlNanos) {
+        long now = System.nanoTime();
+        Entry previous = peers.put(peer.getPeerId(), new Entry(peer, now, peerTtlNanos));
+        Listener current = listener;
+        if (current == null) {
+            return;
+        }
+        if (previous == null) {
+            current.onPeerAdded(peer);
+        } else if (changed(previous.peer, peer)) {
+            current.onPeerUpdated(peer);
+        }
+    }
+
+    /** Removes peers whose last beacon is older than their TTL. */
+    public void expire() {
+        long now = System.nanoTime();
+        for (Map.Entry<String, Entry> entry : peers.entrySet()) {
+            Entry peer = entry.getValue();
+            if (now - peer.lastSeenNanos > peer.ttlNanos && peers.remove(entry.getKey(), peer)) {
+                Listener current = listener;
+                if (current != null) {
+                    current.onPeerRemoved(peer.peer);
+                }
+            }
+        }
+    }
+
+    /** Removes {@code peerId} at once, for a peer that said goodbye. */
+    public void remove(String peerId) {
+        Entry entry = peers.remove(peerId);
+        Listener current = listener;
+        if (entry != null && current != null) {
+            current.onPeerRemoved(entry.peer);
+        }
+    }
+
+    public boolean contains(String peerId) {
+        return peers.containsKey(peerId);
+    }
+
+    public boolean containsAddress(String ip) {
+        for (Entry entry : peers.values()) {
+            if (ip.equals(entry.peer.getIp())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void clear() {
+        peers.clear();
+    }
+
+    private static boolean changed(User before, User after) {
+        return !Objects.equals(before.getUsername(), after.getUsername())
+                || !Objects.equals(before.getIp(), after.getIp())
+                || before.getActiveTransfers() != after.getActiveTransfers()
+                || before.getMaxStreams() != after.getMaxStreams();
+    }
+
+    private record Entry(User peer, long lastSeenNanos, long ttlNanos) {
+    }
+}
@@ -0,0 +1,130 @@
+package org.app.backend;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reads ranges of a file block by block on a separate thread, ahead of a
+ * consumer that transforms and sends each block, so disk reads overlap with
+ * compression and socket writes instead of alternating with them.
+ *
+ * Each source circulates {@value #BUFFERS} direct buffers: the reader fills
+ * one while the consumer works on the other, and waits for one to be
+ * released when it is ahead. Being direct, blocks go from the page cache to
+ * the socket without the JDK copying them through temporary buffers. The
+ * buffers come from a process-wide pool and go back to it on close, so small
+ * chunks do not each allocate and zero fresh ones. Ranges are split into
+ * blocks of at most the block size; a block never spans two ranges.
+ */
+final class ReadAheadSource implements AutoCloseable {
+    static final int BUFFERS = 2;
+    // Idle buffers kept for reuse; enough for every stream of a session to be reading ahead
+    private static final int POOL_SIZE = 64;
+    private static final BlockingQueue<ByteBuffer> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final ExecutorService READERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "read-ahead");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** {@code length} bytes of the file from {@code offset}. */
+    record Range(long offset, long length) {
+    }
+
+    // Room for the pool plus the empty buffer that wakes the reader on close
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(BUFFERS + 1);
+    // Filled blocks in file order, then the reader's exception if it failed; never more than the pool plus one
+    private final BlockingQueue<Object> filled = new ArrayBlockingQueue<>(BUFFERS + 1);
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile boolean closed;
+
+    ReadAheadSource(ChunkSource source, List<Range> ranges, int blockSize) {
+        if (blockSize > ChunkCodec.BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size " + blockSize + " is larger than the pooled buffers");
+        }
+        for (int i = 0; i < BUFFERS; i++) {
+            ByteBuffer buffer = POOL.poll();
+            free.add(buffer != null ? buffer : ByteBuffer.allocateDirect(ChunkCodec.BLOCK_SIZE));
+        }
+        READERS.execute(() -> read(source, ranges, blockSize));
+    }
+
+    private void read(ChunkSource source, List<Range> ranges, int blockSize) {
+        try {
+            for (Range range : ranges) {
+                for (long offset = 0; offset < range.length(); ) {
+                    ByteBuffer block = free.take();
+                    if (closed) {
+                        free.offer(block);
+                        return;
+                    }
+                    int length = (int) Math.min(blockSize, range.length() - offset);
+                    block.clear().limit(length);
+                    ChunkCodec.readFully(source, block, range.offset() + offset);
+                    filled.put(block.flip());
+                    offset += length;
+                }
+            }
+        } catch (IOException e) {
+            filled.offer(e);
+        } catch (InterruptedException e) {
+            filled.offer(new InterruptedIOException("Read-ahead interrupted"));
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    /** The next block in order, flipped for reading; waits for the reader if it is behind. */
+    ByteBuffer next() throws IOException {
+        Object item;
+        try {
+            item = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for read-ahead");
+        }
+        if (item instanceof IOException e) {
+            throw new IOException("Read-ahead failed: " + e.getMessage(), e);
+        }
+        return (ByteBuffer) item;
+    }
+
+    /** Hands a block from {@link #next()} back to the reader once its bytes are no longer needed. */
+    void release(ByteBuffer block) {
+        free.offer(block);
+    }
+
+    /**
+     * Stops the reader after at most one more block and returns the buffers to
+     * the pool; blocks from {@link #next()} must have been released. The reader
+     * is not interrupted, as that would close the file channel under it.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        free.offer(ByteBuffer.allocate(0));
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        for (Object item : filled) {
+            if (item instanceof ByteBuffer buffer) {
+                POOL.offer(buffer);
+            }
+        }
+        for (ByteBuffer buffer : free) {
+            if (buffer.capacity() > 0) {
+                POOL.offer(buffer);
+            }
+        }
+    }
+}
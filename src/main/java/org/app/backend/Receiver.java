@@ -2,79 +2,273 @@ package org.app.backend;
 
 import javax.swing.*;
 import org.app.gui.TransferProgressDialog;
+import org.app.backend.jfr.ChunkEvent;
+import org.app.backend.jfr.ChunkRetryEvent;
+import org.app.backend.jfr.ChunkServerSetupEvent;
+import org.app.backend.jfr.FileTransferEvent;
+import org.app.backend.jfr.FsyncEvent;
+import org.app.backend.jfr.HandshakeEvent;
+import org.app.backend.jfr.SessionEvent;
+import org.app.backend.jfr.StallEvent;
+import org.app.backend.metrics.SessionMetrics;
+import org.app.backend.metrics.TransferMetrics;
+import java.awt.GraphicsEnvironment;
 import java.io.*;
 import java.net.*;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.util.concurrent.*;
-import java.util.function.Consumer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 public class Receiver {
     private volatile boolean isReceiving = true;
     private volatile boolean isAcceptingConnections = true;
-    private Consumer<String> statusCallback;
+    private volatile TransferListener listener = TransferListener.NONE;
+    private volatile Selector broadcastSelector;
     private ServerSocket[] chunkServers;
     private Socket currentSocket;
     private ServerSocket currentServerSocket;
+    private volatile ServerSocket fileServerSocket;
+    private final TransferMetrics metrics = TransferMetrics.get();
+    private volatile boolean syncOnComplete;
+    private volatile boolean preallocation;
+    private volatile WriteEngine writeEngine = WriteEngine.AUTO;
+    private volatile WriteOrder writeOrder = WriteOrder.AUTO;
+    private final Map<Path, WriteOrder> directoryWriteOrders = new ConcurrentHashMap<>();
+    private volatile ChunkSink.Factory sinkFactory;
+    private long sessionBytesReceived;
+    private int sessionFilesReceived;
+    private volatile ContentHashCache contentHashes = new ContentHashCache();
+    // Content-defined chunks of received files, offered to senders that deduplicate
+    private final ChunkIndex chunkIndex = new ChunkIndex();
+    // Decides whether an incoming connection request is accepted; asks the user by default.
+    private Predicate<String> connectionApprover = requestMessage ->
+            JOptionPane.showConfirmDialog(null, requestMessage,
+                    "Incoming Connection Request", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION;
 
     public void setReceiving(boolean receiving) {
         isReceiving = receiving;
+        if (!receiving) {
+            wakeBroadcaster();
+        }
+    }
+
+    private void wakeBroadcaster() {
+        Selector selector = broadcastSelector;
+        if (selector != null) {
+            selector.wakeup();
+        }
     }
 
     public void setAcceptingConnections(boolean acceptingConnections) {
         isAcceptingConnections = acceptingConnections;
     }
 
+    public void setConnectionApprover(Predicate<String> connectionApprover) {
+        this.connectionApprover = connectionApprover;
+    }
+
+    /** Hashes of files already in the save directory, shared with the sender side of the same app. */
+    public void setContentHashes(ContentHashCache contentHashes) {
+        this.contentHashes = contentHashes;
+    }
+
+    /** When enabled, each received file is forced to disk before it is reported complete. */
+    public void setSyncOnComplete(boolean syncOnComplete) {
+        this.syncOnComplete = syncOnComplete;
+    }
+
+    /**
+     * When enabled, each new file is filled with zeros before READY, so the
+     * file system allocates all of it up front in as few extents as it can
+     * instead of piecemeal under parallel writes. Costs a second write of the
+     * file and gives up sparseness.
+     */
+    public void setPreallocation(boolean preallocation) {
+        this.preallocation = preallocation;
+    }
+
+    /** How raw chunks are written; {@link WriteEngine#AUTO} picks one per file from its size. */
+    public void setWriteEngine(WriteEngine writeEngine) {
+        this.writeEngine = writeEngine;
+    }
+
+    /** Write order for destinations without their own; {@link WriteOrder#AUTO} detects it from the file system. */
+    public void setWriteOrder(WriteOrder writeOrder) {
+        this.writeOrder = writeOrder;
+    }
+
+    /** Write order for files received into {@code directory} or below it, or null to go back to the default. */
+    public void setWriteOrder(Path directory, WriteOrder writeOrder) {
+        Path key = directory.toAbsolutePath().normalize();
+        if (writeOrder == null) {
+            directoryWriteOrders.remove(key);
+        } else {
+            directoryWriteOrders.put(key, writeOrder);
+        }
+    }
+
+    /**
+     * Hands every received file to a sink from {@code sinkFactory} instead of
+     * writing it into the save directory, or null to go back to files. Nothing
+     * the sender offers to skip is found there then, so manifests, delta and
+     * dedup requests are answered as for an empty directory and every byte
+     * is sent; the write engine, write order, preallocation and sync settings
+     * only apply to files.
+     */
+    public void setSinkFactory(ChunkSink.Factory sinkFactory) {
+        this.sinkFactory = sinkFactory;
+    }
+
+    private WriteOrder writeOrderFor(Path directory) {
+        Path absolute = directory.toAbsolutePath().normalize();
+        for (Path dir = absolute; dir != null; dir = dir.getParent()) {
+            WriteOrder configured = directoryWriteOrders.get(dir);
+            if (configured != null) {
+                return configured.resolve(absolute);
+            }
+        }
+        return writeOrder.resolve(absolute);
+    }
+
     private static final int RECEIVING_PORT = 9090;
     private static final int BUFFER_SIZE = 8 * 1024 * 1024; // 8MB
+    // Zero pages inside decoded blocks are skipped at this granularity to keep sparse files sparse
+    private static final int HOLE_PAGE_SIZE = 4096;
+    private static final int MAX_MANIFEST_ENTRIES = 1_000_000;
+    private static final int MAX_NAME_BYTES = 64 * 1024;
     private static final int CHUNK_SIZE = 64 * 1024 * 1024; // 64MB chunks to match Sender
     private static final int CONNECTION_PORT = 9080;
     private static final int BROADCAST_PORT = 9000;
     private static final String BROADCAST_IP = "255.255.255.255";
+    private static final int BEACON_BUFFER_SIZE = 512;
+    private static final long MIN_ANNOUNCE_MS = 500;
+    private static final long MAX_ANNOUNCE_MS = 30_000;
+    // Parallel chunk streams advertised to senders
+    private static final int MAX_STREAMS = Math.max(2, Runtime.getRuntime().availableProcessors());
     // Each chunk will be received on port: RECEIVING_PORT + 1 + chunkIndex
     private static final int BASE_CHUNK_PORT = RECEIVING_PORT + 1;
     // Increase timeouts to 30 seconds to reduce premature timeout errors.
     private static final int SOCKET_TIMEOUT_MS = 30000;
+    // The sender hashes after announcing a manifest or hash tree, so reading those waits longer
+    private static final int HASHING_TIMEOUT_MS = 10 * 60 * 1000;
+    // A piped stream may produce nothing for a while, e.g. while a dump scans a large table
+    private static final int STREAM_TIMEOUT_MS = 10 * 60 * 1000;
 
-    public void peerBroadcaster(String name) {
-        try (DatagramChannel channel = DatagramChannel.open();) {
+    /**
+     * Announces this receiver with a {@link DiscoveryBeacon} carrying its current
+     * load, the free space in {@code saveDirectory} and the number of parallel
+     * streams it accepts.
+     *
+     * Announcements start every {@value #MIN_ANNOUNCE_MS} ms and back off to one
+     * every {@value #MAX_ANNOUNCE_MS} ms while nothing changes; a change in load
+     * restarts the fast phase. Senders that want an answer sooner broadcast a
+     * query, which is answered immediately by unicast. When receiving stops, a
+     * goodbye beacon drops this receiver from their lists without waiting out
+     * the TTL of the last announce.
+     */
+    public void peerBroadcaster(String name, String saveDirectory) {
+        try (DatagramChannel channel = DatagramChannel.open();
+             Selector selector = Selector.open()) {
             channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
-            ByteBuffer buffer = ByteBuffer.wrap(name.getBytes(StandardCharsets.UTF_8));
-            System.out.println("Starting peer broadcaster: " + name);
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.bind(new InetSocketAddress(BROADCAST_PORT));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+            broadcastSelector = selector;
+
+            ByteBuffer buffer = ByteBuffer.allocate(BEACON_BUFFER_SIZE);
+            File saveDir = new File(saveDirectory);
+            UUID peerId = PeerIdentity.local();
+            AnnounceSchedule schedule = new AnnounceSchedule(MIN_ANNOUNCE_MS, MAX_ANNOUNCE_MS);
+            System.out.println("Starting peer broadcaster: " + name + " (" + peerId + ")");
 
             InetSocketAddress broadcastAddress = new InetSocketAddress(BROADCAST_IP, BROADCAST_PORT);
+            long nextAnnounceNanos = System.nanoTime();
+            long ttlMillis = PeerRegistry.DEFAULT_TTL_NANOS / 1_000_000;
+            int lastLoad = -1;
             while (isReceiving) {
-                System.out.printf("Broadcasting on port %d...\n", BROADCAST_PORT);
-                buffer.rewind();
-                channel.send(buffer, broadcastAddress);
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    System.out.println("Broadcast interrupted");
-                    break;
+                long waitMillis = TimeUnit.NANOSECONDS.toMillis(nextAnnounceNanos - System.nanoTime());
+                if (waitMillis > 0) {
+                    selector.select(waitMillis);
+                    selector.selectedKeys().clear();
+                }
+
+                SocketAddress querier;
+                while ((querier = channel.receive(buffer.clear())) != null) {
+                    DiscoveryBeacon query = DiscoveryBeacon.decode(buffer.flip());
+                    if (query != null && query.getType() == DiscoveryBeacon.TYPE_QUERY) {
+                        sendBeacon(channel, buffer, querier, DiscoveryBeacon.TYPE_ANNOUNCE, peerId, saveDir,
+                                ttlMillis, name);
+                    }
+                }
+
+                if (System.nanoTime() - nextAnnounceNanos >= 0) {
+                    int load = metrics.getActiveSessions();
+                    if (load != lastLoad) {
+                        schedule.reset();
+                        lastLoad = load;
+                    }
+                    long interval = schedule.next();
+                    // Long enough to survive one lost beacon even as the interval doubles
+                    ttlMillis = 4 * interval + 500;
+                    sendBeacon(channel, buffer, broadcastAddress, DiscoveryBeacon.TYPE_ANNOUNCE, peerId, saveDir,
+                            ttlMillis, name);
+                    nextAnnounceNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval);
                 }
             }
+            // The last announce may have promised minutes; tell listeners not to wait them out
+            sendBeacon(channel, buffer, broadcastAddress, DiscoveryBeacon.TYPE_GOODBYE, peerId, saveDir, 0, name);
             System.out.println("Peer broadcaster stopped");
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            broadcastSelector = null;
         }
     }
 
-    public void listenForConnectionRequests(String saveDirectory, Consumer<Integer> progressCallback, Consumer<String> statusCallback) {
-        this.statusCallback = statusCallback;
+    private void sendBeacon(DatagramChannel channel, ByteBuffer buffer, SocketAddress target, byte type,
+                            UUID peerId, File saveDir, long ttlMillis, String name) throws IOException {
+        DiscoveryBeacon beacon = new DiscoveryBeacon(type, peerId,
+                metrics.getActiveSessions(), saveDir.getUsableSpace(), MAX_STREAMS, (int) ttlMillis, name);
+        buffer.clear();
+        beacon.encode(buffer);
+        channel.send(buffer.flip(), target);
+    }
+
+    public void listenForConnectionRequests(String saveDirectory, TransferListener listener) {
+        this.listener = listener;
         ServerSocket serverSocket = null;
         try {
             serverSocket = new ServerSocket(CONNECTION_PORT);
             this.currentServerSocket = serverSocket;
             serverSocket.setSoTimeout(1000); // 1 second timeout for checking flags
             log("Listening for connection requests on port " + CONNECTION_PORT);
+            listener.onListening(CONNECTION_PORT);
             
             while (isAcceptingConnections && isReceiving) {  // Check both flags
                 try {
@@ -90,7 +284,7 @@ public class Receiver {
                     }
                     
                     this.currentSocket = socket;
-                    handleIncomingConnection(socket, saveDirectory, progressCallback, statusCallback);
+                    handleIncomingConnection(socket, saveDirectory, listener);
                 } catch (SocketTimeoutException e) {
                     // Normal timeout, check flags and continue
                     if (!isAcceptingConnections || !isReceiving) {
@@ -120,60 +314,77 @@ public class Receiver {
         }
     }
 
-    private void handleIncomingConnection(Socket socket, String saveDirectory,
-                                          Consumer<Integer> progressCallback,
-                                          Consumer<String> statusCallback) {
+    private void handleIncomingConnection(Socket socket, String saveDirectory, TransferListener listener) {
+        String peer = socket.getInetAddress().getHostAddress();
         try {
             socket.setSoTimeout(SOCKET_TIMEOUT_MS);
             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
             PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
 
             String requestMessage = reader.readLine();
-            statusCallback.accept("Received connection request");
             System.out.println("Received connection request: " + requestMessage);
+            listener.onConnectionRequest(peer, requestMessage);
 
-            int confirm = JOptionPane.showConfirmDialog(null, requestMessage,
-                    "Incoming Connection Request", JOptionPane.YES_NO_OPTION);
-            if (confirm == JOptionPane.YES_OPTION) {
+            if (connectionApprover.test(requestMessage)) {
+                // Bind the file server before answering so the sender's first connect is never refused
+                ServerSocket fileServer;
+                try {
+                    fileServer = new ServerSocket(RECEIVING_PORT);
+                } catch (IOException e) {
+                    writer.println("NO");
+                    log("Cannot accept transfer: " + e.getMessage());
+                    return;
+                }
+                fileServerSocket = fileServer;
                 writer.println("YES");
-                statusCallback.accept("Connection accepted. Waiting for sender...");
-                System.out.println("Connection accepted. Waiting for sender...");
+                log("Connection accepted. Waiting for sender...");
 
                 // Stop accepting new connections but allow current transfer
                 isAcceptingConnections = false;
                 System.out.println("File receiver server started on port " + RECEIVING_PORT);
+                SessionMetrics sessionMetrics = new SessionMetrics("receiver", peer);
+                metrics.sessionStarted(sessionMetrics);
+                TransferListener sessionListener = CompositeTransferListener.countingInto(listener, sessionMetrics);
+                SessionEvent sessionEvent = new SessionEvent();
+                sessionEvent.begin();
+                sessionEvent.role = "receiver";
+                sessionEvent.peer = peer;
+                sessionBytesReceived = 0;
+                sessionFilesReceived = 0;
+                listener.onSessionStarted(TransferRole.RECEIVER, peer, -1, -1);
+                Exception sessionFailure = null;
 
                 // Loop to receive multiple files until termination signal is received.
-                try (ServerSocket fileSocket = new ServerSocket(RECEIVING_PORT)) {
+                try (ServerSocket fileSocket = fileServer) {
                     fileSocket.setSoTimeout(SOCKET_TIMEOUT_MS);
                     while (isReceiving) {
                         try (Socket transferSocket = fileSocket.accept()) {
                             transferSocket.setSoTimeout(SOCKET_TIMEOUT_MS);
 
-                            // Process one file.
-                            boolean terminated = receiveFile(transferSocket, saveDirectory,
-                                    progress -> {
-                                        progressCallback.accept(progress);
-                                        System.out.println("Progress: " + progress + "%");
-                                    },
-                                    status -> {
-                                        statusCallback.accept(status);
-                                        System.out.println("Status: " + status);
-                                    }
-                            );
+                            // Process one file, or the manifest ahead of them.
+                            boolean terminated = receiveFile(transferSocket, saveDirectory, sessionListener,
+                                    sessionFilesReceived);
 
                             if (terminated) {
                                 System.out.println("Received termination signal");
+                                sessionEvent.success = true;
                                 break;
                             }
                         } catch (Exception e) {
                             if (isReceiving) {
                                 System.err.println("Error in file transfer: " + e.getMessage());
                             }
+                            sessionFailure = e;
                             break;
                         }
                     }
-                    if (isReceiving) {
+                    if (sessionEvent.success) {
+                        listener.onSessionCompleted(TransferRole.RECEIVER, peer);
+                    } else {
+                        listener.onSessionFailed(TransferRole.RECEIVER, peer, sessionFailure != null
+                                ? sessionFailure : new IOException("Transfer cancelled"));
+                    }
+                    if (sessionEvent.success && isReceiving && !GraphicsEnvironment.isHeadless()) {
                         JOptionPane.showMessageDialog(null,
                                 "All files received successfully!",
                                 "Transfer Complete",
@@ -181,91 +392,249 @@ public class Receiver {
                     }
                 } catch (Exception e) {
                     System.err.println("Error in file receiver server: " + e.getMessage());
+                    listener.onSessionFailed(TransferRole.RECEIVER, peer, e);
+                } finally {
+                    metrics.sessionEnded(sessionMetrics);
+                    sessionEvent.bytes = sessionBytesReceived;
+                    sessionEvent.files = sessionFilesReceived;
+                    sessionEvent.commit();
                 }
             } else {
                 writer.println("NO");
-                statusCallback.accept("Connection rejected.");
+                log("Connection rejected.");
             }
         } catch (IOException e) {
-            statusCallback.accept("Error handling connection: " + e.getMessage());
+            log("Error handling connection: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
     /**
-     * Receives one file over the metadata connection.
-     * Returns true if a termination signal (fileSize == -1) is received.
+     * Receives one file over the metadata connection, or answers the session's
+     * manifest. Returns true if a termination signal (fileSize == -1) is received.
      */
-    public boolean receiveFile(Socket metadataSocket, String saveDirectory,
-                               Consumer<Integer> progressCallback,
-                               Consumer<String> statusCallback) {
+    public boolean receiveFile(Socket metadataSocket, String saveDirectory, TransferListener listener, int fileIndex) {
         this.chunkServers = null;
         FileChannel fileChannel = null;
+        FileChannel basisChannel = null;
+        File basisFile = null;
+        File deltaFile = null;
+        BlockSignatures signatures = null;
+        MerkleTree tree = null;
+        ChunkRecipe recipe = null;
+        ChunkIndex.Lookup stored = null;
+        SequentialWriter sequential = null;
+        ChunkSink sink = null;
+        String fileName = null;
+        FileTransferEvent fileEvent = null;
+        String peer = metadataSocket.getInetAddress().getHostAddress();
         
         try {
             metadataSocket.setSoTimeout(SOCKET_TIMEOUT_MS);
             
             DataInputStream metadataIn = new DataInputStream(
                 new BufferedInputStream(metadataSocket.getInputStream()));
-            PrintWriter metadataOut = new PrintWriter(
-                new BufferedOutputStream(metadataSocket.getOutputStream()), true);
+            DataOutputStream metadataOut = new DataOutputStream(
+                new BufferedOutputStream(metadataSocket.getOutputStream()));
 
             log("Reading file metadata...");
             
             long fileSize = metadataIn.readLong();
-            if (fileSize == -1) {
+            if (fileSize == Sender.END_OF_SESSION) {
                 log("Received termination signal");
+                chunkIndex.save();
                 return true;
             }
+            if (fileSize == Sender.MANIFEST) {
+                metadataSocket.setSoTimeout(HASHING_TIMEOUT_MS);
+                answerManifest(metadataIn, metadataOut, saveDirectory, listener);
+                return false;
+            }
+            if (fileSize == Sender.SPACE_CHECK) {
+                answerSpaceCheck(metadataIn, metadataOut, saveDirectory);
+                return false;
+            }
+            if (fileSize == Sender.STREAM) {
+                receiveStream(metadataSocket, metadataIn, metadataOut, saveDirectory, listener, fileIndex);
+                return false;
+            }
+            if (fileSize == Sender.KEEPALIVE) {
+                return false;
+            }
+            fileEvent = new FileTransferEvent();
+            fileEvent.begin();
+            HandshakeEvent handshakeEvent = new HandshakeEvent();
+            handshakeEvent.begin();
             
             int totalChunks = metadataIn.readInt();
             int nameLength = metadataIn.readInt();
             byte[] nameBytes = new byte[nameLength];
             metadataIn.readFully(nameBytes);
-            String fileName = new String(nameBytes, StandardCharsets.UTF_8);
+            fileName = new String(nameBytes, StandardCharsets.UTF_8);
+            byte flags = metadataIn.readByte();
+            long dataBytes = (flags & Sender.FLAG_SPARSE) != 0 ? metadataIn.readLong() : fileSize;
+            if (!isValidRelativePath(fileName)) {
+                throw new IOException("Invalid file name: " + fileName);
+            }
 
             log(String.format("Receiving file: %s (Size: %s, Chunks: %d)", 
                 fileName, formatFileSize(fileSize), totalChunks));
+            File receivedFile = null;
+            ChunkSink.Factory factory = sinkFactory;
+            if (factory != null) {
+                sink = factory.open(fileName, fileSize);
+                log("Writing into the configured sink instead of the save directory");
+            } else {
+                // Checked again per file in case something else filled the disk since the session's check. A
+                // sparse file needs only its data bytes, unless preallocation writes it out in full
+                long usableSpace = new File(saveDirectory).getUsableSpace();
+                long needed = preallocation ? fileSize : dataBytes;
+                if (needed > usableSpace) {
+                    rejectForSpace(metadataSocket, metadataIn, metadataOut, flags, fileName, fileSize, needed,
+                            usableSpace);
+                }
 
-            // Create file and prepare chunk servers before sending READY
-            File receivedFile = getUniqueFile(new File(saveDirectory, fileName));
-            log("Saving to: " + receivedFile.getAbsolutePath());
+                // Create file and prepare chunk servers before sending READY
+                File existingFile = new File(saveDirectory, fileName);
+                if (fileName.indexOf('/') >= 0) {
+                    Files.createDirectories(existingFile.getParentFile().toPath());
+                }
+                if ((flags & Sender.FLAG_DELTA) != 0 && existingFile.isFile()
+                        && existingFile.length() >= BlockSignatures.MIN_BLOCK_SIZE) {
+                    // Rebuilt beside the old copy, which replaces it once every chunk is in
+                    basisFile = existingFile;
+                    receivedFile = new File(existingFile.getParentFile(), "." + existingFile.getName() + ".delta");
+                    Files.deleteIfExists(receivedFile.toPath());
+                    basisChannel = FileChannel.open(basisFile.toPath(), StandardOpenOption.READ);
+                    long signStartNanos = System.nanoTime();
+                    signatures = BlockSignatures.compute(basisChannel, basisChannel.size());
+                    log(String.format("Updating existing %s: signed %d blocks of %s in %d ms", fileName,
+                        signatures.getBlockCount(), formatFileSize(signatures.getBlockSize()),
+                        (System.nanoTime() - signStartNanos) / 1_000_000));
+                } else if ((flags & Sender.FLAG_REPLACE) != 0 && existingFile.isFile()) {
+                    // Written beside the old copy, which it replaces once every chunk is in, like a delta
+                    basisFile = existingFile;
+                    receivedFile = new File(existingFile.getParentFile(), "." + existingFile.getName() + ".part");
+                    Files.deleteIfExists(receivedFile.toPath());
+                    log("Replacing existing " + fileName);
+                } else {
+                    receivedFile = getUniqueFile(existingFile);
+                }
+                deltaFile = basisFile != null ? receivedFile : null;
+                log("Saving to: " + receivedFile.getAbsolutePath());
             
-            fileChannel = FileChannel.open(receivedFile.toPath(), 
-                StandardOpenOption.CREATE, 
-                StandardOpenOption.WRITE,
-                StandardOpenOption.READ);
-            fileChannel.truncate(fileSize);
+                fileChannel = FileChannel.open(receivedFile.toPath(), 
+                    StandardOpenOption.CREATE, 
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.READ);
+                fileChannel.truncate(fileSize);
+                if (fileSize > 0 && fileChannel.size() < fileSize) {
+                    // truncate() never grows a file; extend it sparsely so elided zero blocks at the end still count
+                    fileChannel.write(ByteBuffer.allocate(1), fileSize - 1);
+                }
+                if (preallocation) {
+                    preallocate(fileChannel, fileSize);
+                }
+            }
+
+            fileEvent.role = "receiver";
+            fileEvent.peer = peer;
+            fileEvent.fileName = fileName;
+            fileEvent.fileSize = fileSize;
+            fileEvent.chunks = totalChunks;
 
             // Create chunk servers
+            ChunkServerSetupEvent setupEvent = new ChunkServerSetupEvent();
+            setupEvent.begin();
             chunkServers = new ServerSocket[totalChunks];
             for (int i = 0; i < totalChunks; i++) {
                 if (!isReceiving) {
                     throw new IOException("Transfer cancelled by user");
                 }
                 int port = RECEIVING_PORT + 1 + i;
-                ServerSocket ss = new ServerSocket(port);
+                // Opened as a channel so the direct write engines can read the accepted sockets' channels
+                ServerSocket ss = ServerSocketChannel.open().bind(new InetSocketAddress(port)).socket();
                 ss.setSoTimeout(SOCKET_TIMEOUT_MS);
                 chunkServers[i] = ss;
                 log("Created chunk server " + i + " on port " + port);
             }
+            setupEvent.end();
+            if (setupEvent.shouldCommit()) {
+                setupEvent.peer = peer;
+                setupEvent.fileName = fileName;
+                setupEvent.servers = totalChunks;
+                setupEvent.commit();
+            }
             
-            // Send READY signal with proper flush
-            log("Sending READY signal to sender");
-            metadataOut.println("READY");
+            if ((flags & (Sender.FLAG_VERIFY | Sender.FLAG_DEDUP)) != 0) {
+                // The sender hashes the whole file after the header, so these may take a while
+                metadataSocket.setSoTimeout(HASHING_TIMEOUT_MS);
+                if ((flags & Sender.FLAG_VERIFY) != 0) {
+                    tree = MerkleTree.read(metadataIn, fileSize);
+                }
+                if ((flags & Sender.FLAG_DEDUP) != 0) {
+                    recipe = ChunkRecipe.read(metadataIn, fileSize);
+                }
+                metadataSocket.setSoTimeout(SOCKET_TIMEOUT_MS);
+            }
+
+            // Send READY, DELTA and the signatures of our copy, or DEDUP and the chunks we hold
+            if (signatures != null) {
+                log("Sending DELTA signal to sender");
+                metadataOut.write("DELTA\n".getBytes(StandardCharsets.US_ASCII));
+                signatures.write(metadataOut);
+            } else if (recipe != null && sink == null) {
+                stored = chunkIndex.lookup(recipe, receivedFile.toPath());
+                log(String.format("Sending DEDUP signal to sender: holding %d of %d chunks", stored.getFoundCount(),
+                    recipe.getCount()));
+                metadataOut.write("DEDUP\n".getBytes(StandardCharsets.US_ASCII));
+                metadataOut.write(stored.getStatuses());
+            } else {
+                log("Sending READY signal to sender");
+                metadataOut.write("READY\n".getBytes(StandardCharsets.US_ASCII));
+            }
             metadataOut.flush();
+            handshakeEvent.end();
+            if (handshakeEvent.shouldCommit()) {
+                handshakeEvent.role = "receiver";
+                handshakeEvent.peer = peer;
+                handshakeEvent.fileName = fileName;
+                handshakeEvent.fileSize = fileSize;
+                handshakeEvent.chunks = totalChunks;
+                handshakeEvent.commit();
+            }
+            listener.onFileStarted(fileName, fileSize, totalChunks, fileIndex, -1);
             
+            WriteEngine engine = writeEngine.resolve(fileSize);
+            if (sink != null) {
+                // Sinks take every chunk through the heap, in whatever order it arrives
+                engine = WriteEngine.POSITIONAL;
+            } else if (writeOrderFor(Path.of(saveDirectory)) == WriteOrder.SEQUENTIAL) {
+                // The direct engines write straight into the file, so raw chunks go through the heap as well
+                engine = WriteEngine.POSITIONAL;
+                FileChannel channel = fileChannel;
+                sequential = new SequentialWriter((data, position, chunk, sparse) -> {
+                    if (sparse) {
+                        writeSkippingZeroPages(channel, data, position, chunk, peer);
+                    } else {
+                        writeFully(channel, data, position, chunk, peer);
+                    }
+                }, fileSize, fileName);
+                log("Committing chunks in offset order through a " + formatFileSize(SequentialWriter.REORDER_BUFFER_SIZE)
+                    + " reorder buffer");
+            } else {
+                log("Writing raw chunks with the " + engine + " engine");
+            }
+
             // Track completed chunks
             AtomicInteger completedChunks = new AtomicInteger(0);
             
             List<CompletableFuture<Integer>> chunkFutures = new ArrayList<>();
             for (int i = 0; i < totalChunks; i++) {
-                CompletableFuture<Integer> future = receiveChunk(chunkServers[i], fileChannel, i)
+                CompletableFuture<Integer> future = receiveChunk(chunkServers[i], fileChannel, sink, basisChannel,
+                        tree, stored, engine, sequential, i, peer, listener)
                     .thenApply(index -> {
-                        int completed = completedChunks.incrementAndGet();
-                        int progress = (int)((completed * 100.0) / totalChunks);
-                        progressCallback.accept(progress);
-                        statusCallback.accept(String.format("Received chunk %d/%d", completed, totalChunks));
+                        listener.onChunkCompleted(index, completedChunks.incrementAndGet(), totalChunks);
                         return index;
                     });
                 chunkFutures.add(future);
@@ -278,89 +647,713 @@ public class Receiver {
             } catch (Exception e) {
                 throw new IOException("Failed to receive all chunks: " + e.getMessage(), e);
             }
+            if (sequential != null) {
+                sequential.finish();
+            }
+            
+            if (sink != null) {
+                sink.finish();
+            } else if (syncOnComplete) {
+                FsyncEvent fsyncEvent = new FsyncEvent();
+                fsyncEvent.begin();
+                fileChannel.force(true);
+                fsyncEvent.end();
+                if (fsyncEvent.shouldCommit()) {
+                    fsyncEvent.fileName = fileName;
+                    fsyncEvent.fileSize = fileSize;
+                    fsyncEvent.commit();
+                }
+            }
             
+            if (deltaFile != null) {
+                fileChannel.close();
+                Files.move(deltaFile.toPath(), basisFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+                deltaFile = null;
+                receivedFile = basisFile;
+            }
+            if (recipe != null && sink == null) {
+                chunkIndex.addAll(receivedFile.toPath(), fileSize, recipe);
+            }
+            if (tree != null) {
+                log("Verified " + tree.getLeafCount() + " blocks against hash tree root " + tree.getRootHex());
+            }
             log("File received successfully: " + fileName);
+            sessionBytesReceived += fileSize;
+            sessionFilesReceived++;
+            fileEvent.success = true;
+            listener.onFileCompleted(fileName, fileSize);
             return false;
         } catch (Exception e) {
-            String errorMsg = "Error receiving file: " + e.getMessage();
-            log(errorMsg);
-            if (e.getMessage().contains("Transfer cancelled")) {
-                statusCallback.accept("Transfer cancelled");
-            } else {
-                statusCallback.accept("Error: " + errorMsg);
+            log("Error receiving file: " + e.getMessage());
+            if (fileName != null) {
+                listener.onFileFailed(fileName, e);
             }
             throw new RuntimeException(e);
         } finally {
+            if (sequential != null) {
+                sequential.close();
+            }
+            closeResources(fileChannel);
+            if (sink != null) {
+                try {
+                    sink.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (basisChannel != null) {
+                try {
+                    basisChannel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (stored != null) {
+                stored.close();
+            }
+            if (deltaFile != null && !deltaFile.delete()) {
+                log("Could not remove incomplete " + deltaFile.getName());
+            }
+            if (fileEvent != null) {
+                fileEvent.commit();
+            }
+        }
+    }
+
+    /**
+     * Receives a stream of unknown length, see {@link Sender#sendStream}. Each
+     * connection is read on its own thread and its segments are committed in
+     * sequence order by a {@link SequentialWriter}, whose reorder buffer bounds
+     * what is held in memory and holds back connections that run ahead. Once
+     * every connection has ended, the length and hash the sender reports are
+     * checked against what was committed before the sender is told OK.
+     */
+    private void receiveStream(Socket metadataSocket, DataInputStream metadataIn, DataOutputStream metadataOut,
+                               String saveDirectory, TransferListener listener, int fileIndex) throws IOException {
+        int streams = metadataIn.readInt();
+        int nameLength = metadataIn.readInt();
+        if (streams <= 0 || nameLength <= 0 || nameLength > MAX_NAME_BYTES) {
+            throw new IOException("Invalid stream metadata: streams=" + streams + ", name length=" + nameLength);
+        }
+        // READY tells the sender how many connections to open
+        streams = Math.min(streams, MAX_STREAMS);
+        byte[] nameBytes = new byte[nameLength];
+        metadataIn.readFully(nameBytes);
+        String fileName = new String(nameBytes, StandardCharsets.UTF_8);
+        byte flags = metadataIn.readByte();
+        if (!isValidFileName(fileName)) {
+            throw new IOException("Invalid stream name: " + fileName);
+        }
+        String peer = metadataSocket.getInetAddress().getHostAddress();
+        FileTransferEvent fileEvent = new FileTransferEvent();
+        fileEvent.begin();
+        fileEvent.role = "receiver";
+        fileEvent.peer = peer;
+        fileEvent.fileName = fileName;
+        fileEvent.chunks = streams;
+        FileChannel fileChannel = null;
+        ChunkSink sink = null;
+        SequentialWriter sequential = null;
+        ExecutorService streamExecutor = Executors.newFixedThreadPool(streams, runnable -> {
+            Thread thread = new Thread(runnable, "stream-receiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            log("Receiving stream: " + fileName + " over " + streams + " connections");
+            ChunkSink.Factory factory = sinkFactory;
+            if (factory != null) {
+                sink = factory.open(fileName, -1);
+                log("Writing into the configured sink instead of the save directory");
+            } else {
+                File receivedFile = getUniqueFile(new File(saveDirectory, fileName));
+                log("Saving to: " + receivedFile.getAbsolutePath());
+                fileChannel = FileChannel.open(receivedFile.toPath(),
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.READ);
+                fileChannel.truncate(0);
+            }
+            chunkServers = new ServerSocket[streams];
+            for (int i = 0; i < streams; i++) {
+                ServerSocket ss = new ServerSocket(BASE_CHUNK_PORT + i);
+                ss.setSoTimeout(SOCKET_TIMEOUT_MS);
+                chunkServers[i] = ss;
+            }
+
+            MessageDigest digest = (flags & Sender.FLAG_VERIFY) != 0 ? MessageDigest.getInstance("SHA-256") : null;
+            FileChannel channel = fileChannel;
+            ChunkSink target = sink;
+            // Hashed on the writer thread, which sees the blocks in stream order; the length is open until the end
+            SequentialWriter writer = new SequentialWriter((data, position, chunk, sparse) -> {
+                if (digest != null) {
+                    digest.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+                }
+                if (target != null) {
+                    target.write(data, position);
+                } else if (sparse) {
+                    writeSkippingZeroPages(channel, data, position, chunk, peer);
+                } else {
+                    writeFully(channel, data, position, chunk, peer);
+                }
+            }, Long.MAX_VALUE, fileName);
+            sequential = writer;
+
+            AtomicLong received = new AtomicLong();
+            AtomicLong end = new AtomicLong();
+            List<CompletableFuture<Void>> connections = new ArrayList<>();
+            for (int i = 0; i < streams; i++) {
+                connections.add(receiveStreamSegments(chunkServers[i], writer, received, end, i, listener,
+                        streamExecutor)
+                    // A failed connection leaves a gap, so the others stop instead of waiting behind it
+                    .whenComplete((result, failure) -> {
+                        if (failure != null) {
+                            writer.close();
+                        }
+                    }));
+            }
+            log("Sending READY signal to sender");
+            metadataOut.write(("READY " + streams + "\n").getBytes(StandardCharsets.US_ASCII));
+            metadataOut.flush();
+            listener.onFileStarted(fileName, -1, -1, fileIndex, -1);
+
+            try {
+                CompletableFuture.allOf(connections.toArray(new CompletableFuture<?>[0])).get();
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to receive the stream: " + e.getCause().getMessage(), e.getCause());
+            }
+            long length = metadataIn.readLong();
+            byte[] expected = null;
+            if (digest != null) {
+                expected = new byte[digest.getDigestLength()];
+                metadataIn.readFully(expected);
+            }
+            if (received.get() != length || end.get() != length) {
+                throw new IOException(String.format("Stream of %d bytes arrived as %d bytes reaching offset %d",
+                    length, received.get(), end.get()));
+            }
+            writer.finish(length);
+            if (fileChannel != null && length > 0 && fileChannel.size() < length) {
+                // The stream ended in zeros that were left as a hole
+                fileChannel.write(ByteBuffer.allocate(1), length - 1);
+            }
+            if (expected != null && !MessageDigest.isEqual(expected, digest.digest())) {
+                metadataOut.write("CORRUPT\n".getBytes(StandardCharsets.US_ASCII));
+                metadataOut.flush();
+                throw new IOException("Stream does not match the sender's hash");
+            }
+            if (sink != null) {
+                sink.finish();
+            } else if (syncOnComplete) {
+                fileChannel.force(true);
+            }
+            metadataOut.write("OK\n".getBytes(StandardCharsets.US_ASCII));
+            metadataOut.flush();
+
+            log("Stream received successfully: " + fileName + " (" + formatFileSize(length) + ")");
+            sessionBytesReceived += length;
+            sessionFilesReceived++;
+            fileEvent.fileSize = length;
+            fileEvent.success = true;
+            listener.onFileCompleted(fileName, length);
+        } catch (Exception e) {
+            listener.onFileFailed(fileName, e);
+            throw e instanceof IOException ioException ? ioException : new IOException(e);
+        } finally {
+            if (sequential != null) {
+                sequential.close();
+            }
+            streamExecutor.shutdownNow();
             closeResources(fileChannel);
+            if (sink != null) {
+                try {
+                    sink.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            fileEvent.commit();
         }
     }
 
-    private CompletableFuture<Integer> receiveChunk(ServerSocket ss, FileChannel fileChannel, int expectedChunkIndex) {
+    // Reads one connection's segments until its end marker and queues them for the writer at their offsets
+    private CompletableFuture<Void> receiveStreamSegments(ServerSocket ss, SequentialWriter sequential,
+                                                          AtomicLong received, AtomicLong end, int streamIndex,
+                                                          TransferListener listener, Executor executor) {
+        return CompletableFuture.runAsync(() -> {
+            try (Socket socket = ss.accept()) {
+                socket.setSoTimeout(STREAM_TIMEOUT_MS);
+                socket.setReceiveBufferSize(BUFFER_SIZE);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                byte[] raw = null;
+                while (true) {
+                    long sequence = in.readLong();
+                    int length = in.readInt();
+                    byte encoding = in.readByte();
+                    if (sequence == Sender.END_OF_STREAM) {
+                        return;
+                    }
+                    if (sequence < 0 || length <= 0 || length > Sender.STREAM_SEGMENT_SIZE) {
+                        throw new IOException(String.format("Invalid stream segment: sequence=%d, length=%d",
+                            sequence, length));
+                    }
+                    long position = sequence * Sender.STREAM_SEGMENT_SIZE;
+                    end.accumulateAndGet(position + length, Math::max);
+                    if (encoding == ChunkCodec.ENCODING_FRAMED) {
+                        // Zero frames come through as zeros, which the writer hashes and leaves as holes
+                        ChunkCodec.readFramed(in, position, length, (data, at) -> {
+                            int bytes = data.remaining();
+                            sequential.write(data, at, streamIndex, true);
+                            metrics.recordReceived(streamIndex, bytes);
+                            listener.onChunkProgress(streamIndex, bytes);
+                        });
+                    } else {
+                        if (raw == null) {
+                            raw = new byte[Sender.STREAM_SEGMENT_SIZE];
+                        }
+                        in.readFully(raw, 0, length);
+                        sequential.write(ByteBuffer.wrap(raw, 0, length), position, streamIndex, false);
+                        metrics.recordReceived(streamIndex, length);
+                        listener.onChunkProgress(streamIndex, length);
+                    }
+                    received.addAndGet(length);
+                }
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Answers OK if the session's files fit in the save directory, or NOSPACE
+     * with the bytes needed and usable, and fails the session. Files already
+     * here under the same name and size are not counted, as the manifest
+     * exchange that follows will most likely skip them; if they turn out to
+     * differ, the per-file check before READY still catches a full disk.
+     * Each file counts the bytes the sender will write, which leave out the
+     * holes of a sparse file unless it is preallocated.
+     */
+    private void answerSpaceCheck(DataInputStream in, DataOutputStream out, String saveDirectory)
+            throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_MANIFEST_ENTRIES) {
+            throw new IOException("Invalid space check size: " + count);
+        }
+        long needed = 0;
+        for (int i = 0; i < count; i++) {
+            int nameLength = in.readInt();
+            if (nameLength <= 0 || nameLength > MAX_NAME_BYTES) {
+                throw new IOException("Invalid name length in space check: " + nameLength);
+            }
+            byte[] nameBytes = new byte[nameLength];
+            in.readFully(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            long size = in.readLong();
+            long dataBytes = in.readLong();
+            File existing = new File(saveDirectory, name);
+            if (!isValidRelativePath(name) || !existing.isFile() || existing.length() != size) {
+                needed += preallocation ? size : dataBytes;
+            }
+        }
+        long usable = new File(saveDirectory).getUsableSpace();
+        // Sinks keep the bytes elsewhere, if at all
+        if (needed > usable && sinkFactory == null) {
+            out.write(("NOSPACE " + needed + " " + usable + "\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            throw new IOException(String.format("Not enough space for this session: needs %s, %s usable",
+                formatFileSize(needed), formatFileSize(usable)));
+        }
+        out.write("OK\n".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        log(String.format("Space check: %d files need %s, %s usable", count, formatFileSize(needed),
+            formatFileSize(usable)));
+    }
+
+    // Refuses a file that will not fit; the hashes after its header are read first, so the sender gets the answer
+    private void rejectForSpace(Socket metadataSocket, DataInputStream in, DataOutputStream out, byte flags,
+                                String fileName, long fileSize, long needed, long usable) throws IOException {
+        metadataSocket.setSoTimeout(HASHING_TIMEOUT_MS);
+        if ((flags & Sender.FLAG_VERIFY) != 0) {
+            MerkleTree.read(in, fileSize);
+        }
+        if ((flags & Sender.FLAG_DEDUP) != 0) {
+            ChunkRecipe.read(in, fileSize);
+        }
+        out.write(("NOSPACE " + needed + " " + usable + "\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        throw new IOException(String.format("Not enough space for %s: needs %s, %s usable", fileName,
+            formatFileSize(needed), formatFileSize(usable)));
+    }
+
+    // Writes zeros over the whole file so the file system allocates it before the chunks arrive out of order
+    private void preallocate(FileChannel fileChannel, long fileSize) throws IOException {
+        long startNanos = System.nanoTime();
+        ByteBuffer zeros = ByteBuffer.allocateDirect((int) Math.min(BUFFER_SIZE, fileSize));
+        for (long position = 0; position < fileSize; ) {
+            if (!isReceiving) {
+                throw new IOException("Transfer cancelled by user");
+            }
+            zeros.clear().limit((int) Math.min(zeros.capacity(), fileSize - position));
+            while (zeros.hasRemaining()) {
+                position += fileChannel.write(zeros, position);
+            }
+        }
+        log(String.format("Preallocated %s in %d ms", formatFileSize(fileSize),
+            (System.nanoTime() - startNanos) / 1_000_000));
+    }
+
+    /**
+     * Reads the sender's manifest and answers, per file, whether it is needed.
+     * A file is present if one of the same name, size and content hash is
+     * already in the save directory; if the name is free but another file has
+     * the same content, that file is hard-linked under the new name. Existing
+     * files are hashed in parallel, and only those whose size matches an entry.
+     */
+    private void answerManifest(DataInputStream in, DataOutputStream out, String saveDirectory,
+                                TransferListener listener) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_MANIFEST_ENTRIES) {
+            throw new IOException("Invalid manifest size: " + count);
+        }
+        String[] names = new String[count];
+        long[] sizes = new long[count];
+        byte[][] hashes = new byte[count][ContentHashCache.HASH_SIZE];
+        for (int i = 0; i < count; i++) {
+            int nameLength = in.readInt();
+            if (nameLength <= 0 || nameLength > MAX_NAME_BYTES) {
+                throw new IOException("Invalid name length in manifest: " + nameLength);
+            }
+            byte[] nameBytes = new byte[nameLength];
+            in.readFully(nameBytes);
+            names[i] = new String(nameBytes, StandardCharsets.UTF_8);
+            sizes[i] = in.readLong();
+            in.readFully(hashes[i]);
+        }
+        if (sinkFactory != null) {
+            // Files go to the sink, so what is in the save directory does not count
+            out.write(new byte[count]);
+            out.flush();
+            log("Manifest: receiving all " + count + " files into the configured sink");
+            return;
+        }
+
+        // Hash every local file that could match an entry
+        Map<Long, List<Path>> existingBySize = filesBySize(Path.of(saveDirectory));
+        Set<Path> candidates = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            if (!isValidRelativePath(names[i])) {
+                continue;
+            }
+            Path target = Path.of(saveDirectory, names[i]);
+            if (Files.isRegularFile(target)) {
+                if (Files.size(target) == sizes[i]) {
+                    candidates.add(target);
+                }
+            } else {
+                candidates.addAll(existingBySize.getOrDefault(sizes[i], List.of()));
+            }
+        }
+        List<Path> toHash = new ArrayList<>(candidates);
+        byte[][] localHashes = contentHashes.hashAll(toHash);
+        Map<Path, byte[]> hashByPath = new HashMap<>();
+        for (int i = 0; i < toHash.size(); i++) {
+            hashByPath.put(toHash.get(i), localHashes[i]);
+        }
+        contentHashes.save();
+
+        byte[] statuses = new byte[count];
+        int skipped = 0;
+        for (int i = 0; i < count; i++) {
+            if (!isValidRelativePath(names[i])) {
+                continue;
+            }
+            Path target = Path.of(saveDirectory, names[i]);
+            if (Files.isRegularFile(target)) {
+                if (Arrays.equals(hashByPath.get(target), hashes[i])) {
+                    statuses[i] = Sender.MANIFEST_PRESENT;
+                }
+            } else {
+                for (Path existing : existingBySize.getOrDefault(sizes[i], List.of())) {
+                    if (Arrays.equals(hashByPath.get(existing), hashes[i])) {
+                        try {
+                            Files.createDirectories(target.getParent());
+                            Files.createLink(target, existing);
+                            statuses[i] = Sender.MANIFEST_LINKED;
+                        } catch (IOException | UnsupportedOperationException e) {
+                            log("Could not link " + names[i] + " to " + existing.getFileName() + ": " + e.getMessage());
+                        }
+                        break;
+                    }
+                }
+            }
+            if (statuses[i] != Sender.MANIFEST_NEEDED) {
+                skipped++;
+                listener.onFileSkipped(names[i], sizes[i]);
+            }
+        }
+        out.write(statuses);
+        out.flush();
+        log(String.format("Manifest: %d of %d files already here, %d to receive", skipped, count, count - skipped));
+    }
+
+    // Regular files directly in the save directory, minus partial delta rebuilds
+    private static Map<Long, List<Path>> filesBySize(Path directory) throws IOException {
+        Map<Long, List<Path>> bySize = new HashMap<>();
+        if (!Files.isDirectory(directory)) {
+            return bySize;
+        }
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isRegularFile(path) && !path.getFileName().toString().startsWith(".")) {
+                    bySize.computeIfAbsent(Files.size(path), size -> new ArrayList<>()).add(path);
+                }
+            }
+        }
+        return bySize;
+    }
+
+    private CompletableFuture<Integer> receiveChunk(ServerSocket ss, FileChannel fileChannel, ChunkSink sink,
+                                                    FileChannel basisChannel, MerkleTree tree, ChunkIndex.Lookup stored,
+                                                    WriteEngine engine, SequentialWriter sequential,
+                                                    int expectedChunkIndex, String peer, TransferListener listener) {
         return CompletableFuture.supplyAsync(() -> {
             int retryCount = 0;
             int maxRetries = 3;
             
             while (retryCount < maxRetries) {
+                ChunkEvent chunkEvent = new ChunkEvent();
+                chunkEvent.begin();
+                chunkEvent.role = "receiver";
+                chunkEvent.peer = peer;
+                chunkEvent.chunkIndex = expectedChunkIndex;
+                chunkEvent.attempt = retryCount + 1;
+                long acceptStartNanos = System.nanoTime();
                 try (Socket chunkSocket = ss.accept()) {
+                    long chunkStartNanos = System.nanoTime();
+                    chunkEvent.connectNanos = chunkStartNanos - acceptStartNanos;
                     // Configure socket
                     chunkSocket.setSoTimeout(SOCKET_TIMEOUT_MS);
                     chunkSocket.setReceiveBufferSize(BUFFER_SIZE);
                     
-                    DataInputStream chunkIn = new DataInputStream(
-                        new BufferedInputStream(chunkSocket.getInputStream()));
-                    
-                    // Read and validate chunk metadata
-                    int chunkIndex = chunkIn.readInt();
-                    long startPosition = chunkIn.readLong();
-                    int chunkSize = chunkIn.readInt();
-                    int totalChunks = chunkIn.readInt();
+                    // Read and validate chunk metadata; not through a buffered stream, which would read ahead
+                    // into a body that the direct write engines take from the channel
+                    InputStream socketIn = chunkSocket.getInputStream();
+                    byte[] header = new byte[Sender.CHUNK_HEADER_SIZE];
+                    new DataInputStream(socketIn).readFully(header);
+                    ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+                    int chunkIndex = headerBuffer.getInt();
+                    long startPosition = headerBuffer.getLong();
+                    int chunkSize = headerBuffer.getInt();
+                    int totalChunks = headerBuffer.getInt();
+                    byte encoding = headerBuffer.get();
+                    DataInputStream chunkIn = new DataInputStream(new BufferedInputStream(socketIn));
                     
                     if (chunkIndex != expectedChunkIndex || chunkSize <= 0 || startPosition < 0) {
                         throw new IOException(String.format(
                             "Invalid chunk metadata: index=%d (expected %d), size=%d, position=%d",
                             chunkIndex, expectedChunkIndex, chunkSize, startPosition));
                     }
+                    if (sequential != null && retryCount > 0) {
+                        // Whatever the failed attempt left queued is resent from the start
+                        sequential.discard(startPosition, startPosition + chunkSize);
+                    }
+                    chunkEvent.offset = startPosition;
+                    chunkEvent.size = chunkSize;
+                    listener.onChunkStarted(chunkIndex, startPosition, chunkSize);
+                    // Hashed on this chunk's own thread as it is written, so verification overlaps the transfer
+                    MerkleTree.ChunkVerifier verifier = tree != null ? tree.verifier(startPosition, chunkSize) : null;
+                    boolean acknowledged = tree != null || stored != null;
+
+                    if (encoding == ChunkCodec.ENCODING_FRAMED) {
+                        // Set when a held chunk turned out changed; the rest of the body is read and dropped
+                        AtomicBoolean storedMismatch = new AtomicBoolean();
+                        // A failed attempt may have written this range, so a resend cannot count on holes reading
+                        // as zeros and writes every byte
+                        boolean rewrite = retryCount > 0;
+                        metrics.bufferAcquired(ChunkCodec.BLOCK_SIZE * 2);
+                        try {
+                            ChunkCodec.readFramed(chunkIn, startPosition, chunkSize, new ChunkCodec.BlockSink() {
+                                private ByteBuffer copyBuffer;
+
+                                @Override
+                                public void write(ByteBuffer data, long position) throws IOException {
+                                    if (storedMismatch.get()) {
+                                        return;
+                                    }
+                                    int length = data.remaining();
+                                    if (verifier != null) {
+                                        verifier.update(data, position);
+                                    }
+                                    long diskStartNanos = System.nanoTime();
+                                    if (sink != null) {
+                                        sink.write(data, position);
+                                    } else if (sequential != null) {
+                                        sequential.write(data, position, chunkIndex, !rewrite);
+                                    } else if (rewrite) {
+                                        writeFully(fileChannel, data, position, chunkIndex, peer);
+                                    } else {
+                                        writeSkippingZeroPages(fileChannel, data, position, chunkIndex, peer);
+                                    }
+                                    chunkEvent.diskWriteNanos += System.nanoTime() - diskStartNanos;
+                                    metrics.recordReceived(chunkIndex, length);
+                                    listener.onChunkProgress(chunkIndex, length);
+                                }
+
+                                @Override
+                                public void zero(long position, int length) throws IOException {
+                                    if (storedMismatch.get()) {
+                                        return;
+                                    }
+                                    if (rewrite) {
+                                        ChunkCodec.BlockSink.super.zero(position, length);
+                                        return;
+                                    }
+                                    if (verifier != null) {
+                                        verifier.updateZeros(position, length);
+                                    }
+                                    // The file was truncated to its full size, so the range already reads as zeros
+                                    if (sink != null) {
+                                        sink.zero(position, length);
+                                    } else if (sequential != null) {
+                                        sequential.skip(position, length, chunkIndex);
+                                    }
+                                    metrics.recordReceived(chunkIndex, length);
+                                    listener.onChunkProgress(chunkIndex, length);
+                                }
+
+                                @Override
+                                public void copy(long basisOffset, long position, int length) throws IOException {
+                                    if (basisChannel == null) {
+                                        throw new IOException("Copy frame but no existing copy of the file");
+                                    }
+                                    if (copyBuffer == null) {
+                                        copyBuffer = ByteBuffer.allocate(ChunkCodec.BLOCK_SIZE);
+                                    }
+                                    copyBuffer.clear().limit(length);
+                                    ChunkCodec.readFully(basisChannel, copyBuffer, basisOffset);
+                                    write(copyBuffer.flip(), position);
+                                }
+
+                                @Override
+                                public void stored(int entry, long position, int length) throws IOException {
+                                    if (stored == null) {
+                                        throw new IOException("Stored chunk frame but no chunk recipe");
+                                    }
+                                    if (copyBuffer == null) {
+                                        copyBuffer = ByteBuffer.allocate(ChunkCodec.BLOCK_SIZE);
+                                    }
+                                    if (!storedMismatch.get() && !stored.read(entry, copyBuffer)) {
+                                        storedMismatch.set(true);
+                                    }
+                                    write(copyBuffer, position);
+                                }
+                            });
+                        } finally {
+                            metrics.bufferReleased(ChunkCodec.BLOCK_SIZE * 2);
+                        }
+                        acknowledge(chunkSocket, acknowledged, verifier,
+                            storedMismatch.get() ? "A held chunk no longer matches its hash" : null, chunkIndex);
+                        metrics.recordChunkCompleted(System.nanoTime() - chunkStartNanos);
+                        chunkEvent.success = true;
+                        chunkEvent.commit();
+                        return chunkIndex;
+                    } else if (encoding != ChunkCodec.ENCODING_RAW) {
+                        throw new IOException("Unsupported chunk encoding " + encoding);
+                    }
+
+                    if (engine != WriteEngine.POSITIONAL) {
+                        receiveDirect(chunkSocket.getChannel(), fileChannel, engine, startPosition, chunkSize,
+                            chunkIndex, verifier, chunkEvent, listener);
+                        acknowledge(chunkSocket, acknowledged, verifier, null, chunkIndex);
+                        metrics.recordChunkCompleted(System.nanoTime() - chunkStartNanos);
+                        chunkEvent.success = true;
+                        chunkEvent.commit();
+                        return chunkIndex;
+                    }
                     
                     // Use heap ByteBuffer with timeout monitoring
                     ByteBuffer buffer = ByteBuffer.allocate(Math.min(BUFFER_SIZE, chunkSize));
+                    metrics.bufferAcquired(buffer.capacity());
                     int totalBytesRead = 0;
                     long transferStartTime = System.currentTimeMillis();
                     int stallCount = 0;
                     
-                    while (totalBytesRead < chunkSize && isReceiving) {
-                        // Check for transfer stall/timeout
-                        if (System.currentTimeMillis() - transferStartTime > SOCKET_TIMEOUT_MS) {
-                            throw new IOException("Chunk transfer timeout");
-                        }
+                    try {
+                        while (totalBytesRead < chunkSize && isReceiving) {
+                            // Check for transfer stall/timeout
+                            if (System.currentTimeMillis() - transferStartTime > SOCKET_TIMEOUT_MS) {
+                                throw new IOException("Chunk transfer timeout");
+                            }
                         
-                        buffer.clear();
-                        int bytesToRead = Math.min(buffer.capacity(), chunkSize - totalBytesRead);
-                        int bytesRead = chunkIn.read(buffer.array(), 0, bytesToRead);
+                            buffer.clear();
+                            int bytesToRead = Math.min(buffer.capacity(), chunkSize - totalBytesRead);
+                            long readStartNanos = System.nanoTime();
+                            int bytesRead = chunkIn.read(buffer.array(), 0, bytesToRead);
+                            chunkEvent.networkNanos += System.nanoTime() - readStartNanos;
                         
-                        if (bytesRead == -1) {
-                            throw new IOException("Unexpected end of stream");
-                        }
+                            if (bytesRead == -1) {
+                                throw new IOException("Unexpected end of stream");
+                            }
                         
-                        buffer.limit(bytesRead);
-                        buffer.position(0);
+                            buffer.limit(bytesRead);
+                            buffer.position(0);
+                            if (verifier != null) {
+                                verifier.update(buffer, startPosition + totalBytesRead);
+                            }
                         
-                        // Write to file with position tracking
-                        synchronized (fileChannel) {
-                            while (buffer.hasRemaining()) {
-                                int written = fileChannel.write(buffer, startPosition + totalBytesRead);
-                                if (written == 0) {
-                                    stallCount++;
-                                    if (stallCount > 100) {
-                                        throw new IOException("Write operation stalled");
-                                    }
-                                    Thread.sleep(10);
+                            // Write to file with position tracking
+                            long diskStartNanos = System.nanoTime();
+                            if (sink != null || sequential != null) {
+                                int length = buffer.remaining();
+                                if (sink != null) {
+                                    sink.write(buffer, startPosition + totalBytesRead);
                                 } else {
-                                    stallCount = 0;
-                                    totalBytesRead += written;
-                                    transferStartTime = System.currentTimeMillis(); // Reset timeout
+                                    sequential.write(buffer, startPosition + totalBytesRead, chunkIndex, false);
+                                }
+                                totalBytesRead += length;
+                                metrics.recordReceived(chunkIndex, length);
+                                listener.onChunkProgress(chunkIndex, length);
+                                // Time spent waiting for the reorder buffer or the sink is not a stalled transfer
+                                transferStartTime = System.currentTimeMillis();
+                                chunkEvent.diskWriteNanos += System.nanoTime() - diskStartNanos;
+                                continue;
+                            }
+                            synchronized (fileChannel) {
+                                while (buffer.hasRemaining()) {
+                                    long writeStartNanos = System.nanoTime();
+                                    int written = fileChannel.write(buffer, startPosition + totalBytesRead);
+                                    metrics.recordDiskWrite(System.nanoTime() - writeStartNanos);
+                                    if (written == 0) {
+                                        metrics.recordStall();
+                                        stallCount++;
+                                        if (stallCount > 100) {
+                                            throw new IOException("Write operation stalled");
+                                        }
+                                        StallEvent stallEvent = new StallEvent();
+                                        stallEvent.begin();
+                                        Thread.sleep(10);
+                                        stallEvent.end();
+                                        if (stallEvent.shouldCommit()) {
+                                            stallEvent.role = "receiver";
+                                            stallEvent.peer = peer;
+                                            stallEvent.chunkIndex = chunkIndex;
+                                            stallEvent.consecutive = stallCount;
+                                            stallEvent.commit();
+                                        }
+                                    } else {
+                                        stallCount = 0;
+                                        totalBytesRead += written;
+                                        metrics.recordReceived(chunkIndex, written);
+                                        listener.onChunkProgress(chunkIndex, written);
+                                        transferStartTime = System.currentTimeMillis(); // Reset timeout
+                                    }
                                 }
                             }
+                            chunkEvent.diskWriteNanos += System.nanoTime() - diskStartNanos;
                         }
+                    } finally {
+                        metrics.bufferReleased(buffer.capacity());
                     }
                     
                     if (totalBytesRead != chunkSize) {
@@ -368,17 +1361,38 @@ public class Receiver {
                             "Incomplete chunk transfer: received %d of %d bytes",
                             totalBytesRead, chunkSize));
                     }
+                    acknowledge(chunkSocket, acknowledged, verifier, null, chunkIndex);
                     
+                    metrics.recordChunkCompleted(System.nanoTime() - chunkStartNanos);
+                    chunkEvent.success = true;
+                    chunkEvent.commit();
                     return chunkIndex;
                 } catch (Exception e) {
+                    chunkEvent.commit();
                     retryCount++;
                     if (retryCount >= maxRetries) {
-                        throw new CompletionException("Failed to receive chunk after " + maxRetries + 
-                            " attempts: " + e.getMessage(), e);
+                        metrics.recordChunkFailed();
+                        CompletionException failure = new CompletionException("Failed to receive chunk after "
+                            + maxRetries + " attempts: " + e.getMessage(), e);
+                        listener.onChunkFailed(expectedChunkIndex, failure);
+                        throw failure;
                     }
+                    listener.onChunkRetry(expectedChunkIndex, retryCount + 1, e);
                     // Wait before retry
+                    metrics.recordRetry();
                     try {
+                        ChunkRetryEvent retryEvent = new ChunkRetryEvent();
+                        retryEvent.begin();
                         Thread.sleep(1000L * retryCount);
+                        retryEvent.end();
+                        if (retryEvent.shouldCommit()) {
+                            retryEvent.role = "receiver";
+                            retryEvent.peer = peer;
+                            retryEvent.chunkIndex = expectedChunkIndex;
+                            retryEvent.attempt = retryCount + 1;
+                            retryEvent.cause = e.getMessage();
+                            retryEvent.commit();
+                        }
                     } catch (InterruptedException ie) {
                         Thread.currentThread().interrupt();
                         throw new CompletionException("Interrupted during retry wait", ie);
@@ -389,7 +1403,20 @@ public class Receiver {
         });
     }
 
-    private boolean isValidFileName(String fileName) {
+    // A name from the sender, which may place the file in subdirectories of the save directory
+    static boolean isValidRelativePath(String path) {
+        if (path == null || path.isEmpty()) {
+            return false;
+        }
+        for (String segment : path.split("/", -1)) {
+            if (!isValidFileName(segment)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isValidFileName(String fileName) {
         return fileName != null &&
                 !fileName.isEmpty() &&
                 !fileName.contains("..") &&
@@ -402,7 +1429,7 @@ public class Receiver {
         if (!file.exists()) return file;
         String name = file.getName();
         String baseName = name.replaceFirst("[.][^.]+$", "");
-        String extension = name.substring(name.lastIndexOf('.'));
+        String extension = name.substring(baseName.length());
         File parent = file.getParentFile();
         int count = 1;
         File newFile;
@@ -412,10 +1439,166 @@ public class Receiver {
         return newFile;
     }
 
-    private void log(String message) {
-        if (statusCallback != null) {
-            statusCallback.accept(message);
+    /**
+     * Receives a raw chunk body with the {@link WriteEngine#TRANSFER_FROM} or
+     * {@link WriteEngine#MAPPED} engine. Channel reads ignore SO_TIMEOUT, so
+     * the socket is switched to non-blocking and waited on with a selector.
+     */
+    private void receiveDirect(SocketChannel channel, FileChannel fileChannel, WriteEngine engine, long startPosition,
+                               int chunkSize, int chunkIndex, MerkleTree.ChunkVerifier verifier,
+                               ChunkEvent chunkEvent, TransferListener listener) throws IOException {
+        MappedByteBuffer mapped = engine == WriteEngine.MAPPED
+            ? fileChannel.map(FileChannel.MapMode.READ_WRITE, startPosition, chunkSize) : null;
+        // transferFrom never passes the data through the heap, so verification reads it back from the page cache
+        ByteBuffer readBack = verifier != null && mapped == null
+            ? ByteBuffer.allocate(Math.min(BUFFER_SIZE, chunkSize)) : null;
+        channel.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            channel.register(selector, SelectionKey.OP_READ);
+            boolean readable = false;
+            int received = 0;
+            while (received < chunkSize) {
+                if (!isReceiving) {
+                    throw new IOException("Transfer cancelled by user");
+                }
+                int length = Math.min(BUFFER_SIZE, chunkSize - received);
+                long position = startPosition + received;
+                long readStartNanos = System.nanoTime();
+                int count;
+                if (mapped != null) {
+                    ByteBuffer window = mapped.slice(received, length);
+                    count = channel.read(window);
+                    if (count > 0 && verifier != null) {
+                        verifier.update(window.flip(), position);
+                    }
+                } else {
+                    count = (int) fileChannel.transferFrom(channel, position, length);
+                    if (count > 0 && verifier != null) {
+                        readBack.clear().limit(count);
+                        ChunkCodec.readFully(fileChannel, readBack, position);
+                        verifier.update(readBack.flip(), position);
+                    }
+                }
+                chunkEvent.networkNanos += System.nanoTime() - readStartNanos;
+                // transferFrom reports the end of the stream as 0, so a readable socket that yields nothing has closed
+                if (count < 0 || (count == 0 && readable)) {
+                    throw new IOException("Unexpected end of stream");
+                }
+                if (count == 0) {
+                    if (selector.select(SOCKET_TIMEOUT_MS) == 0) {
+                        throw new IOException("Chunk transfer timeout");
+                    }
+                    selector.selectedKeys().clear();
+                    readable = true;
+                    continue;
+                }
+                readable = false;
+                received += count;
+                metrics.recordReceived(chunkIndex, count);
+                listener.onChunkProgress(chunkIndex, count);
+            }
+        } finally {
+            // The selector is closed by now, so the channel can go back to blocking for the acknowledgement
+            channel.configureBlocking(true);
+        }
+        if (mapped != null && syncOnComplete) {
+            long diskStartNanos = System.nanoTime();
+            mapped.force();
+            chunkEvent.diskWriteNanos += System.nanoTime() - diskStartNanos;
+        }
+    }
+
+    /**
+     * Tells a verifying or deduplicating sender whether the chunk was written
+     * intact, and throws if not so the chunk server waits for the resend.
+     */
+    private void acknowledge(Socket chunkSocket, boolean acknowledged, MerkleTree.ChunkVerifier verifier,
+                             String failure, int chunkIndex) throws IOException {
+        if (!acknowledged) {
+            return;
+        }
+        try {
+            if (failure != null) {
+                throw new IOException(failure);
+            }
+            if (verifier != null) {
+                verifier.verify();
+            }
+        } catch (IOException e) {
+            log("Chunk " + chunkIndex + " failed verification: " + e.getMessage());
+            chunkSocket.getOutputStream().write(Sender.CHUNK_CORRUPT);
+            throw e;
+        }
+        chunkSocket.getOutputStream().write(Sender.CHUNK_VERIFIED);
+    }
+
+    // Writes a decoded heap block, leaving page-aligned runs of zeros unwritten; the file starts out as one hole
+    private void writeSkippingZeroPages(FileChannel fileChannel, ByteBuffer data, long position, int chunkIndex,
+                                        String peer) throws IOException {
+        byte[] array = data.array();
+        int base = data.arrayOffset() + data.position();
+        int length = data.remaining();
+        int runStart = -1;
+        int offset = 0;
+        while (offset < length) {
+            int page = (int) Math.min(length - offset, HOLE_PAGE_SIZE - (position + offset) % HOLE_PAGE_SIZE);
+            boolean zero = ChunkCodec.isZero(array, base + offset, page);
+            if (!zero && runStart < 0) {
+                runStart = offset;
+            } else if (zero && runStart >= 0) {
+                writeFully(fileChannel, ByteBuffer.wrap(array, base + runStart, offset - runStart),
+                        position + runStart, chunkIndex, peer);
+                runStart = -1;
+            }
+            offset += page;
+        }
+        if (runStart >= 0) {
+            writeFully(fileChannel, ByteBuffer.wrap(array, base + runStart, length - runStart),
+                    position + runStart, chunkIndex, peer);
+        }
+    }
+
+    // Positional write of a whole buffer, counting stalls the same way as the raw chunk path
+    private void writeFully(FileChannel fileChannel, ByteBuffer data, long position, int chunkIndex, String peer)
+            throws IOException {
+        int stallCount = 0;
+        while (data.hasRemaining()) {
+            if (!isReceiving) {
+                throw new IOException("Transfer cancelled by user");
+            }
+            long writeStartNanos = System.nanoTime();
+            int written = fileChannel.write(data, position);
+            metrics.recordDiskWrite(System.nanoTime() - writeStartNanos);
+            if (written > 0) {
+                position += written;
+                stallCount = 0;
+                continue;
+            }
+            metrics.recordStall();
+            if (++stallCount > 100) {
+                throw new IOException("Write operation stalled");
+            }
+            StallEvent stallEvent = new StallEvent();
+            stallEvent.begin();
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing chunk " + chunkIndex, e);
+            }
+            stallEvent.end();
+            if (stallEvent.shouldCommit()) {
+                stallEvent.role = "receiver";
+                stallEvent.peer = peer;
+                stallEvent.chunkIndex = chunkIndex;
+                stallEvent.consecutive = stallCount;
+                stallEvent.commit();
+            }
         }
+    }
+
+    private void log(String message) {
+        listener.onMessage(message);
         System.out.println(message);
     }
 
@@ -430,6 +1613,7 @@ public class Receiver {
         // Set both flags first to prevent new connections
         isReceiving = false;
         isAcceptingConnections = false;
+        wakeBroadcaster();
         log("Stopping receiver...");
         
         // Create a list of resources to close
@@ -451,6 +1635,11 @@ public class Receiver {
         if (currentServerSocket != null && !currentServerSocket.isClosed()) {
             resourcesToClose.add(currentServerSocket);
         }
+
+        ServerSocket fileServer = fileServerSocket;
+        if (fileServer != null && !fileServer.isClosed()) {
+            resourcesToClose.add(fileServer);
+        }
         
         // Close all resources
         for (AutoCloseable resource : resourcesToClose) {
@@ -1,69 +1,247 @@
 package org.app.backend;
 
 import org.app.User;
+import org.app.backend.jfr.ChunkEvent;
+import org.app.backend.jfr.ChunkRetryEvent;
+import org.app.backend.jfr.FileTransferEvent;
+import org.app.backend.jfr.HandshakeEvent;
+import org.app.backend.jfr.StallEvent;
+import org.app.backend.metrics.TransferMetrics;
 
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.NoSuchFileException;
+import java.security.MessageDigest;
 import java.util.concurrent.*;
-import java.util.function.Consumer;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
 
 public class Sender {
     private volatile boolean isListening = true;
+    private final TransferMetrics metrics = TransferMetrics.get();
+    private volatile Selector discoverySelector;
 
     public void setListening(boolean listening) {
         isListening = listening;
+        Selector selector = discoverySelector;
+        if (!listening && selector != null) {
+            selector.wakeup();
+        }
     }
 
     private static final int LISTENING_PORT = 9000;
+    private static final String BROADCAST_IP = "255.255.255.255";
+    private static final long EXPIRY_CHECK_MS = 500;
+    private static final long QUERY_MIN_MS = 1000;
+    private static final long QUERY_MAX_MS = 30_000;
     private static final int CONNECTION_PORT = 9080;
     private static final int RECEIVER_PORT = 9090;
     // We'll use individual chunk ports starting from RECEIVER_PORT + 1 for parallel transfer.
     // Buffer size remains 8MB (adjust as needed)
     private static final int BUFFER_SIZE = 8 * 1024 * 1024;
     private static final int CHUNK_SIZE = 64 * 1024 * 1024; // 64MB chunks
+    // index, start position, size, total chunks, encoding
+    static final int CHUNK_HEADER_SIZE = 21;
+    // Flags byte after the file name in the per-file metadata
+    static final byte FLAG_DELTA = 1;
+    // The file's hash tree follows the flags, and each chunk is acknowledged
+    static final byte FLAG_VERIFY = 2;
+    // The file's content-defined chunk recipe follows, after the hash tree if any
+    static final byte FLAG_DEDUP = 4;
+    // A file already there under the name is replaced once the new one is complete, instead of kept beside it
+    static final byte FLAG_REPLACE = 8;
+    // The file has zero blocks that are sent as holes; the bytes outside them follow the flags as a long
+    static final byte FLAG_SPARSE = 16;
+    // Receiver's answer after each chunk when verifying or deduplicating
+    static final int CHUNK_VERIFIED = 0;
+    static final int CHUNK_CORRUPT = 1;
+    // In place of a file size: -1 ends the session, -2 starts a manifest
+    static final long END_OF_SESSION = -1;
+    static final long MANIFEST = -2;
+    // In place of a file size: the sizes of the session's files follow, for the receiver to check its free space
+    static final long SPACE_CHECK = -3;
+    // In place of a file size: a stream of unknown length follows, see sendStream
+    static final long STREAM = -4;
+    // In place of a file size: nothing follows; keeps an idle session from timing out, see FolderSync
+    static final long KEEPALIVE = -5;
+    // Streams are cut into segments of this size, all full but the last, so a segment's offset is its
+    // sequence number times the size
+    static final int STREAM_SEGMENT_SIZE = 4 * ChunkCodec.BLOCK_SIZE;
+    // sequence number, length, encoding; a sequence number of END_OF_STREAM ends the connection
+    static final int STREAM_SEGMENT_HEADER_SIZE = 13;
+    static final long END_OF_STREAM = -1;
+    // Receiver's answer per manifest entry
+    public static final byte MANIFEST_NEEDED = 0;
+    public static final byte MANIFEST_PRESENT = 1;
+    public static final byte MANIFEST_LINKED = 2;
+    // The receiver may have to hash many existing files before it can answer
+    private static final int MANIFEST_TIMEOUT_MS = 10 * 60 * 1000;
+    // The receiver may be preallocating the file before it answers
+    private static final int READY_TIMEOUT_MS = 10 * 60 * 1000;
+    // Remote ports; only differ from the defaults when traffic is routed through a proxy.
+    private volatile int connectionPort = CONNECTION_PORT;
+    private volatile int receiverPort = RECEIVER_PORT;
+    private volatile int peerMaxStreams;
+    private volatile boolean compression;
+    private volatile boolean zeroElision = true;
+    private volatile boolean delta;
+    private volatile boolean verification = true;
+    private volatile boolean deduplication;
 
-    public void peerListener(java.util.List<User> discoveredReceivers, Consumer<User> onNewUser) {
-        try {
-            System.out.println("Starting peer listener...");
-            try (var channel = java.nio.channels.DatagramChannel.open()) {
-                channel.bind(new InetSocketAddress(LISTENING_PORT));
-                channel.configureBlocking(false);
-                var buffer = java.nio.ByteBuffer.allocate(1024);
-                while (isListening) {
+    /** Caps parallel chunk streams at what the receiver advertised; 0 means no advertised limit. */
+    public void setPeerMaxStreams(int peerMaxStreams) {
+        this.peerMaxStreams = peerMaxStreams;
+    }
+
+    /**
+     * Compresses chunks that sample as compressible; the rest keep the zero-copy path.
+     * Chunks are compressed on their own stream threads, so this scales with the stream count.
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Sends all-zero blocks of sparse or preallocated files as hole markers instead
+     * of their bytes; the receiver skips the write so its copy stays sparse. On by default.
+     */
+    public void setZeroElision(boolean zeroElision) {
+        this.zeroElision = zeroElision;
+    }
+
+    /**
+     * Asks the receiver for block signatures of any copy of the file it already
+     * has, and sends only the bytes that differ from it. The receiver rebuilds
+     * the new version beside its old copy and then replaces it.
+     */
+    public void setDelta(boolean delta) {
+        this.delta = delta;
+    }
+
+    /**
+     * Sends a hash tree of each file ahead of its chunks so the receiver can
+     * verify every chunk as it arrives; a chunk that fails is sent again. On by default.
+     */
+    public void setVerification(boolean verification) {
+        this.verification = verification;
+    }
+
+    /**
+     * Cuts each file into content-defined chunks and skips those the receiver
+     * already holds in any file, from this or an earlier session; the receiver
+     * copies them from there. Worth it for files sharing most of their content.
+     */
+    public void setDeduplication(boolean deduplication) {
+        this.deduplication = deduplication;
+    }
+
+    public void setRemotePorts(int connectionPort, int receiverPort) {
+        this.connectionPort = connectionPort;
+        this.receiverPort = receiverPort;
+    }
+
+    /**
+     * Feeds receiver beacons into {@code registry} until listening is switched off.
+     * Blocks in a selector, so beacons are handled as soon as they arrive; the
+     * select timeout bounds how late expired peers are noticed.
+     *
+     * Besides waiting for periodic announcements, broadcasts queries from a
+     * separate port (immediately, then backing off) that receivers answer by
+     * unicast, so idle receivers on a slow announce cadence still show up at once.
+     * The same query is also sent by unicast to each of {@code knownAddresses}
+     * that has not answered yet, which reaches known peers on other subnets and
+     * where broadcast is filtered.
+     */
+    public void peerListener(PeerRegistry registry, List<String> knownAddresses) {
+        System.out.println("Starting peer listener...");
+        try (DatagramChannel channel = DatagramChannel.open();
+             DatagramChannel queryChannel = DatagramChannel.open();
+             Selector selector = Selector.open()) {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.bind(new InetSocketAddress(LISTENING_PORT));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+            queryChannel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+            queryChannel.bind(null);
+            queryChannel.configureBlocking(false);
+            queryChannel.register(selector, SelectionKey.OP_READ);
+            discoverySelector = selector;
+
+            ByteBuffer buffer = ByteBuffer.allocate(1024);
+            InetSocketAddress broadcastAddress = new InetSocketAddress(BROADCAST_IP, LISTENING_PORT);
+            AnnounceSchedule querySchedule = new AnnounceSchedule(QUERY_MIN_MS, QUERY_MAX_MS);
+            long nextQueryNanos = System.nanoTime();
+            while (isListening) {
+                if (System.nanoTime() - nextQueryNanos >= 0) {
                     buffer.clear();
-                    var address = channel.receive(buffer);
-                    if (address instanceof InetSocketAddress inetSocketAddress) {
-                        buffer.flip();
-                        String receiverName = StandardCharsets.UTF_8.decode(buffer).toString().trim();
-                        String receiverIP = inetSocketAddress.getAddress().getHostAddress();
-                        boolean exists = discoveredReceivers.stream()
-                                .anyMatch(user -> user.getIp().equals(receiverIP));
-                        if (!exists) {
-                            onNewUser.accept(new User(receiverName, receiverIP));
+                    new DiscoveryBeacon(DiscoveryBeacon.TYPE_QUERY, PeerIdentity.local(), 0, -1, 0, 0, "")
+                            .encode(buffer);
+                    buffer.flip();
+                    sendQuery(queryChannel, buffer, broadcastAddress);
+                    for (String address : knownAddresses) {
+                        if (!registry.containsAddress(address)) {
+                            sendQuery(queryChannel, buffer.rewind(), new InetSocketAddress(address, LISTENING_PORT));
                         }
                     }
-                    Thread.sleep(1000);
+                    nextQueryNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(querySchedule.next());
                 }
-                System.out.println("Peer listener stopped.");
+                long waitMillis = TimeUnit.NANOSECONDS.toMillis(nextQueryNanos - System.nanoTime());
+                selector.select(Math.max(1, Math.min(EXPIRY_CHECK_MS, waitMillis)));
+                selector.selectedKeys().clear();
+                receiveBeacons(channel, buffer, registry);
+                receiveBeacons(queryChannel, buffer, registry);
+                registry.expire();
             }
-        } catch (IOException | InterruptedException e) {
-            Thread.currentThread().interrupt();
+            System.out.println("Peer listener stopped.");
+        } catch (IOException e) {
             System.err.println("Peer listener error: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            discoverySelector = null;
+        }
+    }
+
+    private void sendQuery(DatagramChannel channel, ByteBuffer query, InetSocketAddress target) {
+        try {
+            channel.send(query, target);
+        } catch (IOException e) {
+            System.err.println("Discovery query to " + target + " failed: " + e.getMessage());
+        }
+    }
+
+    private void receiveBeacons(DatagramChannel channel, ByteBuffer buffer, PeerRegistry registry) throws IOException {
+        SocketAddress address;
+        while ((address = channel.receive(buffer.clear())) != null) {
+            buffer.flip();
+            DiscoveryBeacon beacon = DiscoveryBeacon.decode(buffer);
+            if (beacon == null || !(address instanceof InetSocketAddress inetSocketAddress)) {
+                continue;
+            }
+            User peer = beacon.toUser(inetSocketAddress.getAddress().getHostAddress());
+            if (beacon.getType() == DiscoveryBeacon.TYPE_ANNOUNCE) {
+                registry.seen(peer, TimeUnit.MILLISECONDS.toNanos(beacon.getTtlMillis()));
+            } else if (beacon.getType() == DiscoveryBeacon.TYPE_GOODBYE) {
+                registry.remove(peer.getPeerId());
+            }
         }
     }
 
     public boolean sendConnectionRequest(User receiver, String senderName, String fileInfo) {
-        try (Socket socket = new Socket(receiver.getIp(), CONNECTION_PORT);
+        try (Socket socket = new Socket(receiver.getIp(), connectionPort);
              PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
              BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
             writer.println(senderName + " wants to send you :" + fileInfo);
@@ -76,59 +254,480 @@ public class Sender {
     }
 
     /**
-     * Sends a file to the receiver.
-     * @param isLastFile indicates if this is the final file (termination signal will be sent only then).
+     * Sends each file's name, size and content hash before any data. For every
+     * file the receiver answers whether it needs it or already holds an
+     * identical copy under that name, possibly by hard-linking one it had
+     * under another name. Returns one {@code MANIFEST_*} status per file.
+     */
+    public byte[] exchangeManifest(String receiverIP, File[] files, ContentHashCache contentHashes)
+            throws IOException {
+        return exchangeManifest(receiverIP, Arrays.stream(files).map(File::getName).toArray(String[]::new), files,
+            contentHashes);
+    }
+
+    /** {@link #exchangeManifest(String, File[], ContentHashCache)} with the files offered under {@code names}. */
+    public byte[] exchangeManifest(String receiverIP, String[] names, File[] files, ContentHashCache contentHashes)
+            throws IOException {
+        try (Socket manifestSocket = new Socket(receiverIP, receiverPort)) {
+            manifestSocket.setSoTimeout(MANIFEST_TIMEOUT_MS);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(manifestSocket.getOutputStream()));
+            out.writeLong(MANIFEST);
+            out.writeInt(files.length);
+            // Announced before hashing, which can outlast the receiver's accept timeout on large files
+            out.flush();
+            byte[][] hashes = contentHashes.hashAll(Arrays.stream(files).map(File::toPath).toList());
+            for (int i = 0; i < files.length; i++) {
+                byte[] nameBytes = names[i].getBytes(StandardCharsets.UTF_8);
+                out.writeInt(nameBytes.length);
+                out.write(nameBytes);
+                out.writeLong(files[i].length());
+                out.write(hashes[i]);
+            }
+            out.flush();
+            byte[] statuses = new byte[files.length];
+            new DataInputStream(new BufferedInputStream(manifestSocket.getInputStream())).readFully(statuses);
+            return statuses;
+        }
+    }
+
+    /**
+     * Sends the name and size of every file about to be sent, before anything
+     * is hashed, and throws if the receiver answers that they will not fit.
+     * With zero elision on, each file also reports the bytes outside its zero
+     * blocks (see {@link ChunkCodec#dataBytes}), which is all it takes up on a
+     * receiver that does not preallocate.
      */
-    public void sendFile(String receiverIP, File file, Consumer<Integer> progressCallback, 
-                        Consumer<String> statusCallback, boolean isLastFile) {
+    public void checkSpace(String receiverIP, File[] files) throws IOException {
+        checkSpace(receiverIP, Arrays.stream(files).map(File::getName).toArray(String[]::new), files);
+    }
+
+    /** {@link #checkSpace(String, File[])} for files sent under the given names. */
+    public void checkSpace(String receiverIP, String[] names, File[] files) throws IOException {
+        long[] sizes = new long[files.length];
+        long[] dataBytes = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            sizes[i] = files[i].length();
+            if (zeroElision) {
+                try (ChunkSource source = ChunkSources.file(files[i], names[i])) {
+                    dataBytes[i] = ChunkCodec.dataBytes(source);
+                } catch (NoSuchFileException e) {
+                    // Gone since it was listed; sending it fails or skips it later
+                    dataBytes[i] = 0;
+                }
+            } else {
+                dataBytes[i] = sizes[i];
+            }
+        }
+        checkSpace(receiverIP, names, sizes, dataBytes);
+    }
+
+    /** {@link #checkSpace(String, File[])} for sources, which are read but not closed. */
+    public void checkSpace(String receiverIP, List<ChunkSource> sources) throws IOException {
+        String[] names = new String[sources.size()];
+        long[] sizes = new long[sources.size()];
+        long[] dataBytes = new long[sources.size()];
+        for (int i = 0; i < names.length; i++) {
+            ChunkSource source = sources.get(i);
+            names[i] = source.getName();
+            sizes[i] = source.size();
+            dataBytes[i] = zeroElision ? ChunkCodec.dataBytes(source) : sizes[i];
+        }
+        checkSpace(receiverIP, names, sizes, dataBytes);
+    }
+
+    private void checkSpace(String receiverIP, String[] names, long[] sizes, long[] dataBytes) throws IOException {
+        try (Socket spaceSocket = new Socket(receiverIP, receiverPort)) {
+            spaceSocket.setSoTimeout(30000);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(spaceSocket.getOutputStream()));
+            out.writeLong(SPACE_CHECK);
+            out.writeInt(names.length);
+            for (int i = 0; i < names.length; i++) {
+                byte[] nameBytes = names[i].getBytes(StandardCharsets.UTF_8);
+                out.writeInt(nameBytes.length);
+                out.write(nameBytes);
+                out.writeLong(sizes[i]);
+                out.writeLong(dataBytes[i]);
+            }
+            out.flush();
+            String response = waitForResponse(new DataInputStream(
+                new BufferedInputStream(spaceSocket.getInputStream())));
+            if (response.startsWith("NOSPACE")) {
+                throw noSpace(response);
+            } else if (!"OK".equals(response)) {
+                throw new IOException("Unexpected answer to space check: " + response);
+            }
+        }
+    }
+
+    // NOSPACE <bytes needed> <bytes usable>
+    private IOException noSpace(String response) {
+        String[] fields = response.split(" ");
         try {
-            statusCallback.accept("Connecting to receiver at " + receiverIP);
-            Socket metadataSocket = new Socket(receiverIP, RECEIVER_PORT);
+            return new IOException("Receiver is out of space: needs " + formatFileSize(Long.parseLong(fields[1]))
+                + ", has " + formatFileSize(Long.parseLong(fields[2])) + " usable");
+        } catch (RuntimeException e) {
+            return new IOException("Receiver is out of space");
+        }
+    }
+
+    /** Tells the receiver that no more files follow in this session. */
+    public void sendTermination(String receiverIP) throws IOException {
+        try (Socket completionSocket = new Socket(receiverIP, receiverPort)) {
+            DataOutputStream completionOut = new DataOutputStream(completionSocket.getOutputStream());
+            completionOut.writeLong(END_OF_SESSION);
+        }
+    }
+
+    /** Keeps the session open while there is nothing to send; the receiver times out after 30 seconds of silence. */
+    public void sendKeepalive(String receiverIP) throws IOException {
+        try (Socket keepaliveSocket = new Socket(receiverIP, receiverPort)) {
+            DataOutputStream keepaliveOut = new DataOutputStream(keepaliveSocket.getOutputStream());
+            keepaliveOut.writeLong(KEEPALIVE);
+        }
+    }
+
+    /**
+     * Sends a file to the receiver. The session is ended separately with
+     * {@link #sendTermination(String)} after the last file.
+     */
+    public void sendFile(String receiverIP, File file, int fileIndex, int totalFiles, TransferListener listener) {
+        try (ChunkSource source = ChunkSources.file(file)) {
+            sendSource(receiverIP, source, fileIndex, totalFiles, listener);
+        } catch (IOException e) {
+            listener.onFileFailed(file.getName(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Sends the bytes of {@code source} as a file named after it, like
+     * {@link #sendFile}. The source is not closed.
+     */
+    public void sendSource(String receiverIP, ChunkSource source, int fileIndex, int totalFiles,
+                           TransferListener listener) {
+        sendSource(receiverIP, source, false, fileIndex, totalFiles, listener);
+    }
+
+    /**
+     * {@link #sendSource(String, ChunkSource, int, int, TransferListener)}; with
+     * {@code replace}, a file the receiver already has under the name is
+     * replaced by this one instead of kept beside it under a new name. Names
+     * may contain {@code /} to place the file in a subdirectory.
+     */
+    public void sendSource(String receiverIP, ChunkSource source, boolean replace, int fileIndex, int totalFiles,
+                           TransferListener listener) {
+        FileTransferEvent fileEvent = new FileTransferEvent();
+        fileEvent.begin();
+        fileEvent.role = "sender";
+        fileEvent.peer = receiverIP;
+        fileEvent.fileName = source.getName();
+        try {
+            listener.onMessage("Connecting to receiver at " + receiverIP);
+            Socket metadataSocket = new Socket(receiverIP, receiverPort);
             metadataSocket.setSoTimeout(30000);
 
             try (DataOutputStream metadataOut = new DataOutputStream(
                     new BufferedOutputStream(metadataSocket.getOutputStream()));
-                 BufferedReader metadataIn = new BufferedReader(
-                         new InputStreamReader(metadataSocket.getInputStream()))) {
+                 DataInputStream metadataIn = new DataInputStream(
+                         new BufferedInputStream(metadataSocket.getInputStream()))) {
 
-                long fileSize = file.length();
+                long fileSize = source.size();
                 int optimalChunkSize = calculateOptimalChunkSize(fileSize);
                 int totalChunks = (int) Math.ceil((double) fileSize / optimalChunkSize);
 
-                statusCallback.accept(String.format("Preparing to send: %s (Size: %s)", 
-                    file.getName(), formatFileSize(fileSize)));
-                statusCallback.accept("Dividing file into " + totalChunks + " chunks");
+                listener.onMessage("Preparing to send: " + source.getName() + " (Size: " + formatFileSize(fileSize)
+                    + ", Chunks: " + totalChunks + ")");
+                fileEvent.fileSize = fileSize;
+                fileEvent.chunks = totalChunks;
+
+                HandshakeEvent handshakeEvent = new HandshakeEvent();
+                handshakeEvent.begin();
 
                 // Send metadata
                 metadataOut.writeLong(fileSize);
                 metadataOut.writeInt(totalChunks);
-                byte[] nameBytes = file.getName().getBytes(StandardCharsets.UTF_8);
+                byte[] nameBytes = source.getName().getBytes(StandardCharsets.UTF_8);
                 metadataOut.writeInt(nameBytes.length);
                 metadataOut.write(nameBytes);
+                boolean dedup = deduplication;
+                long dataBytes = zeroElision ? ChunkCodec.dataBytes(source) : fileSize;
+                boolean sparse = dataBytes < fileSize;
+                metadataOut.writeByte((delta ? FLAG_DELTA : 0) | (verification ? FLAG_VERIFY : 0)
+                    | (dedup ? FLAG_DEDUP : 0) | (replace ? FLAG_REPLACE : 0) | (sparse ? FLAG_SPARSE : 0));
+                if (sparse) {
+                    metadataOut.writeLong(dataBytes);
+                }
                 metadataOut.flush();
 
-                // Wait for READY signal with proper error handling
-                String response = waitForResponse(metadataIn, 30000);
-                if (!"READY".equals(response)) {
+                // Hashed while the receiver opens the file and its chunk servers
+                MerkleTree tree = null;
+                if (verification) {
+                    long hashStartNanos = System.nanoTime();
+                    tree = MerkleTree.compute(source, fileSize);
+                    listener.onMessage(String.format("Hashed %d blocks in %d ms", tree.getLeafCount(),
+                        (System.nanoTime() - hashStartNanos) / 1_000_000));
+                    tree.write(metadataOut);
+                    metadataOut.flush();
+                }
+                ChunkRecipe recipe = null;
+                if (dedup) {
+                    long cutStartNanos = System.nanoTime();
+                    recipe = ChunkRecipe.compute(source, fileSize, optimalChunkSize);
+                    listener.onMessage(String.format("Cut into %d content-defined chunks in %d ms", recipe.getCount(),
+                        (System.nanoTime() - cutStartNanos) / 1_000_000));
+                    recipe.write(metadataOut);
+                    metadataOut.flush();
+                }
+
+                // Wait for READY, DELTA followed by the signatures of the receiver's copy,
+                // DEDUP followed by which chunks of the recipe it already holds, or NOSPACE
+                metadataSocket.setSoTimeout(READY_TIMEOUT_MS);
+                String response = waitForResponse(metadataIn);
+                metadataSocket.setSoTimeout(30000);
+                BlockSignatures signatures = null;
+                ChunkRecipe stored = null;
+                if ("DEDUP".equals(response) && recipe != null) {
+                    byte[] statuses = new byte[recipe.getCount()];
+                    metadataIn.readFully(statuses);
+                    recipe.setStatuses(statuses);
+                    stored = recipe;
+                    listener.onMessage("Receiver already holds " + recipe.getStoredCount() + " of "
+                        + recipe.getCount() + " chunks (" + formatFileSize(recipe.getStoredBytes()) + ")");
+                } else if ("DELTA".equals(response)) {
+                    signatures = BlockSignatures.read(metadataIn);
+                    listener.onMessage("Sending changes against receiver's copy (" + signatures.getBlockCount()
+                        + " blocks of " + formatFileSize(signatures.getBlockSize()) + ")");
+                } else if (response.startsWith("NOSPACE")) {
+                    throw noSpace(response);
+                } else if (!"READY".equals(response)) {
                     throw new IOException("Receiver not ready: " + response);
                 }
-                statusCallback.accept("Receiver ready, starting transfer");
+                handshakeEvent.end();
+                if (handshakeEvent.shouldCommit()) {
+                    handshakeEvent.role = "sender";
+                    handshakeEvent.peer = receiverIP;
+                    handshakeEvent.fileName = source.getName();
+                    handshakeEvent.fileSize = fileSize;
+                    handshakeEvent.chunks = totalChunks;
+                    handshakeEvent.commit();
+                }
+                listener.onFileStarted(source.getName(), fileSize, totalChunks, fileIndex, totalFiles);
 
                 // Send chunks
-                sendFileChunks(receiverIP, file, totalChunks, optimalChunkSize, 
-                    progressCallback, statusCallback);
-
-                if (isLastFile) {
-                    statusCallback.accept("Sending termination signal");
-                    try (Socket completionSocket = new Socket(receiverIP, RECEIVER_PORT)) {
-                        DataOutputStream completionOut = new DataOutputStream(completionSocket.getOutputStream());
-                        completionOut.writeLong(-1);
+                sendFileChunks(receiverIP, source, totalChunks, optimalChunkSize, signatures, stored, tree != null,
+                    listener);
+                listener.onFileCompleted(source.getName(), fileSize);
+            }
+            fileEvent.success = true;
+        } catch (Exception e) {
+            listener.onFileFailed(source.getName(), e);
+            throw new RuntimeException(e);
+        } finally {
+            fileEvent.commit();
+        }
+    }
+
+    /**
+     * Sends everything read from {@code stream} until its end as a file named
+     * {@code name}, for pipes and files still being written, whose length is
+     * not known up front. The stream is cut into numbered segments of
+     * {@value #STREAM_SEGMENT_SIZE} bytes as it is read, and each goes out on
+     * whichever of several parallel connections is free; the receiver commits
+     * them in order. Reading waits while every connection is busy, so memory
+     * stays at two segments per connection however long the stream runs.
+     * Segments are framed like chunks when compressing or eliding zeros, and
+     * with verification on the SHA-256 of the whole stream follows its end.
+     * The bytes cannot be read twice, so a failed connection fails the stream
+     * instead of being retried. The stream is not closed.
+     */
+    public void sendStream(String receiverIP, String name, ReadableByteChannel stream, int fileIndex, int totalFiles,
+                           TransferListener listener) {
+        FileTransferEvent fileEvent = new FileTransferEvent();
+        fileEvent.begin();
+        fileEvent.role = "sender";
+        fileEvent.peer = receiverIP;
+        fileEvent.fileName = name;
+        int streams = Math.min(4, Runtime.getRuntime().availableProcessors());
+        if (peerMaxStreams > 0) {
+            streams = Math.min(streams, peerMaxStreams);
+        }
+        ExecutorService streamExecutor = Executors.newFixedThreadPool(streams);
+        try (Socket metadataSocket = new Socket(receiverIP, receiverPort)) {
+            metadataSocket.setSoTimeout(30000);
+            DataOutputStream metadataOut = new DataOutputStream(
+                new BufferedOutputStream(metadataSocket.getOutputStream()));
+            DataInputStream metadataIn = new DataInputStream(
+                new BufferedInputStream(metadataSocket.getInputStream()));
+            boolean verify = verification;
+            metadataOut.writeLong(STREAM);
+            metadataOut.writeInt(streams);
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            metadataOut.writeInt(nameBytes.length);
+            metadataOut.write(nameBytes);
+            metadataOut.writeByte(verify ? FLAG_VERIFY : 0);
+            metadataOut.flush();
+            // READY <connections accepted>, at most as many as offered
+            String response = waitForResponse(metadataIn);
+            if (!response.startsWith("READY ")) {
+                throw new IOException("Receiver not ready: " + response);
+            }
+            try {
+                int accepted = Integer.parseInt(response.substring("READY ".length()));
+                if (accepted <= 0 || accepted > streams) {
+                    throw new IOException("Receiver accepted " + accepted + " of " + streams + " connections");
+                }
+                streams = accepted;
+            } catch (NumberFormatException e) {
+                throw new IOException("Receiver not ready: " + response);
+            }
+            listener.onMessage("Streaming " + name + " to " + receiverIP + " over " + streams + " connections");
+            listener.onFileStarted(name, -1, -1, fileIndex, totalFiles);
+
+            // One segment being sent and one read ahead per connection
+            BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(2 * streams);
+            for (int i = 0; i < 2 * streams; i++) {
+                free.add(ByteBuffer.allocate(STREAM_SEGMENT_SIZE));
+            }
+            BlockingQueue<StreamSegment> segments = new LinkedBlockingQueue<>();
+            List<Future<?>> connections = new ArrayList<>();
+            for (int i = 0; i < streams; i++) {
+                int streamIndex = i;
+                connections.add(streamExecutor.submit(() -> {
+                    sendStreamSegments(receiverIP, streamIndex, name, segments, free, listener);
+                    return null;
+                }));
+            }
+
+            MessageDigest digest = verify ? MessageDigest.getInstance("SHA-256") : null;
+            long length = 0;
+            for (long sequence = 0; ; sequence++) {
+                ByteBuffer segment = takeSegmentBuffer(free, connections);
+                segment.clear();
+                int read = 0;
+                while (segment.hasRemaining() && read >= 0) {
+                    read = stream.read(segment);
+                }
+                segment.flip();
+                if (segment.hasRemaining()) {
+                    if (digest != null) {
+                        // Through the array: the ByteBuffer overload ran an order of magnitude slower here
+                        digest.update(segment.array(), segment.arrayOffset() + segment.position(), segment.remaining());
                     }
+                    length += segment.remaining();
+                    segments.add(new StreamSegment(sequence, segment));
+                } else {
+                    free.add(segment);
+                }
+                if (read < 0) {
+                    break;
+                }
+            }
+            for (int i = 0; i < streams; i++) {
+                segments.add(new StreamSegment(END_OF_STREAM, null));
+            }
+            for (Future<?> connection : connections) {
+                try {
+                    connection.get();
+                } catch (ExecutionException e) {
+                    throw new IOException("Stream connection failed: " + e.getCause().getMessage(), e.getCause());
                 }
             }
+
+            metadataOut.writeLong(length);
+            if (digest != null) {
+                metadataOut.write(digest.digest());
+            }
+            metadataOut.flush();
+            // The receiver commits what its reorder buffer still holds before it answers
+            metadataSocket.setSoTimeout(READY_TIMEOUT_MS);
+            response = waitForResponse(metadataIn);
+            if (!"OK".equals(response)) {
+                throw new IOException("Receiver did not accept the stream: " + response);
+            }
+            listener.onMessage("Streamed " + formatFileSize(length) + " of " + name);
+            fileEvent.fileSize = length;
+            fileEvent.success = true;
+            listener.onFileCompleted(name, length);
         } catch (Exception e) {
-            statusCallback.accept("Error in file transfer: " + e.getMessage());
+            listener.onFileFailed(name, e);
             throw new RuntimeException(e);
+        } finally {
+            // Connections still waiting for segments after a failure are interrupted, which closes them
+            streamExecutor.shutdownNow();
+            fileEvent.commit();
+        }
+    }
+
+    /** A segment of a stream; a null buffer ends the connection that takes it. */
+    private record StreamSegment(long sequence, ByteBuffer data) {
+    }
+
+    // Waits for a segment to be sent and freed, failing once any connection has failed instead of waiting forever
+    private static ByteBuffer takeSegmentBuffer(BlockingQueue<ByteBuffer> free, List<Future<?>> connections)
+            throws IOException, InterruptedException {
+        while (true) {
+            ByteBuffer buffer = free.poll(1, TimeUnit.SECONDS);
+            if (buffer != null) {
+                return buffer;
+            }
+            for (Future<?> connection : connections) {
+                if (connection.isDone()) {
+                    try {
+                        connection.get();
+                    } catch (ExecutionException e) {
+                        throw new IOException("Stream connection failed: " + e.getCause().getMessage(),
+                            e.getCause());
+                    }
+                    throw new IOException("Stream connection ended early");
+                }
+            }
+        }
+    }
+
+    // Sends segments on one connection until it takes the end marker
+    private void sendStreamSegments(String receiverIP, int streamIndex, String name,
+                                    BlockingQueue<StreamSegment> segments, BlockingQueue<ByteBuffer> free,
+                                    TransferListener listener) throws IOException, InterruptedException {
+        boolean compress = compression;
+        boolean elideZeros = zeroElision;
+        LongConsumer progress = bytes -> {
+            metrics.recordSent(streamIndex, bytes);
+            listener.onChunkProgress(streamIndex, bytes);
+        };
+        try (SocketChannel channel = SocketChannel.open()) {
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().setSendBufferSize(BUFFER_SIZE);
+            channel.connect(new InetSocketAddress(receiverIP, receiverPort + 1 + streamIndex));
+            ByteBuffer header = ByteBuffer.allocate(STREAM_SEGMENT_HEADER_SIZE);
+            while (true) {
+                StreamSegment segment = segments.take();
+                ByteBuffer data = segment.data();
+                byte encoding = data != null && (compress || elideZeros) ? ChunkCodec.ENCODING_FRAMED
+                    : ChunkCodec.ENCODING_RAW;
+                int length = data != null ? data.remaining() : 0;
+                header.clear();
+                header.putLong(segment.sequence()).putInt(length).put(encoding).flip();
+                if (data == null) {
+                    while (header.hasRemaining()) {
+                        channel.write(header);
+                    }
+                    return;
+                }
+                if (encoding == ChunkCodec.ENCODING_FRAMED) {
+                    while (header.hasRemaining()) {
+                        channel.write(header);
+                    }
+                    ChunkCodec.writeFramed(ChunkSources.memory(name, data), 0, length, channel, compress, elideZeros,
+                        progress);
+                } else {
+                    ByteBuffer[] frame = {header, data};
+                    while (data.hasRemaining()) {
+                        channel.write(frame);
+                    }
+                    progress.accept(length);
+                }
+                free.add(data);
+            }
         }
     }
 
@@ -136,11 +735,14 @@ public class Sender {
      * Sends file chunks in parallel using an ExecutorService.
      * Each chunk is sent over its own SocketChannel.
      */
-    private void sendFileChunks(String receiverIP, File file, int totalChunks, 
-                              int optimalChunkSize, Consumer<Integer> progressCallback,
-                              Consumer<String> statusCallback) throws Exception {
+    private void sendFileChunks(String receiverIP, ChunkSource source, int totalChunks, 
+                              int optimalChunkSize, BlockSignatures signatures, ChunkRecipe stored,
+                              boolean verified, TransferListener listener) throws Exception {
         // Limit concurrent transfers to avoid overwhelming network
         int maxConcurrentChunks = Math.min(4, Runtime.getRuntime().availableProcessors());
+        if (peerMaxStreams > 0) {
+            maxConcurrentChunks = Math.min(maxConcurrentChunks, peerMaxStreams);
+        }
         ExecutorService chunkExecutor = Executors.newFixedThreadPool(maxConcurrentChunks);
         CompletionService<Integer> completionService = new ExecutorCompletionService<>(chunkExecutor);
         
@@ -151,14 +753,11 @@ public class Sender {
                 final int chunkIndex = i;
                 final long startPosition = (long) i * optimalChunkSize;
                 final int currentChunkSize = (int) Math.min(optimalChunkSize, 
-                    file.length() - startPosition);
-                
-                statusCallback.accept(String.format("Queuing chunk %d/%d", 
-                    chunkIndex + 1, totalChunks));
+                    source.size() - startPosition);
                 
                 Future<Integer> future = completionService.submit(() -> sendSingleChunk(
-                    receiverIP, file, chunkIndex, 
-                    startPosition, currentChunkSize, totalChunks, statusCallback));
+                    receiverIP, source, chunkIndex, 
+                    startPosition, currentChunkSize, totalChunks, signatures, stored, verified, listener));
                 futures.add(future);
             }
 
@@ -173,11 +772,7 @@ public class Sender {
                     
                     int chunkIndex = completed.get();
                     completedChunks++;
-                    
-                    int progress = (int) ((completedChunks * 100.0) / totalChunks);
-                    progressCallback.accept(progress);
-                    statusCallback.accept(String.format("Completed chunk %d/%d (%d%%)", 
-                        chunkIndex + 1, totalChunks, progress));
+                    listener.onChunkCompleted(chunkIndex, completedChunks, totalChunks);
                     
                 } catch (Exception e) {
                     // Cancel all remaining transfers if any chunk fails
@@ -192,16 +787,36 @@ public class Sender {
         }
     }
 
-    private Integer sendSingleChunk(String receiverIP, File file, int chunkIndex, 
+    private Integer sendSingleChunk(String receiverIP, ChunkSource source, int chunkIndex, 
                                   long startPosition, int chunkSize, int totalChunks,
-                                  Consumer<String> statusCallback) throws IOException, InterruptedException {
+                                  BlockSignatures signatures, ChunkRecipe stored, boolean verified,
+                                  TransferListener listener) throws IOException, InterruptedException {
         int retryCount = 0;
         int maxRetries = 3;
         int baseDelay = 2000; // Increased base delay to 2 seconds
         IOException lastException = null;
+        long chunkStartNanos = System.nanoTime();
+        listener.onChunkStarted(chunkIndex, startPosition, chunkSize);
+        boolean compress = compression;
+        boolean elideZeros = zeroElision;
+        byte encoding = ChunkCodec.ENCODING_RAW;
+        List<BlockSignatures.Range> ranges = null;
+        List<ChunkRecipe.Span> spans = stored != null ? stored.spans(startPosition, chunkSize) : null;
+        boolean acknowledged = verified || stored != null;
+        if (spans != null) {
+            encoding = ChunkCodec.ENCODING_FRAMED;
+        } else if (signatures != null) {
+            // Matched once up front; retries resend the same delta
+            ranges = signatures.match(source, startPosition, chunkSize);
+            encoding = ChunkCodec.ENCODING_FRAMED;
+        } else if (compress || elideZeros) {
+            encoding = ChunkCodec.chooseEncoding(source, startPosition, chunkSize, compress, elideZeros);
+        }
         
         while (retryCount < maxRetries) {
             SocketChannel chunkChannel = null;
+            ChunkEvent chunkEvent = new ChunkEvent();
+            chunkEvent.begin();
             try {
                 chunkChannel = SocketChannel.open();
                 // Configure socket with longer timeout
@@ -212,26 +827,38 @@ public class Sender {
                 
                 // Add exponential backoff for retries
                 if (retryCount > 0) {
+                    metrics.recordRetry();
                     int delay = baseDelay * (1 << (retryCount - 1));
-                    statusCallback.accept(String.format("Waiting %d seconds before retry %d/%d for chunk %d", 
-                        delay/1000, retryCount + 1, maxRetries, chunkIndex + 1));
+                    ChunkRetryEvent retryEvent = new ChunkRetryEvent();
+                    retryEvent.begin();
                     Thread.sleep(delay);
-                    statusCallback.accept(String.format("Retrying chunk %d (attempt %d/%d)", 
-                        chunkIndex + 1, retryCount + 1, maxRetries));
+                    retryEvent.end();
+                    if (retryEvent.shouldCommit()) {
+                        retryEvent.role = "sender";
+                        retryEvent.peer = receiverIP;
+                        retryEvent.chunkIndex = chunkIndex;
+                        retryEvent.attempt = retryCount + 1;
+                        retryEvent.cause = lastException != null ? lastException.getMessage() : null;
+                        retryEvent.commit();
+                    }
+                    chunkEvent.begin();
                 }
                 
                 // Connect with timeout
                 chunkChannel.configureBlocking(true);
-                if (!chunkChannel.connect(new InetSocketAddress(receiverIP, RECEIVER_PORT + 1 + chunkIndex))) {
+                long connectStartNanos = System.nanoTime();
+                if (!chunkChannel.connect(new InetSocketAddress(receiverIP, receiverPort + 1 + chunkIndex))) {
                     throw new IOException("Connection timeout");
                 }
+                chunkEvent.connectNanos = System.nanoTime() - connectStartNanos;
                 
                 // Send metadata using heap ByteBuffer
-                ByteBuffer metadataBuffer = ByteBuffer.allocate(20);
+                ByteBuffer metadataBuffer = ByteBuffer.allocate(CHUNK_HEADER_SIZE);
                 metadataBuffer.putInt(chunkIndex)
                              .putLong(startPosition)
                              .putInt(chunkSize)
                              .putInt(totalChunks)
+                             .put(encoding)
                              .flip();
                 
                 long metadataStartTime = System.currentTimeMillis();
@@ -242,61 +869,116 @@ public class Sender {
                     chunkChannel.write(metadataBuffer);
                 }
                 
-                // Use zero-copy transfer for file data with timeout monitoring
-                try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                // Use zero-copy transfer for raw chunks, framed writes for compressed, sparse or delta ones
+                if (encoding == ChunkCodec.ENCODING_FRAMED) {
+                    long framedStartNanos = System.nanoTime();
+                    LongConsumer progress = bytes -> {
+                        metrics.recordSent(chunkIndex, bytes);
+                        listener.onChunkProgress(chunkIndex, bytes);
+                    };
+                    if (spans != null) {
+                        ChunkCodec.writeDeduplicated(source, spans, chunkChannel, compress, elideZeros,
+                                progress);
+                    } else if (ranges != null) {
+                        ChunkCodec.writeDelta(source, ranges, chunkChannel, compress, elideZeros, progress);
+                    } else {
+                        ChunkCodec.writeFramed(source, startPosition, chunkSize, chunkChannel, compress,
+                                elideZeros, progress);
+                    }
+                    chunkEvent.networkNanos += System.nanoTime() - framedStartNanos;
+                } else {
                     long transferred = 0;
                     long transferStartTime = System.currentTimeMillis();
                     int stallCount = 0;
-                    
+                
                     while (transferred < chunkSize) {
                         // Check for transfer stall
                         if (System.currentTimeMillis() - transferStartTime > 60000) { // 60 second timeout
                             throw new IOException("Transfer timeout - no progress for 60 seconds");
                         }
-                        
+                    
                         long before = transferred;
-                        long count = fileChannel.transferTo(
+                        long transferStartNanos = System.nanoTime();
+                        long count = source.transferTo(
                             startPosition + transferred,
                             chunkSize - transferred,
                             chunkChannel
                         );
-                        
+                        chunkEvent.networkNanos += System.nanoTime() - transferStartNanos;
+                    
                         if (count <= 0) {
+                            metrics.recordStall();
                             stallCount++;
                             if (stallCount > 100) { // Allow up to 100 stalls before timeout
                                 throw new IOException("Transfer stalled");
                             }
+                            StallEvent stallEvent = new StallEvent();
+                            stallEvent.begin();
                             Thread.sleep(100);
+                            stallEvent.end();
+                            if (stallEvent.shouldCommit()) {
+                                stallEvent.role = "sender";
+                                stallEvent.peer = receiverIP;
+                                stallEvent.chunkIndex = chunkIndex;
+                                stallEvent.consecutive = stallCount;
+                                stallEvent.commit();
+                            }
                             continue;
                         }
-                        
+                    
                         transferred += count;
+                        metrics.recordSent(chunkIndex, count);
+                        listener.onChunkProgress(chunkIndex, count);
                         stallCount = 0; // Reset stall counter on successful transfer
                         transferStartTime = System.currentTimeMillis(); // Reset timeout on progress
                     }
-                    
+                
                     if (transferred != chunkSize) {
                         throw new IOException("Incomplete chunk transfer: " + transferred + " of " + chunkSize);
                     }
-                    
-                    return chunkIndex;
                 }
+                
+                if (acknowledged) {
+                    int status = chunkChannel.socket().getInputStream().read();
+                    if (status == CHUNK_CORRUPT) {
+                        // A checksum collision, or the receiver's copy of a block changed; send the bytes
+                        ranges = null;
+                        spans = null;
+                    }
+                    if (status != CHUNK_VERIFIED) {
+                        throw new IOException(status == CHUNK_CORRUPT ? "Receiver rejected chunk: hash mismatch"
+                            : "No acknowledgement for chunk");
+                    }
+                }
+
+                metrics.recordChunkCompleted(System.nanoTime() - chunkStartNanos);
+                chunkEvent.success = true;
+                return chunkIndex;
             } catch (IOException e) {
                 lastException = e;
-                statusCallback.accept(String.format("Error sending chunk %d: %s", 
-                    chunkIndex + 1, e.getMessage()));
                 retryCount++;
                 
                 if (retryCount < maxRetries) {
+                    listener.onChunkRetry(chunkIndex, retryCount + 1, e);
                     continue;
                 }
             } finally {
+                chunkEvent.end();
+                if (chunkEvent.shouldCommit()) {
+                    chunkEvent.role = "sender";
+                    chunkEvent.peer = receiverIP;
+                    chunkEvent.chunkIndex = chunkIndex;
+                    chunkEvent.offset = startPosition;
+                    chunkEvent.size = chunkSize;
+                    chunkEvent.attempt = retryCount + (chunkEvent.success ? 1 : 0);
+                    chunkEvent.commit();
+                }
                 if (chunkChannel != null) {
                     try {
                         chunkChannel.close();
                     } catch (IOException e) {
                         // Log close error but don't throw
-                        statusCallback.accept("Warning: Error closing chunk channel: " + e.getMessage());
+                        listener.onMessage("Warning: Error closing chunk channel: " + e.getMessage());
                     }
                 }
             }
@@ -304,8 +986,10 @@ public class Sender {
         
         String errorMsg = String.format("Failed to send chunk %d after %d retries. Last error: %s",
             chunkIndex + 1, maxRetries, lastException.getMessage());
-        statusCallback.accept(errorMsg);
-        throw new IOException(errorMsg, lastException);
+        metrics.recordChunkFailed();
+        IOException failure = new IOException(errorMsg, lastException);
+        listener.onChunkFailed(chunkIndex, failure);
+        throw failure;
     }
 
     private void shutdownExecutor(ExecutorService executor) {
@@ -332,39 +1016,37 @@ public class Sender {
         int availableProcessors = Runtime.getRuntime().availableProcessors();
         int targetChunks = Math.min(availableProcessors * 2, 16);
         long calculatedChunkSize = Math.max(BASE_CHUNK_SIZE, fileSize / targetChunks);
+        // Whole hash tree leaves, so each chunk can be verified on its own
+        calculatedChunkSize -= calculatedChunkSize % MerkleTree.LEAF_SIZE;
         
         // Cap maximum chunk size at 256MB to avoid memory issues
         long maxChunkSize = 256L * 1024 * 1024;
         return (int) Math.min(calculatedChunkSize, maxChunkSize);
     }
 
-    private String waitForResponse(BufferedReader reader, int timeoutMs) throws IOException {
-        long startTime = System.currentTimeMillis();
+    // Reads one non-empty response line byte by byte, so binary data after it stays in the stream;
+    // bounded by the socket's read timeout
+    private String waitForResponse(DataInputStream in) throws IOException {
         StringBuilder response = new StringBuilder();
-        
-        while (System.currentTimeMillis() - startTime < timeoutMs) {
-            if (reader.ready() || reader.markSupported()) {
-                int c;
-                while ((c = reader.read()) != -1) {
-                    if (c == '\n' || c == '\r') {
-                        String result = response.toString().trim();
-                        if (!result.isEmpty()) {
-                            return result;
-                        }
-                        response.setLength(0);
-                    } else {
-                        response.append((char) c);
+        try {
+            while (true) {
+                int c = in.read();
+                if (c == -1) {
+                    throw new IOException("Receiver closed the connection");
+                }
+                if (c == '\n' || c == '\r') {
+                    String result = response.toString().trim();
+                    if (!result.isEmpty()) {
+                        return result;
                     }
+                    response.setLength(0);
+                } else {
+                    response.append((char) c);
                 }
             }
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new IOException("Interrupted while waiting for response");
-            }
+        } catch (SocketTimeoutException e) {
+            throw new IOException("Timeout waiting for receiver response");
         }
-        throw new IOException("Timeout waiting for receiver response");
     }
 
     private String formatFileSize(long size) {
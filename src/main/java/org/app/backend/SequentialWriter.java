@@ -0,0 +1,174 @@
+package org.app.backend;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Commits one file's blocks in offset order from a single thread, so a disk
+ * that seeks sees one stream however many chunks arrive at once.
+ *
+ * Chunk threads hand over copies of their blocks, and holes as empty blocks,
+ * and the writer takes them lowest offset first once nothing before them is
+ * missing. Blocks that do not continue the committed data wait in a reorder
+ * buffer of {@value #REORDER_BUFFER_SIZE} bytes; a chunk thread that would
+ * overflow it blocks, and with it that chunk's connection. Blocks that
+ * continue the data are admitted up to twice that, so the writer always has
+ * work and the chunk it is waiting for never stalls behind later ones. Blocks
+ * behind the committed offset, from a chunk that is being resent, are written
+ * next.
+ */
+public class SequentialWriter implements AutoCloseable {
+    static final long REORDER_BUFFER_SIZE = 64L * 1024 * 1024;
+
+    /** Writes one block at its offset, on the writer thread. */
+    public interface Target {
+        void write(ByteBuffer data, long position, int chunkIndex, boolean sparse) throws IOException;
+    }
+
+    private record Block(ByteBuffer data, long position, long length, int chunkIndex, boolean sparse) {
+        long end() {
+            return position + length;
+        }
+    }
+
+    private final Target target;
+    private final long fileSize;
+    private final TreeMap<Long, Block> pending = new TreeMap<>();
+    private final Thread thread;
+    private long committed;
+    private long pendingBytes;
+    private IOException failure;
+    private boolean closed;
+
+    public SequentialWriter(Target target, long fileSize, String fileName) {
+        this.target = target;
+        this.fileSize = fileSize;
+        this.thread = new Thread(this::run, "sequential-writer-" + fileName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Queues the remaining bytes of {@code data}, consuming them; blocks while the reorder buffer is full. */
+    public void write(ByteBuffer data, long position, int chunkIndex, boolean sparse) throws IOException {
+        ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+        copy.put(data).flip();
+        enqueue(new Block(copy, position, copy.remaining(), chunkIndex, sparse));
+    }
+
+    /** Marks {@code length} bytes from {@code position} as a hole that is left as it is. */
+    public void skip(long position, long length, int chunkIndex) throws IOException {
+        enqueue(new Block(null, position, length, chunkIndex, true));
+    }
+
+    /** Drops queued blocks of a chunk that is about to be resent. */
+    public synchronized void discard(long start, long end) {
+        Map<Long, Block> range = pending.subMap(start, end);
+        for (Block block : range.values()) {
+            pendingBytes -= block.data != null ? block.length : 0;
+        }
+        range.clear();
+        notifyAll();
+    }
+
+    /** Waits until the whole file is committed, rethrowing the writer's failure if it had one. */
+    public void finish() throws IOException, InterruptedException {
+        finish(fileSize);
+    }
+
+    /** {@link #finish()} for a stream whose length became known only at its end. */
+    public synchronized void finish(long length) throws IOException, InterruptedException {
+        while (failure == null && (committed < length || !pending.isEmpty())) {
+            wait();
+        }
+        if (failure != null) {
+            throw new IOException("Sequential write failed: " + failure.getMessage(), failure);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        pending.clear();
+        notifyAll();
+    }
+
+    private synchronized void enqueue(Block block) throws IOException {
+        if (block.length == 0) {
+            return;
+        }
+        long size = block.data != null ? block.length : 0;
+        try {
+            while (failure == null && !closed && !admits(block.position, size)) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while queueing a block at " + block.position, e);
+        }
+        if (failure != null) {
+            throw new IOException("Sequential write failed: " + failure.getMessage(), failure);
+        }
+        if (closed) {
+            throw new IOException("Sequential writer closed");
+        }
+        pending.put(block.position, block);
+        pendingBytes += size;
+        notifyAll();
+    }
+
+    private boolean admits(long position, long size) {
+        if (position <= frontier()) {
+            return pendingBytes < 2 * REORDER_BUFFER_SIZE;
+        }
+        return pendingBytes + size <= REORDER_BUFFER_SIZE;
+    }
+
+    // End of the queued blocks that continue the committed data without a gap
+    private long frontier() {
+        long frontier = committed;
+        for (Block block : pending.values()) {
+            if (block.position > frontier) {
+                break;
+            }
+            frontier = Math.max(frontier, block.end());
+        }
+        return frontier;
+    }
+
+    private void run() {
+        while (true) {
+            Block block;
+            synchronized (this) {
+                try {
+                    while (!closed && (pending.isEmpty() || pending.firstKey() > committed)) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed) {
+                    return;
+                }
+                block = pending.pollFirstEntry().getValue();
+            }
+            try {
+                if (block.data != null) {
+                    target.write(block.data, block.position, block.chunkIndex, block.sparse);
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            synchronized (this) {
+                committed = Math.max(committed, block.end());
+                pendingBytes -= block.data != null ? block.length : 0;
+                notifyAll();
+            }
+        }
+    }
+}
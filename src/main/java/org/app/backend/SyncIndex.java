@@ -0,0 +1,125 @@
+package org.app.backend;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What {@link FolderSync} last sent from one folder to one peer, kept in
+ * {@code ~/.fileshare/sync/} so a restarted sync only reads the files whose
+ * size or modification time changed since, and can tell a file that was only
+ * touched from one whose content changed.
+ *
+ * One file per folder and peer, one line per synced file: size, modification
+ * time (epoch millis), hex hash and path relative to the folder with
+ * {@code /} separators, tab separated.
+ */
+public class SyncIndex {
+    private final Path file;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean dirty;
+
+    /** The index of {@code folder} synced to the peer known by {@code peerKey}, its peer ID or else its IP. */
+    public SyncIndex(Path folder, String peerKey) {
+        this(PeerIdentity.getConfigDirectory().resolve("sync").resolve(fileName(folder, peerKey)));
+    }
+
+    public SyncIndex(Path file) {
+        this.file = file;
+    }
+
+    // Folder paths can be long and contain anything, so the file is named after a hash of folder and peer
+    private static String fileName(Path folder, String peerKey) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(
+                    (folder.toAbsolutePath().normalize() + "\t" + peerKey).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public synchronized void load() {
+        entries.clear();
+        dirty = false;
+        if (!Files.exists(file)) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t", 4);
+                if (fields.length == 4) {
+                    entries.put(fields[3], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                            HexFormat.of().parseHex(fields[2])));
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Ignoring unreadable sync index, every file will be compared again: " + e.getMessage());
+            entries.clear();
+        }
+    }
+
+    /** Writes the index back if it changed since it was loaded. */
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry value = entry.getValue();
+            content.append(value.size).append('\t').append(value.modifiedMillis).append('\t')
+                    .append(HexFormat.of().formatHex(value.hash)).append('\t').append(entry.getKey()).append('\n');
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(temp, content, StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            System.err.println("Could not save sync index: " + e.getMessage());
+        }
+    }
+
+    /** True if {@code path} was sent with this size and modification time, so it need not be read. */
+    public synchronized boolean isUnchanged(String path, long size, long modifiedMillis) {
+        Entry entry = entries.get(path);
+        return entry != null && entry.size == size && entry.modifiedMillis == modifiedMillis;
+    }
+
+    /** True if the content last sent as {@code path} had this hash. */
+    public synchronized boolean hasHash(String path, byte[] hash) {
+        Entry entry = entries.get(path);
+        return entry != null && Arrays.equals(entry.hash, hash);
+    }
+
+    public synchronized void put(String path, long size, long modifiedMillis, byte[] hash) {
+        entries.put(path, new Entry(size, modifiedMillis, hash));
+        dirty = true;
+    }
+
+    public synchronized void remove(String path) {
+        if (entries.remove(path) != null) {
+            dirty = true;
+        }
+    }
+
+    /** Drops the entries of files that are no longer in the folder. */
+    public synchronized void retainAll(Set<String> paths) {
+        if (entries.keySet().retainAll(paths)) {
+            dirty = true;
+        }
+    }
+
+    private record Entry(long size, long modifiedMillis, byte[] hash) {
+    }
+}
@@ -0,0 +1,60 @@
+package org.app.backend;
+
+/**
+ * Typed callbacks for transfer progress, replacing free-text status strings.
+ *
+ * All methods have empty defaults so consumers override only what they need.
+ * Chunk callbacks run on the chunk I/O threads, and {@link #onChunkProgress}
+ * fires for every socket read or {@code transferTo} call, so implementations
+ * must be cheap and must not block; hand work to another thread (e.g. the
+ * Swing EDT) only in coalesced form.
+ */
+public interface TransferListener {
+    TransferListener NONE = new TransferListener() { };
+
+    /** Receiver is listening for connection requests on the given port. */
+    default void onListening(int port) { }
+
+    /** Receiver got a connection request; {@code request} is the sender's message. */
+    default void onConnectionRequest(String peer, String request) { }
+
+    /**
+     * A session with a peer has started. The receiver learns the file count and
+     * size only as files arrive, so it reports -1 for both.
+     */
+    default void onSessionStarted(TransferRole role, String peer, int totalFiles, long totalBytes) { }
+
+    default void onSessionCompleted(TransferRole role, String peer) { }
+
+    default void onSessionFailed(TransferRole role, String peer, Throwable cause) { }
+
+    /**
+     * A file's handshake completed and its chunks are about to flow.
+     * {@code fileIndex} is zero-based; {@code totalFiles} is -1 on the receiver.
+     * A stream of unknown length reports -1 for its size and chunk count, and
+     * its connections in place of chunks to {@link #onChunkProgress}.
+     */
+    default void onFileStarted(String fileName, long fileSize, int totalChunks, int fileIndex, int totalFiles) { }
+
+    default void onFileCompleted(String fileName, long fileSize) { }
+
+    default void onFileFailed(String fileName, Throwable cause) { }
+
+    /** The receiver already holds an identical copy of the file, so none of its bytes are sent. */
+    default void onFileSkipped(String fileName, long fileSize) { }
+
+    default void onChunkStarted(int chunkIndex, long offset, int size) { }
+
+    /** {@code bytes} newly sent or written for this chunk since the previous call. */
+    default void onChunkProgress(int chunkIndex, long bytes) { }
+
+    default void onChunkCompleted(int chunkIndex, int completedChunks, int totalChunks) { }
+
+    /** A chunk attempt failed and will be retried; {@code attempt} is the upcoming attempt (2-based). */
+    default void onChunkRetry(int chunkIndex, int attempt, Throwable cause) { }
+
+    default void onChunkFailed(int chunkIndex, Throwable cause) { }
+
+    /** Human-readable diagnostics for logs. Never emitted per chunk. */
+    default void onMessage(String message) { }
+}
@@ -0,0 +1,112 @@
+package org.app.backend;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Byte-level progress of one session, fed by {@link #onChunkProgress} from the
+ * chunk I/O threads and read by a sampler (e.g. a Swing timer) at its own pace.
+ *
+ * Updates are plain atomic adds, so the stream threads never block on the UI.
+ * Bytes of a chunk attempt that is retried are subtracted again, so the count
+ * never runs ahead of the data that actually made it across.
+ */
+public class TransferProgress implements TransferListener {
+    private final LongAdder bytesTransferred = new LongAdder();
+    private final AtomicInteger filesCompleted = new AtomicInteger();
+    private volatile AtomicLongArray chunkBytes = new AtomicLongArray(0);
+    private volatile long totalBytes;
+    private volatile long startedFileBytes;
+    private volatile boolean totalKnown;
+    private volatile int totalFiles;
+    private volatile String currentFileName = "";
+    private volatile long startNanos;
+    private volatile boolean finished;
+    private volatile boolean failed;
+
+    @Override
+    public void onSessionStarted(TransferRole role, String peer, int totalFiles, long totalBytes) {
+        bytesTransferred.reset();
+        filesCompleted.set(0);
+        startedFileBytes = 0;
+        this.totalFiles = totalFiles;
+        this.totalBytes = Math.max(0, totalBytes);
+        this.totalKnown = totalBytes >= 0;
+        this.startNanos = System.nanoTime();
+        this.finished = false;
+        this.failed = false;
+    }
+
+    @Override
+    public void onFileStarted(String fileName, long fileSize, int totalChunks, int fileIndex, int totalFiles) {
+        chunkBytes = new AtomicLongArray(Math.max(totalChunks, 1));
+        currentFileName = fileName;
+        // Streams have no size until they end
+        startedFileBytes += Math.max(fileSize, 0);
+        if (!totalKnown) {
+            // Receiver only learns sizes file by file
+            totalBytes = startedFileBytes;
+        }
+    }
+
+    @Override
+    public void onFileCompleted(String fileName, long fileSize) {
+        filesCompleted.incrementAndGet();
+    }
+
+    @Override
+    public void onFileSkipped(String fileName, long fileSize) {
+        // Already at the destination, so it counts as done in full
+        startedFileBytes += fileSize;
+        if (!totalKnown) {
+            totalBytes = startedFileBytes;
+        }
+        bytesTransferred.add(fileSize);
+        filesCompleted.incrementAndGet();
+    }
+
+    @Override
+    public void onChunkProgress(int chunkIndex, long bytes) {
+        AtomicLongArray chunks = chunkBytes;
+        if (chunkIndex < chunks.length()) {
+            chunks.addAndGet(chunkIndex, bytes);
+        }
+        bytesTransferred.add(bytes);
+    }
+
+    @Override
+    public void onChunkRetry(int chunkIndex, int attempt, Throwable cause) {
+        AtomicLongArray chunks = chunkBytes;
+        if (chunkIndex < chunks.length()) {
+            bytesTransferred.add(-chunks.getAndSet(chunkIndex, 0));
+        }
+    }
+
+    @Override
+    public void onSessionCompleted(TransferRole role, String peer) {
+        finished = true;
+    }
+
+    @Override
+    public void onSessionFailed(TransferRole role, String peer, Throwable cause) {
+        failed = true;
+        finished = true;
+    }
+
+    public long getBytesTransferred() { return bytesTransferred.sum(); }
+
+    /** Session total, or the sum of the files seen so far when the total is not known up front. */
+    public long getTotalBytes() { return totalBytes; }
+
+    public boolean isTotalKnown() { return totalKnown; }
+    public int getFilesCompleted() { return filesCompleted.get(); }
+
+    /** Number of files in the session, or -1 when not known up front. */
+    public int getTotalFiles() { return totalFiles; }
+
+    public String getCurrentFileName() { return currentFileName; }
+    public long getStartNanos() { return startNanos; }
+    public boolean isFinished() { return finished; }
+    public boolean isFailed() { return failed; }
+}
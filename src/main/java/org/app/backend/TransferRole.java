@@ -0,0 +1,6 @@
+package org.app.backend;
+
+public enum TransferRole {
+    SENDER,
+    RECEIVER
+}
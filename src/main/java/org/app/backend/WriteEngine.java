@@ -0,0 +1,31 @@
+package org.app.backend;
+
+/**
+ * How the receiver moves raw chunk bodies from the socket into the file.
+ * Framed chunks (compressed, sparse, delta or deduplicated) are always
+ * decoded through a heap buffer and written positionally.
+ */
+public enum WriteEngine {
+    /** Picks an engine from the file size, see {@link #resolve(long)}. */
+    AUTO,
+    /** Reads the socket into a heap buffer and writes it at the chunk's offset. */
+    POSITIONAL,
+    /** {@code FileChannel.transferFrom} the socket channel, without a heap copy. */
+    TRANSFER_FROM,
+    /**
+     * Maps the chunk's region of the file and reads the socket straight into
+     * it: no heap copy and no write calls. Dirty pages are flushed by the OS,
+     * or per chunk when the receiver syncs on completion.
+     */
+    MAPPED;
+
+    // Below this, setting up and tearing down the mappings costs more than the copies it saves
+    static final long MAPPED_MIN_FILE_SIZE = 64L * 1024 * 1024;
+
+    public WriteEngine resolve(long fileSize) {
+        if (this != AUTO) {
+            return this;
+        }
+        return fileSize >= MAPPED_MIN_FILE_SIZE ? MAPPED : POSITIONAL;
+    }
+}
@@ -0,0 +1,60 @@
+package org.app.backend;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Whether the receiver writes a file's chunks where they land or funnels them
+ * through a {@link SequentialWriter} that commits them in offset order.
+ */
+public enum WriteOrder {
+    /** Sequential on rotational disks and network file systems, parallel elsewhere. */
+    AUTO,
+    /** Every chunk writes at its own offset as it arrives; best on SSDs. */
+    PARALLEL,
+    /** One writer commits in offset order while chunks still arrive in parallel. */
+    SEQUENTIAL;
+
+    private static final Set<String> NETWORK_FILE_SYSTEMS = Set.of(
+            "nfs", "nfs4", "cifs", "smb", "smb2", "smb3", "smbfs", "afpfs", "fuse.sshfs", "9p", "webdav", "davfs");
+
+    public WriteOrder resolve(Path directory) {
+        if (this != AUTO) {
+            return this;
+        }
+        return prefersSequential(directory) ? SEQUENTIAL : PARALLEL;
+    }
+
+    /** True if {@code directory} is on a network file system or, on Linux, a rotational disk. */
+    static boolean prefersSequential(Path directory) {
+        try {
+            FileStore store = Files.getFileStore(directory);
+            if (NETWORK_FILE_SYSTEMS.contains(store.type().toLowerCase(Locale.ROOT))) {
+                return true;
+            }
+            return isRotational(store.name());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // The store name is its device, e.g. /dev/sda2 or /dev/mapper/vg-home; partitions report through their disk
+    private static boolean isRotational(String device) throws IOException {
+        Path devicePath = Path.of(device);
+        if (!device.startsWith("/dev/") || !Files.exists(devicePath)) {
+            return false;
+        }
+        Path block = Path.of("/sys/class/block").resolve(devicePath.toRealPath().getFileName());
+        for (Path queue : new Path[] {block.resolve("queue"), block.resolve("../queue")}) {
+            Path rotational = queue.resolve("rotational");
+            if (Files.isReadable(rotational)) {
+                return Files.readString(rotational).trim().equals("1");
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,58 @@
+package org.app.backend.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * One chunk attempt. Time spent in the individual I/O calls is summed into
+ * the timespan fields instead of emitting an event per call.
+ */
+@Name("org.app.Chunk")
+@Label("Chunk Transfer")
+@Category({"FileShare", "Transfer"})
+@StackTrace(false)
+public class ChunkEvent extends Event {
+    @Label("Role")
+    public String role;
+
+    @Label("Peer")
+    public String peer;
+
+    @Label("Chunk Index")
+    public int chunkIndex;
+
+    @Label("Offset")
+    @DataAmount
+    public long offset;
+
+    @Label("Size")
+    @DataAmount
+    public long size;
+
+    @Label("Attempt")
+    public int attempt;
+
+    @Label("Connect Time")
+    @Description("Sender: SocketChannel connect; receiver: wait in accept")
+    @Timespan
+    public long connectNanos;
+
+    @Label("Network Time")
+    @Description("Sender: transferTo; receiver: socket reads")
+    @Timespan
+    public long networkNanos;
+
+    @Label("Disk Write Time")
+    @Description("Receiver: FileChannel.write, including waits for the file lock")
+    @Timespan
+    public long diskWriteNanos;
+
+    @Label("Success")
+    public boolean success;
+}
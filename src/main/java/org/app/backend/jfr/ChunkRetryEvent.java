@@ -0,0 +1,30 @@
+package org.app.backend.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.app.ChunkRetry")
+@Label("Chunk Retry Backoff")
+@Category({"FileShare", "Transfer"})
+@Description("Backoff wait before a chunk is retried")
+@StackTrace(false)
+public class ChunkRetryEvent extends Event {
+    @Label("Role")
+    public String role;
+
+    @Label("Peer")
+    public String peer;
+
+    @Label("Chunk Index")
+    public int chunkIndex;
+
+    @Label("Attempt")
+    public int attempt;
+
+    @Label("Cause")
+    public String cause;
+}
@@ -0,0 +1,22 @@
+package org.app.backend.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.app.ChunkServerSetup")
+@Label("Chunk Server Setup")
+@Category({"FileShare", "Transfer"})
+@Description("Receiver opening one ServerSocket per chunk before READY")
+public class ChunkServerSetupEvent extends Event {
+    @Label("Peer")
+    public String peer;
+
+    @Label("File Name")
+    public String fileName;
+
+    @Label("Servers")
+    public int servers;
+}
@@ -0,0 +1,31 @@
+package org.app.backend.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.app.FileTransfer")
+@Label("File Transfer")
+@Category({"FileShare", "Transfer"})
+public class FileTransferEvent extends Event {
+    @Label("Role")
+    public String role;
+
+    @Label("Peer")
+    public String peer;
+
+    @Label("File Name")
+    public String fileName;
+
+    @Label("File Size")
+    @DataAmount
+    public long fileSize;
+
+    @Label("Chunks")
+    public int chunks;
+
+    @Label("Success")
+    public boolean success;
+}
@@ -0,0 +1,19 @@
+package org.app.backend.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.app.Fsync")
+@Label("File Sync")
+@Category({"FileShare", "Transfer"})
+public class FsyncEvent extends Event {
+    @Label("File Name")
+    public String fileName;
+
+    @Label("File Size")
+    @DataAmount
+    public long fileSize;
+}
@@ -0,0 +1,30 @@
+package org.app.backend.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.app.Handshake")
+@Label("File Handshake")
+@Category({"FileShare", "Transfer"})
+@Description("Metadata exchange for one file, up to the receiver's READY")
+public class HandshakeEvent extends Event {
+    @Label("Role")
+    public String role;
+
+    @Label("Peer")
+    public String peer;
+
+    @Label("File Name")
+    public String fileName;
+
+    @Label("File Size")
+    @DataAmount
+    public long fileSize;
+
+    @Label("Chunks")
+    public int chunks;
+}
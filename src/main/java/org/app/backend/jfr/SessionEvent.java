@@ -0,0 +1,31 @@
+package org.app.backend.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.app.Session")
+@Label("Transfer Session")
+@Category({"FileShare", "Transfer"})
+@Description("A complete send or receive session with one peer")
+public class SessionEvent extends Event {
+    @Label("Role")
+    @Description("sender or receiver")
+    public String role;
+
+    @Label("Peer")
+    public String peer;
+
+    @Label("Files")
+    public int files;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Success")
+    public boolean success;
+}
@@ -0,0 +1,27 @@
+package org.app.backend.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.app.Stall")
+@Label("Transfer Stall")
+@Category({"FileShare", "Transfer"})
+@Description("A transferTo or write call that made no progress, including the pause that follows")
+@StackTrace(false)
+public class StallEvent extends Event {
+    @Label("Role")
+    public String role;
+
+    @Label("Peer")
+    public String peer;
+
+    @Label("Chunk Index")
+    public int chunkIndex;
+
+    @Label("Consecutive Stalls")
+    public int consecutive;
+}
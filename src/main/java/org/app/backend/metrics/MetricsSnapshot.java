@@ -0,0 +1,111 @@
+package org.app.backend.metrics;
+
+/**
+ * Immutable copy of the {@link TransferMetrics} counters at one instant.
+ * Counters are cumulative; rates are derived by comparing two snapshots
+ * with {@link #bytesPerSecondSince(MetricsSnapshot)}.
+ */
+public class MetricsSnapshot {
+    private final long timestampNanos;
+    private final long bytesSent;
+    private final long bytesReceived;
+    private final long[] portBytesSent;
+    private final long[] portBytesReceived;
+    private final String[] sessions;
+    private final long[] sessionBytes;
+    private final long[] sessionStartNanos;
+    private final long chunksCompleted;
+    private final long chunksFailed;
+    private final long retries;
+    private final long stalls;
+    private final long buffersInUse;
+    private final long bufferBytesInUse;
+    private final long[] chunkLatencyBuckets;
+    private final long[] diskWriteLatencyBuckets;
+
+    MetricsSnapshot(long timestampNanos, long bytesSent, long bytesReceived,
+                    long[] portBytesSent, long[] portBytesReceived,
+                    String[] sessions, long[] sessionBytes, long[] sessionStartNanos,
+                    long chunksCompleted, long chunksFailed, long retries, long stalls,
+                    long buffersInUse, long bufferBytesInUse,
+                    long[] chunkLatencyBuckets, long[] diskWriteLatencyBuckets) {
+        this.timestampNanos = timestampNanos;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.portBytesSent = portBytesSent;
+        this.portBytesReceived = portBytesReceived;
+        this.sessions = sessions;
+        this.sessionBytes = sessionBytes;
+        this.sessionStartNanos = sessionStartNanos;
+        this.chunksCompleted = chunksCompleted;
+        this.chunksFailed = chunksFailed;
+        this.retries = retries;
+        this.stalls = stalls;
+        this.buffersInUse = buffersInUse;
+        this.bufferBytesInUse = bufferBytesInUse;
+        this.chunkLatencyBuckets = chunkLatencyBuckets;
+        this.diskWriteLatencyBuckets = diskWriteLatencyBuckets;
+    }
+
+    public long getTimestampNanos() { return timestampNanos; }
+    public long getBytesSent() { return bytesSent; }
+    public long getBytesReceived() { return bytesReceived; }
+    public long[] getPortBytesSent() { return portBytesSent.clone(); }
+    public long[] getPortBytesReceived() { return portBytesReceived.clone(); }
+    public int getActiveSessions() { return sessions.length; }
+    /** Role and peer of each active session, in the order they started. */
+    public String[] getSessions() { return sessions.clone(); }
+    public long[] getSessionBytes() { return sessionBytes.clone(); }
+    public long getChunksCompleted() { return chunksCompleted; }
+    public long getChunksFailed() { return chunksFailed; }
+    public long getRetries() { return retries; }
+    public long getStalls() { return stalls; }
+    public long getBuffersInUse() { return buffersInUse; }
+    public long getBufferBytesInUse() { return bufferBytesInUse; }
+    public long[] getChunkLatencyBuckets() { return chunkLatencyBuckets.clone(); }
+    public long[] getDiskWriteLatencyBuckets() { return diskWriteLatencyBuckets.clone(); }
+
+    /** Average rate of each active session since it started. */
+    public double[] getSessionBytesPerSecond() {
+        double[] rates = new double[sessions.length];
+        for (int i = 0; i < rates.length; i++) {
+            if (timestampNanos > sessionStartNanos[i]) {
+                rates[i] = sessionBytes[i] * 1e9 / (timestampNanos - sessionStartNanos[i]);
+            }
+        }
+        return rates;
+    }
+
+    /** Combined send and receive rate between an earlier snapshot and this one. */
+    public double bytesPerSecondSince(MetricsSnapshot earlier) {
+        long elapsed = timestampNanos - earlier.timestampNanos;
+        if (elapsed <= 0) {
+            return 0;
+        }
+        long bytes = (bytesSent - earlier.bytesSent) + (bytesReceived - earlier.bytesReceived);
+        return bytes * 1e9 / elapsed;
+    }
+
+    /** Per-port combined rate between an earlier snapshot and this one. */
+    public double[] portBytesPerSecondSince(MetricsSnapshot earlier) {
+        double[] rates = new double[portBytesSent.length];
+        long elapsed = timestampNanos - earlier.timestampNanos;
+        if (elapsed <= 0) {
+            return rates;
+        }
+        for (int i = 0; i < rates.length; i++) {
+            long bytes = (portBytesSent[i] - earlier.portBytesSent[i])
+                    + (portBytesReceived[i] - earlier.portBytesReceived[i]);
+            rates[i] = bytes * 1e9 / elapsed;
+        }
+        return rates;
+    }
+
+    public double chunkLatencyMillis(double percentile) {
+        return LatencyHistogram.percentileNanos(chunkLatencyBuckets, percentile) / 1e6;
+    }
+
+    public double diskWriteLatencyMillis(double percentile) {
+        return LatencyHistogram.percentileNanos(diskWriteLatencyBuckets, percentile) / 1e6;
+    }
+}
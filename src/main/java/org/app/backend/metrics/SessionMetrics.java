@@ -0,0 +1,36 @@
+package org.app.backend.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bytes moved by one send or receive session. Sessions run side by side (a
+ * send while receiving, or several sends), so each counts its own bytes
+ * between {@link TransferMetrics#sessionStarted(SessionMetrics)} and
+ * {@link TransferMetrics#sessionEnded(SessionMetrics)}.
+ */
+public final class SessionMetrics {
+    private final String role;
+    private final String peer;
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile long startNanos;
+
+    public SessionMetrics(String role, String peer) {
+        this.role = role;
+        this.peer = peer;
+    }
+
+    void start() {
+        startNanos = System.nanoTime();
+    }
+
+    public void record(long count) {
+        bytes.addAndGet(count);
+    }
+
+    /** "role peer", e.g. {@code sender 192.168.1.20}. */
+    public String getName() { return role + " " + peer; }
+
+    public long getBytes() { return bytes.get(); }
+
+    public long getStartNanos() { return startNanos; }
+}
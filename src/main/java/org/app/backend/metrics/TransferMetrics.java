@@ -0,0 +1,250 @@
+package org.app.backend.metrics;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide transfer metrics shared by {@code Sender} and {@code Receiver}.
+ *
+ * All {@code record*} methods are plain atomic updates on preallocated
+ * counters and never allocate, so they can be called for every
+ * {@code transferTo} or {@code write} on the chunk threads. Bytes are also
+ * counted per port, the offset of the connection's port from the transfer
+ * port (a file's chunk index, or a stream's connection index), folded onto
+ * {@link #MAX_PORTS} slots, and per session in each {@link SessionMetrics}.
+ *
+ * Read the counters with {@link #snapshot()} or over JMX as
+ * {@code org.app:type=TransferMetrics}.
+ */
+public final class TransferMetrics implements TransferMetricsMXBean {
+    public static final int MAX_PORTS = 64;
+    public static final String OBJECT_NAME = "org.app:type=TransferMetrics";
+
+    private static final TransferMetrics INSTANCE = new TransferMetrics();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            System.err.println("Could not register transfer metrics with JMX: " + e.getMessage());
+        }
+    }
+
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLongArray portBytesSent = new AtomicLongArray(MAX_PORTS);
+    private final AtomicLongArray portBytesReceived = new AtomicLongArray(MAX_PORTS);
+    // Active sessions in the order they started
+    private final List<SessionMetrics> sessions = new CopyOnWriteArrayList<>();
+    private final AtomicLong chunksCompleted = new AtomicLong();
+    private final AtomicLong chunksFailed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+    private final AtomicLong buffersInUse = new AtomicLong();
+    private final AtomicLong bufferBytesInUse = new AtomicLong();
+    private final LatencyHistogram chunkLatency = new LatencyHistogram();
+    private final LatencyHistogram diskWriteLatency = new LatencyHistogram();
+
+    // Baselines for the JMX "current" rates, one per attribute so polling one does not shorten the other's window
+    private volatile MetricsSnapshot lastRatePoll;
+    private volatile MetricsSnapshot lastPortRatePoll;
+
+    private TransferMetrics() {
+        lastRatePoll = snapshot();
+        lastPortRatePoll = lastRatePoll;
+    }
+
+    public static TransferMetrics get() {
+        return INSTANCE;
+    }
+
+    // Recording
+
+    /** Counts {@code session} as active from now on; its bytes are recorded through {@link SessionMetrics#record}. */
+    public void sessionStarted(SessionMetrics session) {
+        session.start();
+        sessions.add(session);
+    }
+
+    public void sessionEnded(SessionMetrics session) {
+        sessions.remove(session);
+    }
+
+    public void recordSent(int port, long bytes) {
+        bytesSent.addAndGet(bytes);
+        portBytesSent.addAndGet(port & (MAX_PORTS - 1), bytes);
+    }
+
+    public void recordReceived(int port, long bytes) {
+        bytesReceived.addAndGet(bytes);
+        portBytesReceived.addAndGet(port & (MAX_PORTS - 1), bytes);
+    }
+
+    public void recordChunkCompleted(long nanos) {
+        chunksCompleted.incrementAndGet();
+        chunkLatency.record(nanos);
+    }
+
+    public void recordChunkFailed() {
+        chunksFailed.incrementAndGet();
+    }
+
+    public void recordRetry() {
+        retries.incrementAndGet();
+    }
+
+    public void recordStall() {
+        stalls.incrementAndGet();
+    }
+
+    public void recordDiskWrite(long nanos) {
+        diskWriteLatency.record(nanos);
+    }
+
+    public void bufferAcquired(int capacity) {
+        buffersInUse.incrementAndGet();
+        bufferBytesInUse.addAndGet(capacity);
+    }
+
+    public void bufferReleased(int capacity) {
+        buffersInUse.decrementAndGet();
+        bufferBytesInUse.addAndGet(-capacity);
+    }
+
+    // Reading
+
+    public MetricsSnapshot snapshot() {
+        long[] sent = new long[MAX_PORTS];
+        long[] received = new long[MAX_PORTS];
+        for (int i = 0; i < MAX_PORTS; i++) {
+            sent[i] = portBytesSent.get(i);
+            received[i] = portBytesReceived.get(i);
+        }
+        SessionMetrics[] active = sessions.toArray(new SessionMetrics[0]);
+        String[] sessionNames = new String[active.length];
+        long[] sessionBytes = new long[active.length];
+        long[] sessionStartNanos = new long[active.length];
+        for (int i = 0; i < active.length; i++) {
+            sessionNames[i] = active[i].getName();
+            sessionBytes[i] = active[i].getBytes();
+            sessionStartNanos[i] = active[i].getStartNanos();
+        }
+        return new MetricsSnapshot(System.nanoTime(), bytesSent.get(), bytesReceived.get(), sent, received,
+                sessionNames, sessionBytes, sessionStartNanos,
+                chunksCompleted.get(), chunksFailed.get(), retries.get(), stalls.get(),
+                buffersInUse.get(), bufferBytesInUse.get(),
+                chunkLatency.getBuckets(), diskWriteLatency.getBuckets());
+    }
+
+    @Override
+    public long getBytesSent() { return bytesSent.get(); }
+
+    @Override
+    public long getBytesReceived() { return bytesReceived.get(); }
+
+    @Override
+    public double getCurrentBytesPerSecond() {
+        MetricsSnapshot now = snapshot();
+        double rate = now.bytesPerSecondSince(lastRatePoll);
+        lastRatePoll = now;
+        return rate;
+    }
+
+    @Override
+    public double[] getCurrentPortBytesPerSecond() {
+        MetricsSnapshot now = snapshot();
+        double[] rates = now.portBytesPerSecondSince(lastPortRatePoll);
+        lastPortRatePoll = now;
+        return rates;
+    }
+
+    @Override
+    public int getActiveSessions() { return sessions.size(); }
+
+    @Override
+    public String[] getSessions() { return snapshot().getSessions(); }
+
+    @Override
+    public long[] getSessionBytes() { return snapshot().getSessionBytes(); }
+
+    @Override
+    public double[] getSessionBytesPerSecond() { return snapshot().getSessionBytesPerSecond(); }
+
+    @Override
+    public long getChunksCompleted() { return chunksCompleted.get(); }
+
+    @Override
+    public long getChunksFailed() { return chunksFailed.get(); }
+
+    @Override
+    public long getRetries() { return retries.get(); }
+
+    @Override
+    public long getStalls() { return stalls.get(); }
+
+    @Override
+    public long getBuffersInUse() { return buffersInUse.get(); }
+
+    @Override
+    public long getBufferBytesInUse() { return bufferBytesInUse.get(); }
+
+    @Override
+    public long getDirectMemoryUsed() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public double getChunkLatencyP50Millis() {
+        return LatencyHistogram.percentileNanos(chunkLatency.getBuckets(), 50) / 1e6;
+    }
+
+    @Override
+    public double getChunkLatencyP99Millis() {
+        return LatencyHistogram.percentileNanos(chunkLatency.getBuckets(), 99) / 1e6;
+    }
+
+    @Override
+    public long[] getChunkLatencyHistogram() { return chunkLatency.getBuckets(); }
+
+    @Override
+    public double getDiskWriteLatencyP50Millis() {
+        return LatencyHistogram.percentileNanos(diskWriteLatency.getBuckets(), 50) / 1e6;
+    }
+
+    @Override
+    public double getDiskWriteLatencyP99Millis() {
+        return LatencyHistogram.percentileNanos(diskWriteLatency.getBuckets(), 99) / 1e6;
+    }
+
+    @Override
+    public long[] getDiskWriteLatencyHistogram() { return diskWriteLatency.getBuckets(); }
+
+    /** Clears counters and histograms; gauges (sessions and their bytes, buffers in use) keep their current values. */
+    @Override
+    public void reset() {
+        bytesSent.set(0);
+        bytesReceived.set(0);
+        for (int i = 0; i < MAX_PORTS; i++) {
+            portBytesSent.set(i, 0);
+            portBytesReceived.set(i, 0);
+        }
+        chunksCompleted.set(0);
+        chunksFailed.set(0);
+        retries.set(0);
+        stalls.set(0);
+        chunkLatency.reset();
+        diskWriteLatency.reset();
+        lastRatePoll = snapshot();
+        lastPortRatePoll = lastRatePoll;
+    }
+}
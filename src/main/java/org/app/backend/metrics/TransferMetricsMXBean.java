@@ -0,0 +1,37 @@
+package org.app.backend.metrics;
+
+/**
+ * JMX view of {@link TransferMetrics}, registered as {@code org.app:type=TransferMetrics}.
+ * "Current" rates cover the interval since the previous poll of the same attribute, so a
+ * monitoring agent polling at a fixed period gets per-period throughput. The session
+ * attributes have one element per active session, in the order the sessions started.
+ */
+public interface TransferMetricsMXBean {
+    long getBytesSent();
+    long getBytesReceived();
+    double getCurrentBytesPerSecond();
+    double[] getCurrentPortBytesPerSecond();
+
+    int getActiveSessions();
+    String[] getSessions();
+    long[] getSessionBytes();
+    double[] getSessionBytesPerSecond();
+
+    long getChunksCompleted();
+    long getChunksFailed();
+    long getRetries();
+    long getStalls();
+
+    long getBuffersInUse();
+    long getBufferBytesInUse();
+    long getDirectMemoryUsed();
+
+    double getChunkLatencyP50Millis();
+    double getChunkLatencyP99Millis();
+    long[] getChunkLatencyHistogram();
+    double getDiskWriteLatencyP50Millis();
+    double getDiskWriteLatencyP99Millis();
+    long[] getDiskWriteLatencyHistogram();
+
+    void reset();
+}
@@ -0,0 +1,233 @@
+package org.app.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loopback TCP proxy that sits between sender and receiver and degrades the
+ * link according to a {@link LinkProfile}. Each receiver port is mirrored at
+ * {@code port + portOffset}; the sender is pointed at the mirrored ports with
+ * {@code FileTransferManager.setRemotePorts}.
+ *
+ * Latency and the bandwidth cap apply to every connection. Resets and stalls
+ * are only injected on ports registered with {@code faults = true}, since the
+ * control connections have no retry logic and a reset there just aborts the session.
+ */
+public class ImpairedLinkProxy implements AutoCloseable {
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    private static final int MAX_QUEUED_SEGMENTS = 1024; // 64MB in flight per direction
+    private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+
+    private final LinkProfile profile;
+    private final InetAddress target;
+    private final int portOffset;
+    private final List<ServerSocket> servers = new CopyOnWriteArrayList<>();
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+    private final ExecutorService threads = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "link-proxy");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // One pacer per direction so the cap is shared by all streams, like a real link
+    private final Pacer upstream;
+    private final Pacer downstream;
+    private final AtomicLong bytesForwarded = new AtomicLong();
+    private final AtomicLong resetsInjected = new AtomicLong();
+    private final AtomicLong stallsInjected = new AtomicLong();
+    private volatile boolean running = true;
+
+    public ImpairedLinkProxy(LinkProfile profile, InetAddress target, int portOffset) {
+        this.profile = profile;
+        this.target = target;
+        this.portOffset = portOffset;
+        this.upstream = new Pacer(profile.getBytesPerSecond());
+        this.downstream = new Pacer(profile.getBytesPerSecond());
+    }
+
+    /** Starts mirroring {@code count} consecutive receiver ports starting at {@code firstTargetPort}. */
+    public void listen(int firstTargetPort, int count, boolean faults) throws IOException {
+        for (int port = firstTargetPort; port < firstTargetPort + count; port++) {
+            ServerSocket server = new ServerSocket();
+            server.setReuseAddress(true);
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port + portOffset));
+            servers.add(server);
+            int targetPort = port;
+            threads.execute(() -> acceptLoop(server, targetPort, faults));
+        }
+    }
+
+    public LinkProfile getProfile() { return profile; }
+    public long getBytesForwarded() { return bytesForwarded.get(); }
+    public long getResetsInjected() { return resetsInjected.get(); }
+    public long getStallsInjected() { return stallsInjected.get(); }
+
+    private void acceptLoop(ServerSocket server, int targetPort, boolean faults) {
+        while (running) {
+            try {
+                Socket client = server.accept();
+                Socket upstreamSocket;
+                try {
+                    upstreamSocket = new Socket(target, targetPort);
+                } catch (IOException e) {
+                    // Receiver not listening: refuse the client the same way
+                    abort(client);
+                    continue;
+                }
+                client.setTcpNoDelay(true);
+                upstreamSocket.setTcpNoDelay(true);
+                openSockets.add(client);
+                openSockets.add(upstreamSocket);
+                AtomicInteger openDirections = new AtomicInteger(2);
+                threads.execute(() -> pump(client, upstreamSocket, upstream, faults, openDirections));
+                threads.execute(() -> pump(upstreamSocket, client, downstream, faults, openDirections));
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Link proxy accept error on " + server.getLocalPort() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Reads from one side and queues segments for delayed, paced delivery to the other.
+    private void pump(Socket from, Socket to, Pacer pacer, boolean faults, AtomicInteger openDirections) {
+        BlockingQueue<Segment> queue = new ArrayBlockingQueue<>(MAX_QUEUED_SEGMENTS);
+        threads.execute(() -> deliver(queue, from, to, pacer, faults, openDirections));
+        long latencyNanos = TimeUnit.MILLISECONDS.toNanos(profile.getLatencyMillis());
+        try {
+            InputStream in = from.getInputStream();
+            while (true) {
+                byte[] data = new byte[SEGMENT_SIZE];
+                int read = in.read(data);
+                if (read < 0) {
+                    break;
+                }
+                queue.put(new Segment(System.nanoTime() + latencyNanos, data, read));
+            }
+        } catch (IOException | InterruptedException e) {
+            // Connection torn down; the delivery side closes the sockets
+        }
+        queue.offer(Segment.END);
+    }
+
+    private void deliver(BlockingQueue<Segment> queue, Socket from, Socket to, Pacer pacer,
+                         boolean faults, AtomicInteger openDirections) {
+        try {
+            OutputStream out = to.getOutputStream();
+            while (true) {
+                Segment segment = queue.take();
+                if (segment == Segment.END) {
+                    to.shutdownOutput();
+                    break;
+                }
+                long wait = segment.dueNanos() - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                if (faults && roll(profile.getStallsPerMB(), segment.length())) {
+                    stallsInjected.incrementAndGet();
+                    Thread.sleep(profile.getStallMillis());
+                }
+                pacer.acquire(segment.length());
+                out.write(segment.data(), 0, segment.length());
+                bytesForwarded.addAndGet(segment.length());
+                if (faults && roll(profile.getResetsPerMB(), segment.length())) {
+                    resetsInjected.incrementAndGet();
+                    abort(from);
+                    abort(to);
+                    return;
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            abort(from);
+            abort(to);
+            return;
+        }
+        if (openDirections.decrementAndGet() == 0) {
+            close(from);
+            close(to);
+        }
+    }
+
+    private static boolean roll(double perMB, int bytes) {
+        return perMB > 0 && ThreadLocalRandom.current().nextDouble() < perMB * bytes / BYTES_PER_MB;
+    }
+
+    // Closes with SO_LINGER 0 so the peer sees a RST rather than an orderly FIN.
+    private void abort(Socket socket) {
+        try {
+            socket.setSoLinger(true, 0);
+        } catch (IOException e) {
+            // Already closed
+        }
+        close(socket);
+    }
+
+    private void close(Socket socket) {
+        openSockets.remove(socket);
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignore close errors
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        for (ServerSocket server : servers) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // Ignore close errors
+            }
+        }
+        openSockets.forEach(this::close);
+        threads.shutdownNow();
+    }
+
+    private record Segment(long dueNanos, byte[] data, int length) {
+        static final Segment END = new Segment(0, new byte[0], 0);
+    }
+
+    private static class Pacer {
+        private final long bytesPerSecond;
+        private long nextFreeNanos;
+
+        Pacer(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void acquire(int bytes) throws InterruptedException {
+            if (bytesPerSecond <= 0) {
+                return;
+            }
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long start = Math.max(now, nextFreeNanos);
+                nextFreeNanos = start + bytes * 1_000_000_000L / bytesPerSecond;
+                wait = nextFreeNanos - now;
+            }
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.app.bench;
+
+import java.util.Locale;
+
+/**
+ * Impairments applied by {@link ImpairedLinkProxy}: one-way latency, a shared
+ * bandwidth cap, connection resets and mid-stream stalls. Reset and stall
+ * rates are expressed per MB forwarded so they scale with transfer size.
+ */
+public class LinkProfile {
+    private final String name;
+    private final long latencyMillis;
+    private final long bytesPerSecond;
+    private final double resetsPerMB;
+    private final double stallsPerMB;
+    private final long stallMillis;
+
+    public LinkProfile(String name, long latencyMillis, long bytesPerSecond,
+                       double resetsPerMB, double stallsPerMB, long stallMillis) {
+        this.name = name;
+        this.latencyMillis = latencyMillis;
+        this.bytesPerSecond = bytesPerSecond;
+        this.resetsPerMB = resetsPerMB;
+        this.stallsPerMB = stallsPerMB;
+        this.stallMillis = stallMillis;
+    }
+
+    public String getName() { return name; }
+    public long getLatencyMillis() { return latencyMillis; }
+    /** 0 means unlimited. */
+    public long getBytesPerSecond() { return bytesPerSecond; }
+    public double getResetsPerMB() { return resetsPerMB; }
+    public double getStallsPerMB() { return stallsPerMB; }
+    public long getStallMillis() { return stallMillis; }
+
+    /**
+     * Parses a preset name ({@code lan}, {@code wan}, {@code high-bdp}, {@code flaky-wifi})
+     * or a custom spec such as {@code latency=40,bandwidth=100mbit,reset=0.001,stall=0.002:5000}.
+     */
+    public static LinkProfile parse(String spec) {
+        switch (spec) {
+            case "lan":
+                return new LinkProfile("lan", 0, 0, 0, 0, 0);
+            case "wan":
+                return new LinkProfile("wan", 40, megabits(100), 0, 0, 0);
+            case "high-bdp":
+                return new LinkProfile("high-bdp", 100, megabits(1000), 0, 0, 0);
+            case "flaky-wifi":
+                return new LinkProfile("flaky-wifi", 8, megabits(50), 0.002, 0.002, 5000);
+            default:
+                break;
+        }
+
+        long latency = 0;
+        long bandwidth = 0;
+        double resets = 0;
+        double stalls = 0;
+        long stallMillis = 0;
+        for (String option : spec.split(",")) {
+            String[] pair = option.split("=", 2);
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Invalid link option: " + option);
+            }
+            String value = pair[1].trim().toLowerCase(Locale.ROOT);
+            switch (pair[0].trim()) {
+                case "latency" -> latency = Long.parseLong(value);
+                case "bandwidth" -> bandwidth = parseBandwidth(value);
+                case "reset" -> resets = Double.parseDouble(value);
+                case "stall" -> {
+                    String[] stall = value.split(":", 2);
+                    stalls = Double.parseDouble(stall[0]);
+                    stallMillis = stall.length > 1 ? Long.parseLong(stall[1]) : 5000;
+                }
+                default -> throw new IllegalArgumentException("Unknown link option: " + pair[0]);
+            }
+        }
+        return new LinkProfile(spec, latency, bandwidth, resets, stalls, stallMillis);
+    }
+
+    private static long parseBandwidth(String value) {
+        if (value.endsWith("gbit")) {
+            return megabits(Long.parseLong(value.substring(0, value.length() - 4)) * 1000);
+        } else if (value.endsWith("mbit")) {
+            return megabits(Long.parseLong(value.substring(0, value.length() - 4)));
+        } else if (value.endsWith("mb")) {
+            return Long.parseLong(value.substring(0, value.length() - 2)) * 1024 * 1024;
+        }
+        return Long.parseLong(value);
+    }
+
+    private static long megabits(long mbit) {
+        return mbit * 1_000_000 / 8;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s (latency %d ms, %s, %.4f resets/MB, %.4f stalls/MB of %d ms)",
+                name, latencyMillis, bytesPerSecond == 0 ? "unlimited" : bytesPerSecond * 8 / 1_000_000 + " Mbit/s",
+                resetsPerMB, stallsPerMB, stallMillis);
+    }
+}
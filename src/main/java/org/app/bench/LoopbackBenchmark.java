@@ -0,0 +1,565 @@
+package org.app.bench;
+
+import org.app.User;
+import org.app.backend.ChunkIndex;
+import org.app.backend.ChunkRecipe;
+import org.app.backend.ChunkSink;
+import org.app.backend.ChunkSinks;
+import org.app.backend.ChunkSource;
+import org.app.backend.ChunkSources;
+import org.app.backend.FileTransferManager;
+import org.app.backend.PeerIdentity;
+import org.app.backend.TransferListener;
+import org.app.backend.TransferRole;
+import org.app.backend.WriteEngine;
+import org.app.backend.WriteOrder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * End-to-end macro benchmark: runs complete {@link FileTransferManager} sessions
+ * from a sender to a receiver in the same JVM over loopback, one session per
+ * synthetic dataset, and writes a tab-separated report that can be diffed
+ * between builds. Both sides share the process, so its CPU time, peak RSS and
+ * GC time columns are whole-process figures for sender and receiver together. With {@code --link} the session runs through an
+ * {@link ImpairedLinkProxy} to measure retry recovery and effective throughput
+ * under WAN-like or flaky conditions.
+ *
+ * <pre>
+ * java -cp target/classes org.app.bench.LoopbackBenchmark [--datasets large,small,mixed,sparse]
+ *      [--scale 1.0] [--label build] [--out report.tsv] [--scratch dir] [--keep]
+ *      [--link lan|wan|high-bdp|flaky-wifi|latency=40,bandwidth=100mbit,reset=0.001,stall=0.002:5000]
+ *      [--compress] [--no-zero-elision] [--delta] [--dedup] [--resume] [--no-verify]
+ *      [--write-engine auto|positional|transfer-from|mapped] [--write-order auto|parallel|sequential]
+ *      [--preallocate] [--source file|mapped|synthetic] [--sink files|file|mapped|memory|discard] [--stream]
+ * java -cp target/classes org.app.bench.LoopbackBenchmark compare baseline.tsv candidate.tsv
+ * </pre>
+ *
+ * {@code --scale} shrinks every dataset proportionally, e.g. 0.01 for a quick smoke run.
+ * {@code --compress} turns on the sender's per-chunk compression; MB/s is then the
+ * effective rate in file bytes, which is what matters on a bandwidth-capped {@code --link}.
+ * {@code --no-zero-elision} sends all-zero blocks as data, for comparing against the
+ * default hole frames on the sparse dataset. {@code --delta} seeds the receive
+ * directory with a slightly different previous version of every file and sends
+ * in delta mode, so MB/s is the effective rate of re-pushing changed files.
+ * {@code --dedup} puts the same previous versions there and indexes their
+ * content-defined chunks, as if an earlier deduplicating session had delivered
+ * them, then sends in dedup mode.
+ * {@code --resume} puts an identical copy of the first half of the files there,
+ * as an interrupted session would, which the manifest exchange then skips.
+ * {@code --no-verify} sends files without their hash tree, to measure what
+ * per-chunk verification costs.
+ * {@code --write-engine} fixes how the receiver writes raw chunks instead of
+ * choosing by file size, and {@code --write-order} whether chunks are
+ * committed in offset order instead of detecting it from the file system.
+ * {@code --preallocate} has the receiver zero-fill each file before its chunks
+ * arrive; the time is included.
+ * {@code --source} sends each file through a different {@link ChunkSource}:
+ * mapped, or generated pseudo-random bytes of the same name and size, which
+ * takes the sender's disk out of the measurement. Sources other than
+ * {@code file} skip the manifest exchange.
+ * {@code --sink} has the receiver write through a {@link ChunkSink} instead of
+ * into its save directory: a plain or mapped file there, a buffer in memory,
+ * or nowhere, which takes the receiver's disk out of the measurement.
+ * {@code --stream} pipes each dataset's files back to back through an
+ * {@code InputStream} and sends them as one stream of unknown length, received
+ * as {@code <dataset>.stream}; sources, delta, dedup and resume do not apply.
+ * The peer ID and caches go to {@code config} in the scratch directory rather
+ * than {@code ~/.fileshare}, unless {@code -Dfileshare.config.dir} is given.
+ */
+public class LoopbackBenchmark {
+    private static final String LOOPBACK = "127.0.0.1";
+    private static final String RECEIVER_NAME = "bench-receiver";
+    private static final String SENDER_NAME = "bench-sender";
+    // CPU, RSS and GC are measured for the whole JVM, so they cover sender and receiver together
+    private static final String REPORT_HEADER = "label\tdataset\tfiles\tbytes\tseconds\tMB/s\tttfb_ms"
+            + "\tprocess_cpu_ms\tprocess_peak_rss_mb\tprocess_gc_ms\tlink\tcodec\tresets\tstalls\tretries"
+            + "\trecovery_ms\tstatus";
+    // Receiver ports mirrored by the link proxy, see Receiver
+    private static final int CONNECTION_PORT = 9080;
+    private static final int RECEIVING_PORT = 9090;
+    private static final int PROXY_PORT_OFFSET = 10000;
+    private static final int MAX_PROXIED_CHUNK_PORTS = 4096;
+    private static final long MIN_CHUNK_SIZE = 64L * 1024 * 1024;
+
+    private final String label;
+    private final Path scratch;
+    private final double scale;
+    private final boolean keep;
+    private final LinkProfile link;
+    private final boolean compress;
+    private final boolean zeroElision;
+    private final boolean delta;
+    private final boolean dedup;
+    private final boolean resume;
+    private final boolean verification;
+    private final WriteEngine writeEngine;
+    private final WriteOrder writeOrder;
+    private final boolean preallocation;
+    private final String source;
+    private final String sink;
+    private final boolean stream;
+
+    public LoopbackBenchmark(String label, Path scratch, double scale, boolean keep, LinkProfile link,
+                             boolean compress, boolean zeroElision, boolean delta, boolean dedup,
+                             boolean resume, boolean verification, WriteEngine writeEngine,
+                             WriteOrder writeOrder, boolean preallocation, String source, String sink,
+                             boolean stream) {
+        this.label = label;
+        this.scratch = scratch;
+        this.scale = scale;
+        this.keep = keep;
+        this.link = link;
+        this.compress = compress;
+        this.zeroElision = zeroElision;
+        this.delta = delta;
+        this.dedup = dedup;
+        this.resume = resume;
+        this.verification = verification;
+        this.writeEngine = writeEngine;
+        this.writeOrder = writeOrder;
+        this.preallocation = preallocation;
+        this.source = source;
+        this.sink = sink;
+        this.stream = stream;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length > 0 && args[0].equals("compare")) {
+            if (args.length != 3) {
+                System.err.println("Usage: LoopbackBenchmark compare <baseline.tsv> <candidate.tsv>");
+                System.exit(2);
+            }
+            compare(Path.of(args[1]), Path.of(args[2]));
+            return;
+        }
+
+        String datasets = "large,small,mixed,sparse";
+        String label = "local";
+        String out = null;
+        Path scratch = null;
+        double scale = 1.0;
+        boolean keep = false;
+        LinkProfile link = null;
+        boolean compress = false;
+        boolean zeroElision = true;
+        boolean delta = false;
+        boolean dedup = false;
+        boolean resume = false;
+        boolean verification = true;
+        WriteEngine writeEngine = WriteEngine.AUTO;
+        WriteOrder writeOrder = WriteOrder.AUTO;
+        boolean preallocation = false;
+        String source = "file";
+        String sink = "files";
+        boolean stream = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--datasets" -> datasets = args[++i];
+                case "--scale" -> scale = Double.parseDouble(args[++i]);
+                case "--label" -> label = args[++i];
+                case "--out" -> out = args[++i];
+                case "--scratch" -> scratch = Path.of(args[++i]);
+                case "--keep" -> keep = true;
+                case "--link" -> link = LinkProfile.parse(args[++i]);
+                case "--compress" -> compress = true;
+                case "--no-zero-elision" -> zeroElision = false;
+                case "--delta" -> delta = true;
+                case "--dedup" -> dedup = true;
+                case "--resume" -> resume = true;
+                case "--no-verify" -> verification = false;
+                case "--write-engine" -> writeEngine = WriteEngine.valueOf(
+                        args[++i].toUpperCase(Locale.ROOT).replace('-', '_'));
+                case "--write-order" -> writeOrder = WriteOrder.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                case "--preallocate" -> preallocation = true;
+                case "--source" -> source = args[++i];
+                case "--sink" -> sink = args[++i];
+                case "--stream" -> stream = true;
+                default -> {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+                }
+            }
+        }
+        if (scratch == null) {
+            scratch = Files.createTempDirectory("fileshare-bench");
+        }
+        // The chunk index and content hash cache would otherwise fill up with scratch files in ~/.fileshare
+        Path configDir = null;
+        if (System.getProperty(PeerIdentity.CONFIG_DIR_PROPERTY) == null) {
+            configDir = scratch.resolve("config");
+            System.setProperty(PeerIdentity.CONFIG_DIR_PROPERTY, configDir.toString());
+        }
+        Path report = Path.of(out != null ? out : "bench-report-" + label + ".tsv");
+
+        LoopbackBenchmark benchmark = new LoopbackBenchmark(label, scratch, scale, keep, link, compress,
+                zeroElision, delta, dedup, resume, verification, writeEngine,
+                writeOrder, preallocation, source, sink, stream);
+        List<String> rows = new ArrayList<>();
+        for (String dataset : datasets.split(",")) {
+            rows.add(benchmark.run(dataset.trim()));
+        }
+
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(report))) {
+            writer.println(REPORT_HEADER);
+            rows.forEach(writer::println);
+        }
+        System.out.println();
+        System.out.println(REPORT_HEADER);
+        rows.forEach(System.out::println);
+        System.out.println("Report written to " + report.toAbsolutePath());
+        if (configDir != null && !keep) {
+            SyntheticDataset.deleteTree(configDir);
+        }
+        System.exit(0);
+    }
+
+    /** Generates one dataset, sends it over loopback and returns its report row. */
+    public String run(String datasetName) throws IOException, InterruptedException {
+        long needed = SyntheticDataset.plannedDiskUsage(datasetName, scale);
+        if (Files.getFileStore(scratch).getUsableSpace() < needed) {
+            return skipped(datasetName, "SKIPPED: needs " + needed + " bytes of scratch space");
+        }
+
+        System.out.println("Generating dataset '" + datasetName + "' in " + scratch);
+        SyntheticDataset dataset = SyntheticDataset.generate(datasetName, scratch, scale);
+        Path receiveDir = Files.createDirectories(scratch.resolve("received-" + datasetName));
+        try {
+            // Delta and dedup modes keep the previous version beside the new one
+            long receiverBytes = delta || dedup ? 2 * dataset.getTotalBytes() : dataset.getTotalBytes();
+            if (Files.getFileStore(receiveDir).getUsableSpace() < receiverBytes) {
+                return skipped(datasetName, "SKIPPED: receiver needs " + receiverBytes + " bytes");
+            }
+            if (delta || dedup) {
+                dataset.writePreviousVersions(receiveDir);
+            }
+            if (dedup) {
+                indexAsReceived(receiveDir);
+            }
+            if (resume) {
+                dataset.writeInterruptedSession(receiveDir);
+            }
+            return runSession(dataset, receiveDir);
+        } finally {
+            if (!keep) {
+                SyntheticDataset.deleteTree(receiveDir);
+                dataset.delete();
+            }
+        }
+    }
+
+    // Records the chunks of every file in dir as a deduplicating receiver would have after receiving them
+    private static void indexAsReceived(Path dir) throws IOException {
+        ChunkIndex index = new ChunkIndex();
+        for (File file : dir.toFile().listFiles(File::isFile)) {
+            try (ChunkSource source = ChunkSources.file(file)) {
+                index.addAll(file.toPath(), source.size(), ChunkRecipe.compute(source, source.size(), (int) MIN_CHUNK_SIZE));
+            }
+        }
+        index.save();
+    }
+
+    private String runSession(SyntheticDataset dataset, Path receiveDir) throws IOException, InterruptedException {
+        File[] files = dataset.getFiles().toArray(new File[0]);
+        FileTransferManager receiverManager = new FileTransferManager();
+        FileTransferManager senderManager = new FileTransferManager();
+        receiverManager.setConnectionApprover(request -> true);
+        receiverManager.setWriteEngine(writeEngine);
+        receiverManager.setWriteOrder(writeOrder);
+        receiverManager.setPreallocation(preallocation);
+        receiverManager.setSinkFactory(sinkFactory(receiveDir));
+        senderManager.setCompression(compress);
+        senderManager.setZeroElision(zeroElision);
+        senderManager.setDelta(delta);
+        senderManager.setDeduplication(dedup);
+        senderManager.setVerification(verification);
+
+        CountDownLatch listening = new CountDownLatch(1);
+        CountDownLatch received = new CountDownLatch(1);
+        CountDownLatch sent = new CountDownLatch(1);
+        AtomicLong firstByteNanos = new AtomicLong();
+        AtomicReference<String> failure = new AtomicReference<>();
+        RetryTracker retries = new RetryTracker();
+        ImpairedLinkProxy proxy = link == null ? null : startProxy(dataset);
+
+        try {
+            receiverManager.startReceiving(RECEIVER_NAME, receiveDir.toString(), new TransferListener() {
+                @Override
+                public void onListening(int port) {
+                    listening.countDown();
+                }
+
+                @Override
+                public void onChunkProgress(int chunkIndex, long bytes) {
+                    if (firstByteNanos.get() == 0) {
+                        firstByteNanos.compareAndSet(0, System.nanoTime());
+                    }
+                }
+
+                @Override
+                public void onSessionCompleted(TransferRole role, String peer) {
+                    received.countDown();
+                }
+
+                @Override
+                public void onSessionFailed(TransferRole role, String peer, Throwable cause) {
+                    failure.compareAndSet(null, "receiver: " + cause.getMessage());
+                    received.countDown();
+                }
+            });
+            if (!listening.await(30, TimeUnit.SECONDS)) {
+                return skipped(dataset.getName(), "FAILED: receiver did not start listening");
+            }
+
+            System.gc();
+            ProcessStats.resetPeaks();
+            ProcessStats before = ProcessStats.capture();
+            long startNanos = System.nanoTime();
+
+            User receiver = new User(RECEIVER_NAME, LOOPBACK);
+            if (proxy != null) {
+                senderManager.setRemotePorts(CONNECTION_PORT + PROXY_PORT_OFFSET, RECEIVING_PORT + PROXY_PORT_OFFSET);
+            }
+            String streamName = dataset.getName() + ".stream";
+            List<ChunkSource> sources = stream ? null : sources(files);
+            boolean accepted = stream ? senderManager.sendStreamRequest(receiver, SENDER_NAME, streamName)
+                    : sources == null ? senderManager.sendConnectionRequest(receiver, SENDER_NAME, files)
+                    : senderManager.sendConnectionRequest(receiver, SENDER_NAME, sources);
+            if (!accepted) {
+                return skipped(dataset.getName(), "FAILED: connection request refused");
+            }
+            TransferListener senderEvents = new TransferListener() {
+                @Override
+                public void onFileStarted(String fileName, long fileSize, int totalChunks, int fileIndex, int totalFiles) {
+                    retries.fileStarted();
+                }
+
+                @Override
+                public void onChunkRetry(int chunkIndex, int attempt, Throwable cause) {
+                    retries.chunkRetry(chunkIndex);
+                }
+
+                @Override
+                public void onChunkCompleted(int chunkIndex, int completedChunks, int totalChunks) {
+                    retries.chunkCompleted(chunkIndex);
+                }
+
+                @Override
+                public void onSessionCompleted(TransferRole role, String peer) {
+                    sent.countDown();
+                }
+
+                @Override
+                public void onSessionFailed(TransferRole role, String peer, Throwable cause) {
+                    failure.compareAndSet(null, "sender: " + cause.getMessage());
+                    sent.countDown();
+                    received.countDown();
+                }
+            };
+            if (stream) {
+                senderManager.startSendingStream(receiver, streamName, concatenated(files), senderEvents);
+            } else if (sources == null) {
+                senderManager.startSendingFiles(receiver, SENDER_NAME, files, senderEvents);
+            } else {
+                senderManager.startSendingSources(receiver, sources, senderEvents);
+            }
+
+            // Generous bound: 30 minutes plus 20 MB/s worth of data
+            long timeoutSeconds = 1800 + dataset.getTotalBytes() / (20L * 1024 * 1024);
+            boolean completed = received.await(timeoutSeconds, TimeUnit.SECONDS)
+                    && sent.await(60, TimeUnit.SECONDS);
+            long endNanos = System.nanoTime();
+            ProcessStats after = ProcessStats.capture();
+
+            String status = !completed ? "FAILED: timed out"
+                    : failure.get() != null ? "FAILED: " + failure.get().replace('\t', ' ')
+                    : "OK";
+            double seconds = (endNanos - startNanos) / 1e9;
+            long ttfbMillis = firstByteNanos.get() == 0 ? -1 : (firstByteNanos.get() - startNanos) / 1_000_000;
+            return String.format(Locale.ROOT, "%s\t%s\t%d\t%d\t%.3f\t%.2f\t%d\t%d\t%.1f\t%d\t%s\t%s\t%d\t%d\t%d\t%d\t%s",
+                    label, dataset.getName(), files.length, dataset.getTotalBytes(), seconds,
+                    dataset.getTotalBytes() / (1024.0 * 1024.0) / seconds, ttfbMillis,
+                    after.cpuMillisSince(before), ProcessStats.peakRssBytes() / (1024.0 * 1024.0),
+                    after.gcMillisSince(before), link == null ? "direct" : link.getName(), codec(),
+                    proxy == null ? 0 : proxy.getResetsInjected(), proxy == null ? 0 : proxy.getStallsInjected(),
+                    retries.getRetries(), retries.getRecoveryMillis(), status);
+        } finally {
+            senderManager.shutdown();
+            receiverManager.shutdown();
+            if (proxy != null) {
+                proxy.close();
+            }
+        }
+    }
+
+    // Null to send the files themselves; otherwise one source per file, closed by the session
+    private List<ChunkSource> sources(File[] files) throws IOException {
+        if (source.equals("file")) {
+            return null;
+        }
+        List<ChunkSource> sources = new ArrayList<>();
+        for (int i = 0; i < files.length; i++) {
+            sources.add(switch (source) {
+                case "mapped" -> ChunkSources.mapped(files[i]);
+                case "synthetic" -> ChunkSources.synthetic(files[i].getName(), files[i].length(), i);
+                default -> throw new IllegalArgumentException("Unknown source: " + source);
+            });
+        }
+        return sources;
+    }
+
+    // The files back to back, each opened once the previous one is used up, as a stream of unknown length
+    private static ReadableByteChannel concatenated(File[] files) {
+        Iterator<File> remaining = Arrays.asList(files).iterator();
+        return Channels.newChannel(new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return remaining.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                try {
+                    return new FileInputStream(remaining.next());
+                } catch (FileNotFoundException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }));
+    }
+
+    // Null to let the receiver write into its save directory as usual
+    private ChunkSink.Factory sinkFactory(Path receiveDir) {
+        return switch (sink) {
+            case "files" -> null;
+            case "file" -> (name, size) -> ChunkSinks.file(receiveDir.resolve(name), size);
+            case "mapped" -> (name, size) -> ChunkSinks.mapped(receiveDir.resolve(name), size);
+            case "memory" -> (name, size) -> ChunkSinks.memory(size, data -> { });
+            case "discard" -> (name, size) -> ChunkSinks.discard();
+            default -> throw new IllegalArgumentException("Unknown sink: " + sink);
+        };
+    }
+
+    private ImpairedLinkProxy startProxy(SyntheticDataset dataset) throws IOException {
+        // Enough chunk ports for the largest file; chunks are never smaller than 64MB unless the file is
+        long largest = dataset.getFiles().stream().mapToLong(File::length).max().orElse(0);
+        int chunkPorts = (int) Math.min(MAX_PROXIED_CHUNK_PORTS, Math.max(1, (largest + MIN_CHUNK_SIZE - 1) / MIN_CHUNK_SIZE));
+        ImpairedLinkProxy proxy = new ImpairedLinkProxy(link, InetAddress.getLoopbackAddress(), PROXY_PORT_OFFSET);
+        proxy.listen(CONNECTION_PORT, 1, false);
+        proxy.listen(RECEIVING_PORT, 1, false);
+        proxy.listen(RECEIVING_PORT + 1, chunkPorts, true);
+        System.out.println("Routing through link proxy: " + link);
+        return proxy;
+    }
+
+    /**
+     * Counts chunk retries reported by the sender and sums the time from each
+     * chunk's first failure until that chunk completes.
+     */
+    private static class RetryTracker {
+        private final Map<Integer, Long> failingSince = new ConcurrentHashMap<>();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong recoveryNanos = new AtomicLong();
+
+        void fileStarted() {
+            failingSince.clear();
+        }
+
+        void chunkRetry(int chunkIndex) {
+            retries.incrementAndGet();
+            failingSince.putIfAbsent(chunkIndex, System.nanoTime());
+        }
+
+        void chunkCompleted(int chunkIndex) {
+            Long since = failingSince.remove(chunkIndex);
+            if (since != null) {
+                recoveryNanos.addAndGet(System.nanoTime() - since);
+            }
+        }
+
+        long getRetries() { return retries.get(); }
+        long getRecoveryMillis() { return recoveryNanos.get() / 1_000_000; }
+    }
+
+    private String skipped(String dataset, String reason) {
+        System.out.println("Dataset '" + dataset + "': " + reason);
+        return String.join("\t", label, dataset, "0", "0", "0", "0", "-1", "-1", "0", "0",
+                link == null ? "direct" : link.getName(), codec(), "0", "0", "0", "0", reason);
+    }
+
+    private String codec() {
+        String codec = compress ? "deflate" : "raw";
+        codec = zeroElision ? codec : codec + "-nozero";
+        codec = delta ? codec + "-delta" : codec;
+        codec = dedup ? codec + "-dedup" : codec;
+        codec = verification ? codec : codec + "-noverify";
+        codec = writeEngine == WriteEngine.AUTO ? codec
+                : codec + "-" + writeEngine.name().toLowerCase(Locale.ROOT).replace('_', '-');
+        codec = writeOrder == WriteOrder.AUTO ? codec : codec + "-" + writeOrder.name().toLowerCase(Locale.ROOT);
+        codec = preallocation ? codec + "-prealloc" : codec;
+        codec = source.equals("file") ? codec : codec + "-" + source;
+        codec = sink.equals("files") ? codec : codec + "-" + sink + "-sink";
+        codec = stream ? codec + "-stream" : codec;
+        return resume ? codec + "-resume" : codec;
+    }
+
+    /** Prints per-dataset throughput and cost deltas of a candidate report against a baseline. */
+    public static void compare(Path baselineReport, Path candidateReport) throws IOException {
+        Map<String, String[]> baseline = readReport(baselineReport);
+        Map<String, String[]> candidate = readReport(candidateReport);
+        System.out.printf(Locale.ROOT, "%-10s %12s %12s %9s %11s %13s %13s%n",
+                "dataset", "base MB/s", "cand MB/s", "delta", "ttfb ms", "proc cpu ms", "proc rss MB");
+        for (Map.Entry<String, String[]> entry : candidate.entrySet()) {
+            String[] base = baseline.get(entry.getKey());
+            String[] cand = entry.getValue();
+            if (base == null) {
+                System.out.printf(Locale.ROOT, "%-10s %12s %12s%n", entry.getKey(), "-", cand[5]);
+                continue;
+            }
+            double baseRate = Double.parseDouble(base[5]);
+            double candRate = Double.parseDouble(cand[5]);
+            double delta = baseRate > 0 ? (candRate - baseRate) * 100.0 / baseRate : 0;
+            System.out.printf(Locale.ROOT, "%-10s %12.2f %12.2f %+8.1f%% %4s->%-5s %5s->%-6s %5s->%-6s%n",
+                    entry.getKey(), baseRate, candRate, delta,
+                    base[6], cand[6], base[7], cand[7], base[8], cand[8]);
+        }
+    }
+
+    private static Map<String, String[]> readReport(Path report) throws IOException {
+        Map<String, String[]> rows = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(report)) {
+            if (line.isBlank() || line.startsWith("label\t")) {
+                continue;
+            }
+            String[] columns = line.split("\t");
+            rows.put(columns[1], columns);
+        }
+        return rows;
+    }
+}
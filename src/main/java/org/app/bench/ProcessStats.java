@@ -0,0 +1,84 @@
+package org.app.bench;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Point-in-time process counters used to attribute CPU, GC and memory cost to
+ * a single benchmark run. They cover the whole JVM, sender and receiver alike.
+ * Peak RSS comes from /proc on Linux; elsewhere the peak committed heap is
+ * reported instead.
+ */
+public class ProcessStats {
+    private static final Path PROC_STATUS = Path.of("/proc/self/status");
+    private static final Path PROC_CLEAR_REFS = Path.of("/proc/self/clear_refs");
+
+    private final long cpuNanos;
+    private final long gcMillis;
+
+    private ProcessStats(long cpuNanos, long gcMillis) {
+        this.cpuNanos = cpuNanos;
+        this.gcMillis = gcMillis;
+    }
+
+    public static ProcessStats capture() {
+        long cpu = -1;
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            cpu = os.getProcessCpuTime();
+        }
+        long gc = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gc += Math.max(0, collector.getCollectionTime());
+        }
+        return new ProcessStats(cpu, gc);
+    }
+
+    public long cpuMillisSince(ProcessStats start) {
+        if (cpuNanos < 0 || start.cpuNanos < 0) {
+            return -1;
+        }
+        return (cpuNanos - start.cpuNanos) / 1_000_000;
+    }
+
+    public long gcMillisSince(ProcessStats start) {
+        return gcMillis - start.gcMillis;
+    }
+
+    /** Resets the high-water marks so the next {@link #peakRssBytes()} covers only the coming run. */
+    public static void resetPeaks() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        try {
+            // "5" resets VmHWM to the current RSS (Linux 4.0+)
+            Files.writeString(PROC_CLEAR_REFS, "5");
+        } catch (IOException | SecurityException | UnsupportedOperationException e) {
+            // Not Linux or not permitted; peakRssBytes() falls back to heap peaks
+        }
+    }
+
+    public static long peakRssBytes() {
+        try {
+            for (String line : Files.readAllLines(PROC_STATUS)) {
+                if (line.startsWith("VmHWM:")) {
+                    String kb = line.substring("VmHWM:".length()).replace("kB", "").trim();
+                    return Long.parseLong(kb) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Fall through to the JVM's own view
+        }
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getCommitted();
+            }
+        }
+        return peak;
+    }
+}
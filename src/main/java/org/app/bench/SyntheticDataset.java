@@ -0,0 +1,285 @@
+package org.app.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Datasets for the loopback benchmark, generated on the fly into a scratch
+ * directory so no large fixtures have to be checked in. Content is derived
+ * from a fixed seed, so every build sends exactly the same bytes.
+ */
+public class SyntheticDataset {
+    private static final int WRITE_BLOCK = 1024 * 1024;
+    private static final long SEED = 0x5EED_F11EL;
+
+    private final String name;
+    private final Path root;
+    private final List<File> files;
+    private final long totalBytes;
+
+    private SyntheticDataset(String name, Path root, List<File> files) {
+        this.name = name;
+        this.root = root;
+        this.files = files;
+        this.totalBytes = files.stream().mapToLong(File::length).sum();
+    }
+
+    public String getName() { return name; }
+    public Path getRoot() { return root; }
+    public List<File> getFiles() { return files; }
+    public long getTotalBytes() { return totalBytes; }
+
+    /** Bytes the dataset occupies on disk, which is far less than {@link #getTotalBytes()} for sparse files. */
+    public static long plannedDiskUsage(String name, double scale) {
+        return switch (name) {
+            case "large" -> scaled(20L << 30, scale);
+            case "small" -> (long) Math.max(1, 10_000 * scale) * 36 * 1024;
+            case "mixed" -> scaled(2L << 30, scale);
+            case "sparse" -> 2 * 64L * WRITE_BLOCK;
+            default -> throw new IllegalArgumentException("Unknown dataset: " + name);
+        };
+    }
+
+    public static SyntheticDataset generate(String name, Path scratch, double scale) throws IOException {
+        Path root = Files.createDirectories(scratch.resolve(name));
+        List<File> files = switch (name) {
+            case "large" -> generateLarge(root, scale);
+            case "small" -> generateSmall(root, scale);
+            case "mixed" -> generateMixed(root, scale);
+            case "sparse" -> generateSparse(root, scale);
+            default -> throw new IllegalArgumentException("Unknown dataset: " + name);
+        };
+        return new SyntheticDataset(name, root, files);
+    }
+
+    // One 20 GB file of incompressible data.
+    private static List<File> generateLarge(Path root, double scale) throws IOException {
+        SplittableRandom random = new SplittableRandom(SEED);
+        return List.of(writeRandom(root.resolve("large.bin"), scaled(20L << 30, scale), random));
+    }
+
+    // 10k files between 4 KB and 64 KB.
+    private static List<File> generateSmall(Path root, double scale) throws IOException {
+        SplittableRandom random = new SplittableRandom(SEED);
+        int count = (int) Math.max(1, 10_000 * scale);
+        List<File> files = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long size = 4096 + random.nextInt(60 * 1024);
+            files.add(writeRandom(root.resolve(String.format("small_%05d.bin", i)), size, random));
+        }
+        return files;
+    }
+
+    /*
+     * A nested tree mixing random binaries, text-like CSV and zero-filled images,
+     * roughly 2 GB in total. The sender only ships flat file lists, so names are
+     * kept unique across directories.
+     */
+    private static List<File> generateMixed(Path root, double scale) throws IOException {
+        SplittableRandom random = new SplittableRandom(SEED);
+        List<File> files = new ArrayList<>();
+        long budget = scaled(2L << 30, scale);
+        int index = 0;
+        while (budget > 0) {
+            Path dir = Files.createDirectories(root.resolve("dir" + (index % 8)).resolve("sub" + (index % 3)));
+            long size;
+            File file;
+            switch (index % 4) {
+                case 0 -> {
+                    size = Math.min(budget, 1024L * 1024 + random.nextLong(96L * 1024 * 1024));
+                    file = writeRandom(dir.resolve("blob_" + index + ".bin"), size, random);
+                }
+                case 1 -> {
+                    size = Math.min(budget, 256L * 1024 + random.nextLong(32L * 1024 * 1024));
+                    file = writeCsv(dir.resolve("table_" + index + ".csv"), size, random);
+                }
+                case 2 -> {
+                    size = Math.min(budget, 16L * 1024 * 1024 + random.nextLong(128L * 1024 * 1024));
+                    file = writeMostlyZero(dir.resolve("image_" + index + ".img"), size, random);
+                }
+                default -> {
+                    size = Math.min(budget, 1024 + random.nextLong(64 * 1024));
+                    file = writeRandom(dir.resolve("note_" + index + ".dat"), size, random);
+                }
+            }
+            files.add(file);
+            budget -= size;
+            index++;
+        }
+        return files;
+    }
+
+    // Two sparse 2 TB files holding only a few MB of real data each.
+    private static List<File> generateSparse(Path root, double scale) throws IOException {
+        SplittableRandom random = new SplittableRandom(SEED);
+        List<File> files = new ArrayList<>();
+        long logicalSize = scaled(2L << 40, scale);
+        for (int i = 0; i < 2; i++) {
+            Path path = root.resolve("sparse_" + i + ".vmdk");
+            try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "rw")) {
+                raf.setLength(logicalSize);
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                ByteBuffer block = ByteBuffer.allocateDirect(WRITE_BLOCK);
+                for (int extent = 0; extent < 64; extent++) {
+                    long position = Math.max(0, random.nextLong(logicalSize) - WRITE_BLOCK);
+                    fillRandom(block, random);
+                    block.limit((int) Math.min(WRITE_BLOCK, logicalSize - position));
+                    writeFully(channel, block, position);
+                }
+            }
+            files.add(path.toFile());
+        }
+        return files;
+    }
+
+    private static File writeRandom(Path path, long size, SplittableRandom random) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer block = ByteBuffer.allocateDirect(WRITE_BLOCK);
+            long position = 0;
+            while (position < size) {
+                fillRandom(block, random);
+                block.limit((int) Math.min(WRITE_BLOCK, size - position));
+                position += writeFully(channel, block, position);
+            }
+        }
+        return path.toFile();
+    }
+
+    private static File writeCsv(Path path, long size, SplittableRandom random) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            StringBuilder rows = new StringBuilder(WRITE_BLOCK + 256);
+            long position = 0;
+            long rowId = 0;
+            while (position < size) {
+                rows.setLength(0);
+                while (rows.length() < WRITE_BLOCK) {
+                    rows.append(rowId++).append(",2024-0").append(1 + random.nextInt(9))
+                        .append("-1").append(random.nextInt(10)).append(",sensor-")
+                        .append(random.nextInt(64)).append(',').append(random.nextInt(100_000) / 100.0)
+                        .append(",OK\n");
+                }
+                ByteBuffer block = ByteBuffer.wrap(rows.toString().getBytes(StandardCharsets.US_ASCII));
+                block.limit((int) Math.min(block.limit(), size - position));
+                position += writeFully(channel, block, position);
+            }
+        }
+        return path.toFile();
+    }
+
+    // Preallocated-image style file: zero-filled with one random extent every 16 MB.
+    private static File writeMostlyZero(Path path, long size, SplittableRandom random) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer zeros = ByteBuffer.allocateDirect(WRITE_BLOCK);
+            ByteBuffer data = ByteBuffer.allocateDirect(WRITE_BLOCK);
+            long position = 0;
+            while (position < size) {
+                ByteBuffer block;
+                if (position % (16L * WRITE_BLOCK) == 0) {
+                    fillRandom(data, random);
+                    block = data;
+                } else {
+                    zeros.clear();
+                    block = zeros;
+                }
+                block.limit((int) Math.min(WRITE_BLOCK, size - position));
+                position += writeFully(channel, block, position);
+            }
+        }
+        return path.toFile();
+    }
+
+    /**
+     * Writes an older version of every file into {@code dir}, as a receiver that
+     * got the previous nightly build would have it: the same content without a
+     * short run of bytes somewhere (so the new version has an insertion that
+     * shifts everything after it) and with a small edit every 16 MB.
+     */
+    public void writePreviousVersions(Path dir) throws IOException {
+        SplittableRandom random = new SplittableRandom(SEED ^ 0xDE17AL);
+        for (File file : files) {
+            long size = file.length();
+            Path target = dir.resolve(file.getName());
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                         StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                int removed = (int) Math.min(size / 2, 100);
+                long cut = size - removed > 0 ? random.nextLong(size - removed + 1) : 0;
+                transferFully(in, 0, cut, out);
+                transferFully(in, cut + removed, size - cut - removed, out);
+
+                long oldSize = size - removed;
+                ByteBuffer edit = ByteBuffer.allocate(64);
+                for (long i = 0; i < Math.max(1, oldSize / (16L * WRITE_BLOCK)) && oldSize > edit.capacity(); i++) {
+                    fillRandom(edit, random);
+                    writeFully(out, edit, random.nextLong(oldSize - edit.capacity()));
+                }
+            }
+        }
+    }
+
+    /** Copies the first half of the files into {@code dir}, as an interrupted earlier session would have left it. */
+    public void writeInterruptedSession(Path dir) throws IOException {
+        for (File file : files.subList(0, files.size() / 2)) {
+            Files.copy(file.toPath(), dir.resolve(file.getName()), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void transferFully(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        long done = 0;
+        while (done < count) {
+            done += in.transferTo(position + done, count - done, out);
+        }
+    }
+
+    private static void fillRandom(ByteBuffer block, SplittableRandom random) {
+        block.clear();
+        while (block.remaining() >= Long.BYTES) {
+            block.putLong(random.nextLong());
+        }
+        block.flip();
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer block, long position) throws IOException {
+        int written = 0;
+        while (block.hasRemaining()) {
+            written += channel.write(block, position + written);
+        }
+        return written;
+    }
+
+    private static long scaled(long bytes, double scale) {
+        return Math.max(1, (long) (bytes * scale));
+    }
+
+    public void delete() throws IOException {
+        deleteTree(root);
+    }
+
+    public static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -2,14 +2,18 @@ package org.app.gui;
 
 import org.app.User;
 import org.app.backend.FileTransferManager;
+import org.app.backend.FolderSync;
+import org.app.backend.PeerRegistry;
+import org.app.backend.TransferProgress;
+import org.app.backend.TransferRole;
 import org.app.gui.theme.AppTheme;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import javax.swing.SwingWorker;
 import javax.swing.border.EmptyBorder;
@@ -20,6 +24,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.Transferable;
 import java.awt.dnd.*;
@@ -169,19 +174,23 @@ public class FileSharingApp {
 
         // Action buttons with better spacing
         JPanel actionPanel = ModernTheme.createRoundedPanel();
-        actionPanel.setLayout(new MigLayout("insets 15", "[grow]10[grow]"));
+        actionPanel.setLayout(new MigLayout("insets 15", "[grow]10[grow]10[grow]"));
 
         JButton sendButton = ModernTheme.createAccentButton("Send Files");
+        JButton syncButton = ModernTheme.createAccentButton("Sync Folder");
         JButton receiveButton = ModernTheme.createAccentButton("Receive Files");
 
         // Add tooltips
         sendButton.setToolTipText("Click to select files or drag and drop anywhere");
+        syncButton.setToolTipText("Keep a folder up to date on another user's machine as it changes");
         receiveButton.setToolTipText("Start receiving files from other users");
 
         sendButton.addActionListener(e -> openFileSelection());
+        syncButton.addActionListener(e -> openSyncFolderSelection());
         receiveButton.addActionListener(e -> waitForIncomingConnection());
 
         actionPanel.add(sendButton, "grow");
+        actionPanel.add(syncButton, "grow");
         actionPanel.add(receiveButton, "grow");
 
         // Add components to frame with proper spacing
@@ -290,7 +299,29 @@ public class FileSharingApp {
         }
     }
 
+    private void openSyncFolderSelection() {
+        if (nameField.getText().trim().isEmpty()) {
+            JOptionPane.showMessageDialog(frame, "Please enter your name first!", "Warning",
+                    JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        user.setUsername(nameField.getText());
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        fileChooser.setDialogTitle("Select Folder to Sync");
+
+        if (fileChooser.showOpenDialog(frame) == JFileChooser.APPROVE_OPTION) {
+            File folder = fileChooser.getSelectedFile();
+            startReceiverDiscovery(receiver -> sendSyncRequest(receiver, folder));
+        }
+    }
+
     private void startReceiverDiscovery(File[] files) {
+        startReceiverDiscovery(receiver -> sendConnectionRequest(receiver, files));
+    }
+
+    private void startReceiverDiscovery(Consumer<User> onReceiverSelected) {
         JDialog discoveryDialog = new JDialog(frame, "Searching for Receivers", true);
         discoveryDialog.setSize(scale(400), scale(500));
         discoveryDialog.setLocationRelativeTo(frame);
@@ -310,11 +341,13 @@ public class FileSharingApp {
         statusPanel.add(statusLabel, BorderLayout.CENTER);
         statusPanel.add(searchProgress, BorderLayout.SOUTH);
 
-        // Receivers panel
-        JPanel receiverPanel = new JPanel();
-        receiverPanel.setLayout(new BoxLayout(receiverPanel, BoxLayout.Y_AXIS));
-        receiverPanel.setBackground(AppTheme.SECONDARY_COLOR);
-        ButtonGroup group = new ButtonGroup();
+        // Receivers list
+        PeerListModel receiverModel = new PeerListModel();
+        JList<User> receiverList = new JList<>(receiverModel);
+        receiverList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        receiverList.setBackground(AppTheme.SECONDARY_COLOR);
+        receiverList.setCellRenderer(new PeerCellRenderer());
+        receiverList.setFixedCellHeight(scale(28));
 
         // Buttons
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
@@ -331,21 +364,20 @@ public class FileSharingApp {
         buttonPanel.add(cancelButton);
 
         mainPanel.add(statusPanel, BorderLayout.NORTH);
-        mainPanel.add(new JScrollPane(receiverPanel), BorderLayout.CENTER);
+        mainPanel.add(new JScrollPane(receiverList), BorderLayout.CENTER);
         mainPanel.add(buttonPanel, BorderLayout.SOUTH);
 
         discoveryDialog.add(mainPanel);
 
         // Handle discovery process
         AtomicBoolean isCancelled = new AtomicBoolean(false);
-        List<User> availableReceivers = Collections.synchronizedList(new ArrayList<>());
 
         // Connect button action
         connectButton.addActionListener(e -> {
-            User selectedReceiver = getSelectedReceiver(receiverPanel, availableReceivers);
+            User selectedReceiver = receiverList.getSelectedValue();
             if (selectedReceiver != null) {
                 discoveryDialog.dispose();
-                sendConnectionRequest(selectedReceiver, files);
+                onReceiverSelected.accept(selectedReceiver);
             } else {
                 JOptionPane.showMessageDialog(discoveryDialog,
                     "Please select a receiver",
@@ -367,14 +399,12 @@ public class FileSharingApp {
             searchProgress.setIndeterminate(true);
             retryButton.setVisible(false);
             connectButton.setVisible(true);
-            receiverPanel.removeAll();
-            availableReceivers.clear();
-            group.clearSelection();
-            startDiscovery(availableReceivers, receiverPanel, group, statusLabel);
+            receiverModel.clear();
+            startDiscovery(receiverList, receiverModel, statusLabel);
         });
 
         // Start discovery
-        startDiscovery(availableReceivers, receiverPanel, group, statusLabel);
+        startDiscovery(receiverList, receiverModel, statusLabel);
 
         discoveryDialog.setVisible(true);
     }
@@ -438,6 +468,100 @@ public class FileSharingApp {
         waitDialog.setVisible(true);
     }
 
+    private void sendSyncRequest(User receiver, File folder) {
+        SwingWorker<Boolean, Void> worker = new SwingWorker<>() {
+            @Override
+            protected Boolean doInBackground() {
+                return transferManager.sendSyncRequest(receiver, user.getUsername(), folder);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    if (get()) {
+                        startFolderSync(receiver, folder);
+                    } else {
+                        JOptionPane.showMessageDialog(frame,
+                            "Sync request was refused by the receiver.",
+                            "Connection Refused",
+                            JOptionPane.INFORMATION_MESSAGE);
+                    }
+                } catch (Exception e) {
+                    JOptionPane.showMessageDialog(frame,
+                        "Could not start the sync: " + e.getMessage(),
+                        "Sync Error",
+                        JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    private void startFolderSync(User receiver, File folder) throws IOException {
+        String transferId = UUID.randomUUID().toString();
+        TransferProgressPanel progressPanel = new TransferProgressPanel("Sync " + folder.getName(), transferId);
+        progressPanel.addLog("Syncing " + folder.getAbsolutePath() + " to " + receiver.getUsername());
+
+        activeTransfers.put(transferId, progressPanel);
+        transfersPanel.add(progressPanel);
+        transfersPanel.setVisible(true);
+        if (!isTransfersPanelExpanded) {
+            progressPanel.setVisible(false);
+        }
+
+        TransferProgress syncProgress = new TransferProgress() {
+            @Override
+            public void onFileCompleted(String fileName, long fileSize) {
+                super.onFileCompleted(fileName, fileSize);
+                progressPanel.addLog("Synced file: " + fileName);
+            }
+
+            @Override
+            public void onFileSkipped(String fileName, long fileSize) {
+                super.onFileSkipped(fileName, fileSize);
+                progressPanel.addLog("Skipped file, receiver already has it: " + fileName);
+            }
+
+            @Override
+            public void onSessionCompleted(TransferRole role, String peer) {
+                super.onSessionCompleted(role, peer);
+                SwingUtilities.invokeLater(() -> progressPanel.updateStatus("Sync stopped"));
+            }
+
+            @Override
+            public void onSessionFailed(TransferRole role, String peer, Throwable cause) {
+                super.onSessionFailed(role, peer, cause);
+                SwingUtilities.invokeLater(() -> progressPanel.updateStatus("Error: " + cause.getMessage()));
+            }
+
+            @Override
+            public void onMessage(String message) {
+                progressPanel.addLog(message);
+            }
+        };
+        new ProgressSampler(syncProgress, sample -> {
+            progressPanel.showSample(sample);
+            if (!sample.finished() && !sample.fileName().isEmpty()) {
+                progressPanel.updateStatus("Syncing file: " + sample.fileName());
+            }
+        }).start();
+        FolderSync sync = transferManager.startSync(receiver, folder, syncProgress);
+
+        JButton stopButton = ModernTheme.createAccentButton("Stop Sync");
+        stopButton.addActionListener(e -> {
+            stopButton.setEnabled(false);
+            try {
+                sync.close();
+            } catch (IOException ex) {
+                progressPanel.addLog("Could not stop the sync: " + ex.getMessage());
+            }
+        });
+        progressPanel.addCancelButton(stopButton);
+
+        frame.revalidate();
+        frame.repaint();
+    }
+
     private void waitForIncomingConnection() {
         if (nameField.getText().trim().isEmpty()) {
             JOptionPane.showMessageDialog(frame, "Please enter your name first!", "Warning",
@@ -468,64 +592,71 @@ public class FileSharingApp {
         frame.revalidate();
         frame.repaint();
 
-        transferManager.startReceiving(user.getUsername(),
-            saveDirectoryField.getText(),
-            progress -> {
+        TransferProgress receiveProgress = new TransferProgress() {
+            @Override
+            public void onConnectionRequest(String peer, String request) {
+                mainProgressPanel.addLog("Connection request from " + peer);
+            }
+
+            @Override
+            public void onSessionStarted(TransferRole role, String peer, int totalFiles, long totalBytes) {
+                super.onSessionStarted(role, peer, totalFiles, totalBytes);
                 SwingUtilities.invokeLater(() -> {
-                    if (progress == -1) {
-                        mainProgressPanel.updateStatus("Starting transfer...");
-                        mainProgressPanel.updateProgress(0);
-                        mainProgressPanel.addLog("Starting file transfer");
-                    } else {
-                        mainProgressPanel.updateProgress(progress);
-                        mainProgressPanel.addLog("Transfer progress: " + progress + "%");
-                    }
+                    mainProgressPanel.updateStatus("Receiving files from " + peer);
+                    mainProgressPanel.updateCounter(0, 0);
+                    mainProgressPanel.addLog("Accepted connection from " + peer);
+                    new ProgressSampler(this, sample -> {
+                        mainProgressPanel.showSample(sample);
+                        if (!sample.finished()) {
+                            mainProgressPanel.updateStatus("Receiving: " + sample.fileName());
+                        }
+                    }).start();
                 });
-            },
-            status -> {
+            }
+
+            @Override
+            public void onFileStarted(String fileName, long fileSize, int totalChunks, int fileIndex, int totalFiles) {
+                super.onFileStarted(fileName, fileSize, totalChunks, fileIndex, totalFiles);
+                mainProgressPanel.addLog("Receiving file: " + fileName + " (" + formatFileSize(fileSize) + ")");
+            }
+
+            @Override
+            public void onFileCompleted(String fileName, long fileSize) {
+                super.onFileCompleted(fileName, fileSize);
+                mainProgressPanel.addLog("Received file: " + fileName);
+            }
+
+            @Override
+            public void onFileSkipped(String fileName, long fileSize) {
+                super.onFileSkipped(fileName, fileSize);
+                mainProgressPanel.addLog("Already have file: " + fileName);
+            }
+
+            @Override
+            public void onSessionCompleted(TransferRole role, String peer) {
+                super.onSessionCompleted(role, peer);
                 SwingUtilities.invokeLater(() -> {
-                    mainProgressPanel.addLog(status);
-                    if (status.contains("Connection request from")) {
-                        String senderName = status.substring(status.indexOf("from") + 5);
-                        int option = JOptionPane.showConfirmDialog(frame,
-                            "Accept file transfer from " + senderName + "?",
-                            "Connection Request",
-                            JOptionPane.YES_NO_OPTION);
-
-                        if (option == JOptionPane.YES_OPTION) {
-                            mainProgressPanel.updateStatus("Receiving files from " + senderName);
-                            mainProgressPanel.updateCounter(0, 0);
-                            mainProgressPanel.addLog("Accepted connection from " + senderName);
-                        } else {
-                            transferManager.stopReceiving();
-                            mainProgressPanel.updateStatus("Transfer rejected");
-                            mainProgressPanel.addLog("Rejected connection from " + senderName);
-                            transfersPanel.setVisible(false);
-                            transfersPanel.removeAll();
-                            frame.revalidate();
-                            frame.repaint();
-                        }
-                    } else if (status.startsWith("Receiving file:")) {
-                        String fileName = status.substring(status.indexOf(":") + 1).trim();
-                        mainProgressPanel.updateStatus("Receiving: " + fileName);
-                    } else if (status.matches("Completed \\d+ of \\d+ files")) {
-                        String[] parts = status.split(" ");
-                        int current = Integer.parseInt(parts[1]);
-                        int total = Integer.parseInt(parts[3]);
-                        mainProgressPanel.updateCounter(current, total);
-                        if (current == total) {
-                            mainProgressPanel.updateStatus("Transfer complete");
-                            mainProgressPanel.addLog("Transfer completed successfully");
-                            cancelButton.setEnabled(false);
-                        }
-                    } else if (status.contains("Total files:")) {
-                        String[] parts = status.split(":");
-                        int totalFiles = Integer.parseInt(parts[1].trim());
-                        mainProgressPanel.updateCounter(0, totalFiles);
-                    }
+                    mainProgressPanel.updateStatus("Transfer complete");
+                    mainProgressPanel.addLog("Transfer completed successfully");
+                    cancelButton.setEnabled(false);
                 });
             }
-        );
+
+            @Override
+            public void onSessionFailed(TransferRole role, String peer, Throwable cause) {
+                super.onSessionFailed(role, peer, cause);
+                SwingUtilities.invokeLater(() -> {
+                    mainProgressPanel.updateStatus("Transfer failed");
+                    mainProgressPanel.addLog("Error: " + cause.getMessage());
+                });
+            }
+
+            @Override
+            public void onMessage(String message) {
+                mainProgressPanel.addLog(message);
+            }
+        };
+        transferManager.startReceiving(user.getUsername(), saveDirectoryField.getText(), receiveProgress);
     }
 
     private void setSaveDirectory() {
@@ -577,7 +708,9 @@ public class FileSharingApp {
         private final JLabel counterLabel;
         private final String transferId;
         private JButton cancelButton;
-        private JTextArea logArea;
+        private final TransferLogModel logModel = new TransferLogModel();
+        private final Timer logRefreshTimer;
+        private JList<String> logList;
         private JScrollPane logScrollPane;
         private JButton toggleLogButton;
         private boolean isLogVisible = false;
@@ -616,15 +749,18 @@ public class FileSharingApp {
             toggleLogButton.addActionListener(e -> toggleLog());
 
             // Log area
-            logArea = new JTextArea();
-            logArea.setEditable(false);
-            logArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
-            logArea.setBackground(new Color(245, 245, 245));
-            logArea.setForeground(new Color(60, 60, 60));
-
-            logScrollPane = new JScrollPane(logArea);
+            logList = new JList<>(logModel);
+            logList.setFocusable(false);
+            logList.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            logList.setBackground(new Color(245, 245, 245));
+            logList.setForeground(new Color(60, 60, 60));
+            // Fixed row height keeps the list from measuring every entry
+            logList.setPrototypeCellValue("[00:00:00] Receiving file: a-typical-file-name.bin");
+
+            logScrollPane = new JScrollPane(logList);
             logScrollPane.setPreferredSize(new Dimension(0, 150));
             logScrollPane.setVisible(false);
+            logRefreshTimer = new Timer(250, e -> refreshLog());
 
             // Add components
             infoPanel.add(statusPanel, "grow");
@@ -638,18 +774,32 @@ public class FileSharingApp {
         private void toggleLog() {
             isLogVisible = !isLogVisible;
             logScrollPane.setVisible(isLogVisible);
+            if (isLogVisible) {
+                refreshLog();
+                logRefreshTimer.start();
+            } else {
+                logRefreshTimer.stop();
+            }
             toggleLogButton.setText(isLogVisible ? "📋" : "📋");
             revalidate();
             repaint();
         }
 
+        // Safe from any thread; the list only picks entries up while the log is shown
         public void addLog(String message) {
-            SwingUtilities.invokeLater(() -> {
-                logArea.append(String.format("[%s] %s%n",
-                    new java.text.SimpleDateFormat("HH:mm:ss").format(new java.util.Date()),
-                    message));
-                logArea.setCaretPosition(logArea.getDocument().getLength());
-            });
+            logModel.append(message);
+        }
+
+        @Override
+        public void removeNotify() {
+            logRefreshTimer.stop();
+            super.removeNotify();
+        }
+
+        private void refreshLog() {
+            if (logModel.publish()) {
+                logList.ensureIndexIsVisible(logModel.getSize() - 1);
+            }
         }
 
         public void updateProgress(int progress) {
@@ -665,6 +815,25 @@ public class FileSharingApp {
             counterLabel.setText(String.format("(%d/%d)", current, total));
         }
 
+        public void showSample(ProgressSampler.Sample sample) {
+            progressBar.setValue(sample.percent());
+            StringBuilder text = new StringBuilder().append(sample.percent()).append('%');
+            if (!sample.finished() && sample.bytesPerSecond() > 0) {
+                text.append("  ").append(formatFileSize((long) sample.bytesPerSecond())).append("/s");
+                if (sample.etaSeconds() >= 0) {
+                    long eta = sample.etaSeconds();
+                    text.append("  ").append(eta / 60).append(':').append(eta % 60 < 10 ? "0" : "").append(eta % 60)
+                        .append(" left");
+                }
+            }
+            progressBar.setString(text.toString());
+            if (sample.totalFiles() > 0) {
+                updateCounter(sample.filesCompleted(), sample.totalFiles());
+            } else if (sample.filesCompleted() > 0) {
+                updateCounter(sample.filesCompleted(), sample.filesCompleted());
+            }
+        }
+
         public void addCancelButton(JButton button) {
             this.cancelButton = button;
             JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
@@ -676,53 +845,74 @@ public class FileSharingApp {
         }
     }
 
-    // Move this method outside showAvailableReceivers
-    private User getSelectedReceiver(JPanel receiverPanel, List<User> availableReceivers) {
-        for (Component comp : receiverPanel.getComponents()) {
-            if (comp instanceof JRadioButton radio && radio.isSelected()) {
-                String selectedReceiverName = radio.getText().trim();
-                synchronized (availableReceivers) {
-                    return availableReceivers.stream()
-                        .filter(user -> user.getUsername().equals(selectedReceiverName))
-                        .findFirst()
-                        .orElse(null);
-                }
+    // Helper method to start discovery
+    private void startDiscovery(JList<User> receiverList, PeerListModel receiverModel, JLabel statusLabel) {
+        transferManager.startDiscovery(new PeerRegistry.Listener() {
+            @Override
+            public void onPeerAdded(User peer) {
+                SwingUtilities.invokeLater(() -> {
+                    keepingSelection(() -> receiverModel.put(peer));
+                    updateCount();
+                });
             }
-        }
-        return null;
-    }
 
-    // Helper method to start discovery
-    private void startDiscovery(List<User> availableReceivers, JPanel receiverPanel,
-                              ButtonGroup group, JLabel statusLabel) {
-        transferManager.startDiscovery(availableReceivers, users -> {
-            SwingUtilities.invokeLater(() -> {
-                receiverPanel.removeAll();
-
-                if (users.isEmpty()) {
-                    JLabel noReceiversLabel = new JLabel("No receivers found yet...");
-                    noReceiversLabel.setFont(AppTheme.REGULAR_FONT);
-                    noReceiversLabel.setForeground(Color.GRAY);
-                    receiverPanel.add(noReceiversLabel);
-                } else {
-                    synchronized (availableReceivers) {
-                        for (User receiver : users) {
-                            JRadioButton radioButton = new JRadioButton(receiver.getUsername());
-                            group.add(radioButton);
-                            receiverPanel.add(radioButton);
-                            receiverPanel.add(Box.createRigidArea(new Dimension(0, scale(5))));
-                        }
-                    }
+            @Override
+            public void onPeerUpdated(User peer) {
+                SwingUtilities.invokeLater(() -> keepingSelection(() -> receiverModel.put(peer)));
+            }
+
+            @Override
+            public void onPeerRemoved(User peer) {
+                SwingUtilities.invokeLater(() -> {
+                    keepingSelection(() -> receiverModel.remove(peer));
+                    updateCount();
+                });
+            }
+
+            // Peers move as their load changes, so the selection follows its peer; with nothing picked yet,
+            // the best-ranked receiver is preselected
+            private void keepingSelection(Runnable change) {
+                User selected = receiverList.getSelectedValue();
+                change.run();
+                int index = selected != null ? receiverModel.indexOf(selected.getPeerId()) : -1;
+                if (index < 0 && receiverModel.getSize() > 0) {
+                    index = 0;
+                }
+                if (index >= 0 && index != receiverList.getSelectedIndex()) {
+                    receiverList.setSelectedIndex(index);
                 }
+            }
 
-                receiverPanel.revalidate();
-                receiverPanel.repaint();
-                statusLabel.setText("Found " + users.size() + " receiver(s)");
+            private void updateCount() {
+                int count = receiverModel.getSize();
+                statusLabel.setText(count == 0 ? "No receivers found yet..." : "Found " + count + " receiver(s)");
                 statusLabel.setForeground(AppTheme.PRIMARY_COLOR);
-            });
+            }
         });
     }
 
+    @SuppressWarnings("serial")
+    private class PeerCellRenderer extends DefaultListCellRenderer {
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                      boolean isSelected, boolean cellHasFocus) {
+            super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            User peer = (User) value;
+            StringBuilder text = new StringBuilder(peer.getUsername());
+            if (peer.getProtocolVersion() > 0) {
+                text.append("  ·  ").append(peer.getActiveTransfers() == 0 ? "idle"
+                        : peer.getActiveTransfers() + " active");
+                if (peer.getFreeSpace() >= 0) {
+                    text.append("  ·  ").append(formatFileSize(peer.getFreeSpace())).append(" free");
+                }
+            }
+            setText(text.toString());
+            setToolTipText(peer.getIp());
+            setFont(AppTheme.REGULAR_FONT);
+            return this;
+        }
+    }
+
     // Modify the file sending method to use the new progress panel
     private void startFileTransfer(User receiver, File[] files) {
         String transferId = UUID.randomUUID().toString();
@@ -749,24 +939,55 @@ public class FileSharingApp {
         frame.revalidate();
         frame.repaint();
 
-        transferManager.startSendingFiles(
-            receiver,
-            user.getUsername(),
-            files,
-            progress -> SwingUtilities.invokeLater(() -> {
-                progressPanel.updateProgress(progress);
-            }),
-            status -> SwingUtilities.invokeLater(() -> {
-                progressPanel.updateStatus(status);
-            }),
-            () -> SwingUtilities.invokeLater(() -> {
-                progressPanel.updateStatus("Transfer Complete");
-                JOptionPane.showMessageDialog(frame,
-                    "Files sent successfully!",
-                    "Transfer Complete",
-                    JOptionPane.INFORMATION_MESSAGE);
-            })
-        );
+        TransferProgress sendProgress = new TransferProgress() {
+            @Override
+            public void onFileCompleted(String fileName, long fileSize) {
+                super.onFileCompleted(fileName, fileSize);
+                progressPanel.addLog("Sent file: " + fileName);
+            }
+
+            @Override
+            public void onFileSkipped(String fileName, long fileSize) {
+                super.onFileSkipped(fileName, fileSize);
+                progressPanel.addLog("Skipped file, receiver already has it: " + fileName);
+            }
+
+            @Override
+            public void onChunkRetry(int chunkIndex, int attempt, Throwable cause) {
+                super.onChunkRetry(chunkIndex, attempt, cause);
+                progressPanel.addLog("Retrying chunk " + chunkIndex + " (attempt " + attempt + "): " + cause.getMessage());
+            }
+
+            @Override
+            public void onSessionCompleted(TransferRole role, String peer) {
+                super.onSessionCompleted(role, peer);
+                SwingUtilities.invokeLater(() -> {
+                    progressPanel.updateStatus("Transfer Complete");
+                    JOptionPane.showMessageDialog(frame,
+                        "Files sent successfully!",
+                        "Transfer Complete",
+                        JOptionPane.INFORMATION_MESSAGE);
+                });
+            }
+
+            @Override
+            public void onSessionFailed(TransferRole role, String peer, Throwable cause) {
+                super.onSessionFailed(role, peer, cause);
+                SwingUtilities.invokeLater(() -> progressPanel.updateStatus("Error: " + cause.getMessage()));
+            }
+
+            @Override
+            public void onMessage(String message) {
+                progressPanel.addLog(message);
+            }
+        };
+        new ProgressSampler(sendProgress, sample -> {
+            progressPanel.showSample(sample);
+            if (!sample.finished() && !sample.fileName().isEmpty()) {
+                progressPanel.updateStatus("Sending file: " + sample.fileName());
+            }
+        }).start();
+        transferManager.startSendingFiles(receiver, user.getUsername(), files, sendProgress);
     }
 
     private JButton createSmallButton(String text) {
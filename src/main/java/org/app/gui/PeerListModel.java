@@ -0,0 +1,100 @@
+package org.app.gui;
+
+import org.app.User;
+import org.app.backend.PeerRegistry;
+
+import javax.swing.AbstractListModel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Discovered receivers for the discovery dialog's {@code JList}, kept in
+ * {@link PeerRegistry#PREFERRED_FIRST} order so idle receivers with the most
+ * free space come first. Peers are added, updated and removed one at a time
+ * by peer ID; an update that leaves the peer in place fires a single-row
+ * event, and one that changes its rank moves just that row. All methods must
+ * be called on the EDT.
+ */
+@SuppressWarnings("serial")
+public class PeerListModel extends AbstractListModel<User> {
+    private final List<User> peers = new ArrayList<>();
+    private final Map<String, Integer> indexByPeerId = new HashMap<>();
+
+    /** Adds the peer at its rank, or updates it if already listed, moving it if its rank changed. */
+    public void put(User peer) {
+        Integer index = indexByPeerId.get(peer.getPeerId());
+        if (index != null) {
+            boolean inPlace = (index == 0 || PeerRegistry.PREFERRED_FIRST.compare(peers.get(index - 1), peer) <= 0)
+                    && (index == peers.size() - 1
+                        || PeerRegistry.PREFERRED_FIRST.compare(peer, peers.get(index + 1)) <= 0);
+            if (inPlace) {
+                peers.set(index, peer);
+                fireContentsChanged(this, index, index);
+                return;
+            }
+            remove(peer);
+        }
+        int added = rankOf(peer);
+        peers.add(added, peer);
+        reindexFrom(added);
+        fireIntervalAdded(this, added, added);
+    }
+
+    public void remove(User peer) {
+        Integer index = indexByPeerId.remove(peer.getPeerId());
+        if (index == null) {
+            return;
+        }
+        peers.remove((int) index);
+        reindexFrom(index);
+        fireIntervalRemoved(this, index, index);
+    }
+
+    public void clear() {
+        int size = peers.size();
+        if (size == 0) {
+            return;
+        }
+        peers.clear();
+        indexByPeerId.clear();
+        fireIntervalRemoved(this, 0, size - 1);
+    }
+
+    // Position after every peer that ranks the same or better, so equal peers stay in arrival order
+    private int rankOf(User peer) {
+        int low = 0;
+        int high = peers.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (PeerRegistry.PREFERRED_FIRST.compare(peers.get(mid), peer) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void reindexFrom(int from) {
+        for (int i = from; i < peers.size(); i++) {
+            indexByPeerId.put(peers.get(i).getPeerId(), i);
+        }
+    }
+
+    public int indexOf(String peerId) {
+        Integer index = indexByPeerId.get(peerId);
+        return index == null ? -1 : index;
+    }
+
+    @Override
+    public int getSize() {
+        return peers.size();
+    }
+
+    @Override
+    public User getElementAt(int index) {
+        return peers.get(index);
+    }
+}
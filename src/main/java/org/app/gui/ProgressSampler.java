@@ -0,0 +1,71 @@
+package org.app.gui;
+
+import org.app.backend.TransferProgress;
+
+import javax.swing.Timer;
+import java.util.function.Consumer;
+
+/**
+ * Samples a {@link TransferProgress} on the EDT at a fixed rate and hands the
+ * result to the UI, so the progress bar moves smoothly no matter how many
+ * chunk events the transfer threads produce. The rate shown is an exponential
+ * moving average of the per-tick throughput; the sampler stops itself after
+ * delivering the final sample of a finished session.
+ */
+public class ProgressSampler {
+    private static final int INTERVAL_MS = 100;
+    private static final double SMOOTHING = 0.2;
+
+    private final TransferProgress progress;
+    private final Consumer<Sample> consumer;
+    private final Timer timer;
+    private long lastBytes;
+    private long lastNanos;
+    private double bytesPerSecond = -1;
+
+    public record Sample(int percent, long bytes, long totalBytes, double bytesPerSecond, long etaSeconds,
+                         String fileName, int filesCompleted, int totalFiles, boolean finished) {
+    }
+
+    public ProgressSampler(TransferProgress progress, Consumer<Sample> consumer) {
+        this.progress = progress;
+        this.consumer = consumer;
+        this.timer = new Timer(INTERVAL_MS, e -> tick());
+        this.timer.setCoalesce(true);
+    }
+
+    public void start() {
+        lastNanos = System.nanoTime();
+        lastBytes = progress.getBytesTransferred();
+        timer.start();
+    }
+
+    public void stop() {
+        timer.stop();
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        long bytes = progress.getBytesTransferred();
+        boolean finished = progress.isFinished();
+        long elapsed = now - lastNanos;
+        if (elapsed > 0) {
+            double instant = Math.max(0, bytes - lastBytes) * 1e9 / elapsed;
+            bytesPerSecond = bytesPerSecond < 0 ? instant : SMOOTHING * instant + (1 - SMOOTHING) * bytesPerSecond;
+        }
+        lastBytes = bytes;
+        lastNanos = now;
+
+        long total = progress.getTotalBytes();
+        int percent = total > 0 ? (int) Math.min(100, bytes * 100 / total) : 0;
+        if (finished && !progress.isFailed()) {
+            percent = 100;
+        }
+        long eta = bytesPerSecond > 0 && total > bytes ? (long) ((total - bytes) / bytesPerSecond) : -1;
+        consumer.accept(new Sample(percent, bytes, total, bytesPerSecond, eta, progress.getCurrentFileName(),
+                progress.getFilesCompleted(), progress.getTotalFiles(), finished));
+        if (finished) {
+            timer.stop();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.app.gui;
+
+import javax.swing.AbstractListModel;
+import java.util.TimeZone;
+
+/**
+ * Fixed-capacity transfer log backing a {@code JList}. Once full, each new
+ * entry overwrites the oldest, so memory stays flat however long the session.
+ *
+ * {@link #append} may be called from any thread and only stores the entry;
+ * nothing reaches the EDT until {@link #publish()} runs there, which the log
+ * panel does on a timer while the log is visible. Rows are formatted on
+ * demand, so only the rows the list actually paints are ever turned into text.
+ */
+@SuppressWarnings("serial")
+public class TransferLogModel extends AbstractListModel<String> {
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private final long[] timestamps;
+    private final String[] messages;
+    private final StringBuilder row = new StringBuilder(128);
+    private int head;      // index of the oldest entry
+    private int count;     // entries currently stored
+    private long appended; // total entries ever appended
+    private int publishedSize;
+    private long publishedAppended;
+
+    public TransferLogModel() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TransferLogModel(int capacity) {
+        this.timestamps = new long[capacity];
+        this.messages = new String[capacity];
+    }
+
+    public synchronized void append(String message) {
+        int slot = (head + count) % messages.length;
+        timestamps[slot] = System.currentTimeMillis();
+        messages[slot] = message;
+        if (count < messages.length) {
+            count++;
+        } else {
+            head = (head + 1) % messages.length;
+        }
+        appended++;
+    }
+
+    /** Makes entries appended since the last call visible to the list. Call on the EDT. */
+    public boolean publish() {
+        int size;
+        long total;
+        synchronized (this) {
+            size = count;
+            total = appended;
+        }
+        if (total == publishedAppended) {
+            return false;
+        }
+        int previous = publishedSize;
+        publishedSize = size;
+        publishedAppended = total;
+        if (size > previous) {
+            fireIntervalAdded(this, previous, size - 1);
+        }
+        if (previous > 0) {
+            // Entries shift once the ring wraps, so existing rows may show new text
+            fireContentsChanged(this, 0, Math.min(previous, size) - 1);
+        }
+        return true;
+    }
+
+    @Override
+    public int getSize() {
+        return publishedSize;
+    }
+
+    @Override
+    public synchronized String getElementAt(int index) {
+        int slot = (head + index) % messages.length;
+        long millis = timestamps[slot];
+        long secondOfDay = Math.floorMod((millis + TimeZone.getDefault().getOffset(millis)) / 1000, 86_400L);
+        row.setLength(0);
+        row.append('[');
+        appendTwoDigits(secondOfDay / 3600);
+        row.append(':');
+        appendTwoDigits(secondOfDay / 60 % 60);
+        row.append(':');
+        appendTwoDigits(secondOfDay % 60);
+        row.append("] ").append(messages[slot]);
+        return row.toString();
+    }
+
+    private void appendTwoDigits(long value) {
+        row.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+}